@@ -1,23 +1,44 @@
 package uk.anbu.devnotes;
 
+import jakarta.annotation.PreDestroy;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import uk.anbu.devnotes.module.GroovyExecutor;
 import uk.anbu.devnotes.module.MarkdownRenderer;
 import uk.anbu.devnotes.module.SqlExecutor;
+import uk.anbu.devnotes.scheduled.SqlRefreshScheduledTasks;
 import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.DataSourcePermits;
+import uk.anbu.devnotes.util.TaskExecutors;
 
 @Configuration
 public class DevnotesContext {
+
+    private ThreadPoolTaskExecutor codeBlockExecutor;
+
     @Bean
     MarkdownRenderer markdownRenderer(ConfigService configService,
                                       SqlExecutor sqlExecutor,
-                                      GroovyExecutor groovyExecutor) {
+                                      GroovyExecutor groovyExecutor,
+                                      SqlRefreshScheduledTasks sqlRefreshScheduledTasks,
+                                      DataSourcePermits dataSourcePermits) {
+        codeBlockExecutor = TaskExecutors.daemonExecutor("code-block-", configService.getRenderThreads());
         return new MarkdownRenderer(
                 sqlExecutor::renderResultAsJsonFile,
                 sqlExecutor::convertToHtmlTable,
                 groovyExecutor::processGroovyCodeBlock,
-                configService::getDataSourceConfig
+                configService::getDataSourceConfig,
+                codeBlockExecutor,
+                dataSourcePermits::permits,
+                sqlRefreshScheduledTasks::register
         );
     }
-}
\ No newline at end of file
+
+    @PreDestroy
+    public void shutdown() {
+        if (codeBlockExecutor != null) {
+            codeBlockExecutor.shutdown();
+        }
+    }
+}
@@ -9,6 +9,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.DataSourceRegistry;
+import uk.anbu.devnotes.service.RenderedPageCache;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -19,6 +21,8 @@ public class ConfigController {
 
     private final TemplateEngine templateEngine;
     private final ConfigService configService;
+    private final DataSourceRegistry dataSourceRegistry;
+    private final RenderedPageCache renderedPageCache;
 
     @GetMapping("/config")
     public ResponseEntity<String> configPage() {
@@ -40,6 +44,8 @@ public class ConfigController {
             configService.setSqlMaxRows(Integer.parseInt(params.get("sqlMaxRows")));
         }
         configService.saveAndReloadConfig();
+        dataSourceRegistry.retainAll(configService.getDataSources().values());
+        renderedPageCache.clear();
 
         return ResponseEntity.status(HttpStatus.FOUND)
                 .header(HttpHeaders.LOCATION, "/config")
@@ -15,13 +15,16 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.DirectoryTree;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -33,6 +36,8 @@ public class DirectoryListingController {
 
     private final TemplateEngine templateEngine;
 
+    private final DirectoryTree directoryTree;
+
     @GetMapping("/")
     public ResponseEntity<Object> index() {
         return ResponseEntity.status(HttpStatus.FOUND)
@@ -46,6 +51,7 @@ public class DirectoryListingController {
             Path markdownRoot = Paths.get(configService.getDocsDirectory());
             Path newDirPath = markdownRoot.resolve(path).resolve(name);
             Files.createDirectories(newDirPath);
+            directoryTree.refresh(List.of(newDirPath));
             return ResponseEntity.ok("Subdirectory created successfully");
         } catch (IOException e) {
             log.error("Error creating subdirectory", e);
@@ -59,6 +65,7 @@ public class DirectoryListingController {
             Path markdownRoot = Paths.get(configService.getDocsDirectory());
             Path newFilePath = markdownRoot.resolve(path).resolve(name);
             Files.createFile(newFilePath);
+            directoryTree.refresh(List.of(newFilePath));
             return ResponseEntity.ok("Markdown file created successfully");
         } catch (IOException e) {
             log.error("Error creating markdown file", e);
@@ -73,6 +80,7 @@ public class DirectoryListingController {
             Path oldPath = markdownRoot.resolve(path).resolve(oldName);
             Path newPath = markdownRoot.resolve(path).resolve(newName);
             Files.move(oldPath, newPath);
+            directoryTree.refresh(List.of(oldPath, newPath));
             return ResponseEntity.ok("Entry renamed successfully");
         } catch (IOException e) {
             log.error("Error renaming entry", e);
@@ -90,6 +98,7 @@ public class DirectoryListingController {
             } else {
                 Files.delete(entryPath);
             }
+            directoryTree.refresh(List.of(entryPath));
             return ResponseEntity.ok("Entry deleted successfully");
         } catch (IOException e) {
             log.error("Error deleting entry", e);
@@ -99,24 +108,33 @@ public class DirectoryListingController {
 
     @GetMapping("/renderDirectoryContents")
     public ResponseEntity<String> renderDirectoryContents(@RequestParam String directoryName) throws IOException {
-        Path markdownRoot = Paths.get(configService.getDocsDirectory());
-        Path filePath = markdownRoot.resolve(directoryName);
-
-        try (var filesList = Files.list(filePath)) {
-            var entries = filesList
-                    .map(path -> new FileEntry(path.getFileName().toString(), Files.isDirectory(path)))
-                    .sorted(Comparator.<FileEntry>comparingInt(e -> e.isDirectory() ? 0 : 1)
-                            .thenComparing(f -> f.filename))
-                    .filter(e -> !e.filename.endsWith(".output"))
-                    .toList();
-
-            var model = Map.of(
-                    "directoryName", directoryName,
-                    "entries", entries
-            );
-            TemplateOutput output = new StringOutput();
-            templateEngine.render("directory-listing.jte", model, output);
-            return ResponseEntity.ok(output.toString());
+        var entries = directoryTree.entries(directoryName).stream()
+                .map(entry -> new FileEntry(entry.name(), entry.directory()))
+                .toList();
+
+        var model = Map.of(
+                "directoryName", directoryName,
+                "entries", entries,
+                "renderedAt", System.currentTimeMillis()
+        );
+        TemplateOutput output = new StringOutput();
+        templateEngine.render("directory-listing.jte", model, output);
+        return ResponseEntity.ok(output.toString());
+    }
+
+    /**
+     * A page of the entries of a directory as json, for browsing a directory tree one directory at a time.
+     */
+    @GetMapping("/tree")
+    public ResponseEntity<DirectoryTree.Listing> tree(@RequestParam(defaultValue = ".") String path,
+                                                      @RequestParam(defaultValue = "0") int offset,
+                                                      @RequestParam(defaultValue = "200") int limit) throws IOException {
+        try {
+            return ResponseEntity.ok(directoryTree.list(path, offset, Math.max(1, Math.min(limit, 1000))));
+        } catch (IllegalArgumentException | NotDirectoryException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.notFound().build();
         }
     }
 
@@ -131,6 +149,7 @@ public class DirectoryListingController {
             Path filePath = uploadPath.resolve(file.getOriginalFilename());
 
             Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+            directoryTree.refresh(List.of(filePath));
 
             return ResponseEntity.ok("File uploaded successfully");
         } catch (IOException e) {
@@ -0,0 +1,34 @@
+package uk.anbu.devnotes.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uk.anbu.devnotes.module.GroovyExecutor;
+
+@Slf4j
+@RequiredArgsConstructor
+@RestController
+public class GroovyResultController {
+    private final GroovyExecutor groovyExecutor;
+
+    @GetMapping("/groovyResult/page")
+    public ResponseEntity<String> groovyResultPage(@RequestParam String markdownFileName,
+                                                   @RequestParam String outputFileName,
+                                                   @RequestParam(defaultValue = "false") boolean header,
+                                                   @RequestParam(defaultValue = "0") int offset,
+                                                   @RequestParam(defaultValue = "0") long byteOffset,
+                                                   @RequestParam(defaultValue = "1") int columns) {
+        try {
+            return ResponseEntity.ok(groovyExecutor.renderCsvPage(markdownFileName, outputFileName, header,
+                    Math.max(0, offset), Math.max(0, byteOffset), columns));
+        } catch (Exception e) {
+            log.error("Error reading groovy result page", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error reading groovy result page: " + e.getMessage());
+        }
+    }
+}
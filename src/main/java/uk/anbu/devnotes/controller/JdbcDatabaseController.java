@@ -1,7 +1,5 @@
 package uk.anbu.devnotes.controller;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import gg.jte.TemplateEngine;
 import gg.jte.TemplateOutput;
 import gg.jte.output.StringOutput;
@@ -12,11 +10,15 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import uk.anbu.devnotes.service.ConfigService;
 import uk.anbu.devnotes.service.DataSourceConfig;
+import uk.anbu.devnotes.service.DatabaseMetadataHarvester;
+import uk.anbu.devnotes.service.SchemaIndex;
 
-import java.io.File;
 import java.io.IOException;
-import java.sql.*;
-import java.util.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequiredArgsConstructor
@@ -25,6 +27,8 @@ public class JdbcDatabaseController {
 
     private final ConfigService configService;
     private final TemplateEngine templateEngine;
+    private final DatabaseMetadataHarvester databaseMetadataHarvester;
+    private final SchemaIndex schemaIndex;
 
     @GetMapping("/database")
     public ResponseEntity<String> databasePage() {
@@ -37,56 +41,33 @@ public class JdbcDatabaseController {
     }
 
     @PostMapping("/database/fetch-metadata")
-    public ResponseEntity<String> fetchDatabaseMetadata(@RequestParam String configName, @RequestParam String targetName) {
+    public ResponseEntity<String> fetchDatabaseMetadata(@RequestParam String configName, @RequestParam String targetName,
+                                                        @RequestParam(required = false) String schema,
+                                                        @RequestParam(defaultValue = "false") boolean includeKeys,
+                                                        @RequestParam(defaultValue = "false") boolean incremental) {
         DataSourceConfig config = configService.getDataSourceConfig(configName);
         if (config == null) {
             return ResponseEntity.badRequest().body("Invalid datasource configuration name");
         }
 
         try {
-            Map<String, Object> metadata = fetchMetadata(config);
-            saveMetadataToYaml(metadata, targetName);
-            return ResponseEntity.ok("Metadata fetched and saved successfully");
+            Path targetFile = Paths.get(configService.getDocsDirectory(), "database", targetName + ".yaml");
+            var summary = databaseMetadataHarvester.harvest(config, schema, includeKeys, incremental, targetFile);
+            schemaIndex.reload(targetFile);
+            return ResponseEntity.ok("Metadata fetched and saved successfully, " + summary.changedTables()
+                    + " of " + summary.tables() + " tables changed");
         } catch (SQLException | IOException e) {
             log.error("Error fetching or saving database metadata", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error: " + e.getMessage());
         }
     }
 
-    private Map<String, Object> fetchMetadata(DataSourceConfig config) throws SQLException {
-        Map<String, Object> metadata = new HashMap<>();
-        try (Connection conn = DriverManager.getConnection(config.url(), config.username(), config.password())) {
-            DatabaseMetaData dbMetaData = conn.getMetaData();
-            metadata.put("database_product_name", dbMetaData.getDatabaseProductName());
-            metadata.put("database_product_version", dbMetaData.getDatabaseProductVersion());
-
-            Map<String, List<Map<String, Object>>> tables = new HashMap<>();
-            try (ResultSet rs = dbMetaData.getTables(null, null, "%", new String[]{"TABLE"})) {
-                while (rs.next()) {
-                    String tableName = rs.getString("TABLE_NAME");
-                    List<Map<String, Object>> columns = new ArrayList<>();
-                    try (ResultSet columnRs = dbMetaData.getColumns(null, null, tableName, "%")) {
-                        while (columnRs.next()) {
-                            columns.add(Map.of(
-                                    "name", columnRs.getString("COLUMN_NAME"),
-                                    "type", columnRs.getString("TYPE_NAME"),
-                                    "size", columnRs.getInt("COLUMN_SIZE"),
-                                    "nullable", columnRs.getBoolean("NULLABLE")
-                            ));
-                        }
-                    }
-                    tables.put(tableName, columns);
-                }
-            }
-            metadata.put("tables", tables);
-        }
-        return metadata;
-    }
-
-    private void saveMetadataToYaml(Map<String, Object> metadata, String targetName) throws IOException {
-        File targetFile = new File(configService.getDocsDirectory(), "database/" + targetName + ".yaml");
-        targetFile.getParentFile().mkdirs();
-        ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
-        yamlMapper.writeValue(targetFile, metadata);
+    /**
+     * Table and column names for the sql editors, answered from the schema snapshots in memory.
+     */
+    @GetMapping("/sql/autocomplete")
+    public List<SchemaIndex.Suggestion> autocomplete(@RequestParam String datasourceName, @RequestParam String prefix,
+                                                     @RequestParam(defaultValue = "20") int limit) {
+        return schemaIndex.suggest(datasourceName, prefix, Math.max(1, Math.min(limit, 100)));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package uk.anbu.devnotes.controller;
+
+import gg.jte.TemplateEngine;
+import gg.jte.TemplateOutput;
+import gg.jte.output.StringOutput;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uk.anbu.devnotes.module.MarkdownRenderer;
+import uk.anbu.devnotes.service.LinkGraph;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequiredArgsConstructor
+public class LinksController {
+
+    private final LinkGraph linkGraph;
+    private final TemplateEngine templateEngine;
+
+    public record PageLinks(List<MarkdownRenderer.PageLink> outgoing, List<String> backlinks) {
+    }
+
+    @GetMapping("/links")
+    public PageLinks links(@RequestParam String filename) {
+        return new PageLinks(linkGraph.outgoing(filename), linkGraph.backlinks(filename));
+    }
+
+    @GetMapping("/links/backlinks")
+    public ResponseEntity<String> backlinks(@RequestParam String filename) {
+        TemplateOutput output = new StringOutput();
+        templateEngine.render("backlinks.jte", Map.of("backlinks", linkGraph.backlinks(filename)), output);
+        return ResponseEntity.ok(output.toString());
+    }
+
+    @GetMapping("/links/broken")
+    public ResponseEntity<String> brokenLinks() {
+        TemplateOutput output = new StringOutput();
+        templateEngine.render("link-report.jte",
+                Map.of("brokenLinks", linkGraph.brokenLinks(), "orphans", linkGraph.orphans()), output);
+        return ResponseEntity.ok(output.toString());
+    }
+}
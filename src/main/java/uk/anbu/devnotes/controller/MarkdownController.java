@@ -16,6 +16,10 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import uk.anbu.devnotes.module.MarkdownRenderer;
 import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.DocsWatcher;
+import uk.anbu.devnotes.service.LinkGraph;
+import uk.anbu.devnotes.service.OutputStore;
+import uk.anbu.devnotes.service.RenderedPageCache;
 import uk.anbu.devnotes.util.FileUtil;
 
 import java.io.IOException;
@@ -26,6 +30,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static uk.anbu.devnotes.controller.ImageController.isImage;
@@ -41,6 +46,14 @@ public class MarkdownController {
 
     private final ConfigService configService;
 
+    private final RenderedPageCache renderedPageCache;
+
+    private final DocsWatcher docsWatcher;
+
+    private final LinkGraph linkGraph;
+
+    private final OutputStore outputStore;
+
     @GetMapping("/fetchRawMarkdown")
     public ResponseEntity<String> fetchRawMarkdown(@RequestParam String filename) {
         try {
@@ -157,23 +170,47 @@ public class MarkdownController {
         Assert.isTrue(filename.endsWith(".md"), "filename must end with .md");
         Path markdownRoot = Paths.get(configService.getDocsDirectory());
         log.info("Fetching file: {}", filename);
+        if (docsWatcher.isWatchingAll()) {
+            var watchedPage = renderedPageCache.getWatched(filename, editMode);
+            if (watchedPage.isPresent()) {
+                return new ContentWithType(watchedPage.get(), "text/html");
+            }
+        }
         var markdownFile = markdownRoot.resolve(filename);
         Assert.isTrue(markdownFile.toFile().exists(), "File does not exist " + filename);
 
-        log.info("Rendering markdown: {}", markdownFile);
+        long generation = renderedPageCache.generation();
         String markdownContent = new String(Files.readAllBytes(markdownFile));
-        String htmlContent = markdownRenderer.convertMarkdown(markdownContent, filename);
+        String contentHash = MarkdownRenderer.generateHash(markdownContent);
+        var cachedPage = renderedPageCache.get(filename, editMode, contentHash);
+        if (cachedPage.isPresent()) {
+            return new ContentWithType(cachedPage.get(), "text/html");
+        }
+
+        log.info("Rendering markdown: {}", markdownFile);
+        var renderedMarkdown = markdownRenderer.render(markdownContent, filename);
+        linkGraph.pageRendered(filename, renderedMarkdown.links());
 
         TemplateOutput output = new StringOutput();
         var params = new HashMap<String, Object>();
-        params.put("htmlContent", htmlContent);
+        params.put("htmlContent", renderedMarkdown.html());
         params.put("markdownFile", filename);
         params.put("editMode", editMode);
+        params.put("renderedAt", System.currentTimeMillis());
         templateEngine.render("markdown.jte", params, output);
 
+        List<Path> outputFiles = renderedMarkdown.outputHashes().stream()
+                .map(hash -> outputStore.path(filename, hash))
+                .toList();
+        renderedPageCache.put(filename, editMode, contentHash, outputFiles, output.toString(), generation);
         return new ContentWithType(output.toString(), "text/html");
     }
 
+    @GetMapping("/markdown/cacheStats")
+    public RenderedPageCache.Stats cacheStats() {
+        return renderedPageCache.stats();
+    }
+
     private String getOriginalMarkdown(Path filename) {
         try {
             return new String(Files.readAllBytes(filename));
@@ -199,6 +236,8 @@ public class MarkdownController {
             var decodedFilename = URLDecoder.decode(filename, StandardCharsets.UTF_8);
             Path filePath = Paths.get(configService.getDocsDirectory(), decodedFilename);
             Files.write(filePath, content.getBytes());
+            // the page is rendered again straight away, before the watcher reports the change
+            renderedPageCache.invalidate(decodedFilename);
             return ResponseEntity.status(HttpStatus.FOUND)
                     .header(HttpHeaders.LOCATION, "/markdown?filename=" + decodedFilename + "&edit=false")
                     .build();
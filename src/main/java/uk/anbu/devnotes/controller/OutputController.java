@@ -0,0 +1,35 @@
+package uk.anbu.devnotes.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import uk.anbu.devnotes.service.OutputStore;
+
+@RequiredArgsConstructor
+@RestController
+public class OutputController {
+
+    private final OutputStore outputStore;
+
+    /**
+     * What the last sweep of unreferenced outputs deleted and kept, no content before the first sweep.
+     */
+    @GetMapping("/outputs/sweep")
+    public ResponseEntity<OutputStore.Sweep> lastSweep() {
+        return response(outputStore.lastSweep());
+    }
+
+    /**
+     * Sweeps straight away, unless the pages are still being read.
+     */
+    @PostMapping("/outputs/sweep")
+    public ResponseEntity<OutputStore.Sweep> sweep() {
+        return response(outputStore.sweep());
+    }
+
+    private static ResponseEntity<OutputStore.Sweep> response(OutputStore.Sweep sweep) {
+        return sweep != null ? ResponseEntity.ok(sweep) : ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,20 @@
+package uk.anbu.devnotes.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import uk.anbu.devnotes.service.PageReloadBroadcaster;
+
+@RequiredArgsConstructor
+@RestController
+public class PageEventsController {
+    private final PageReloadBroadcaster pageReloadBroadcaster;
+
+    @GetMapping(path = "/pageEvents", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter pageEvents(@RequestParam String path, @RequestParam long renderedAt) {
+        return pageReloadBroadcaster.subscribe(path, renderedAt);
+    }
+}
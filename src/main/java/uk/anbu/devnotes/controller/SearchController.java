@@ -0,0 +1,44 @@
+package uk.anbu.devnotes.controller;
+
+import gg.jte.TemplateEngine;
+import gg.jte.TemplateOutput;
+import gg.jte.output.StringOutput;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uk.anbu.devnotes.service.SearchIndex;
+
+import java.util.Map;
+
+@RestController
+@RequiredArgsConstructor
+public class SearchController {
+
+    private final SearchIndex searchIndex;
+    private final TemplateEngine templateEngine;
+
+    @GetMapping(path = "/search", produces = MediaType.TEXT_HTML_VALUE)
+    public ResponseEntity<String> searchPage(@RequestParam(defaultValue = "") String q,
+                                             @RequestParam(defaultValue = "20") int limit) {
+        TemplateOutput output = new StringOutput();
+        templateEngine.render("search.jte", Map.of("results", search(q, limit)), output);
+        return ResponseEntity.ok(output.toString());
+    }
+
+    @GetMapping(path = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    public SearchIndex.Results search(@RequestParam(defaultValue = "") String q,
+                                      @RequestParam(defaultValue = "20") int limit) {
+        return searchIndex.search(q, Math.max(1, Math.min(limit, 100)));
+    }
+
+    @GetMapping("/search/results")
+    public ResponseEntity<String> searchResults(@RequestParam(defaultValue = "") String q,
+                                                @RequestParam(defaultValue = "20") int limit) {
+        TemplateOutput output = new StringOutput();
+        templateEngine.render("search-results.jte", Map.of("results", search(q, limit)), output);
+        return ResponseEntity.ok(output.toString());
+    }
+}
@@ -1,30 +1,28 @@
 package uk.anbu.devnotes.controller;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import gg.jte.TemplateEngine;
 import gg.jte.TemplateOutput;
 import gg.jte.output.StringOutput;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.anbu.devnotes.module.ResultExport;
 import uk.anbu.devnotes.module.SqlExecutor;
 import uk.anbu.devnotes.service.ConfigService;
 import uk.anbu.devnotes.service.DataSourceConfig;
+import uk.anbu.devnotes.service.DataSourcePermits;
+import uk.anbu.devnotes.service.RunningQueryRegistry;
 
-import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -40,8 +38,9 @@ public class SqlExecutionController {
 
     private final ConfigService configService;
     private final SqlExecutor sqlExecutor;
-    private final ObjectMapper objectMapper;
     private final TemplateEngine templateEngine;
+    private final RunningQueryRegistry runningQueryRegistry;
+    private final DataSourcePermits dataSourcePermits;
 
     @GetMapping("/reExecuteSql")
     public ResponseEntity<String> reExecuteSql() {
@@ -67,7 +66,14 @@ public class SqlExecutionController {
 
             var jsonGenerationRequest = new SqlExecutor.JsonGenerationRequest(dataSourceConfig, request.getSql(),
                     request.getParameterValues(), request.getMarkdownFileName(), request.isForceExecute());
-            var outputPath = sqlExecutor.renderResultAsJsonFile(jsonGenerationRequest);
+            Path outputPath;
+            var permits = dataSourcePermits.permits(dataSourceName);
+            permits.acquire();
+            try {
+                outputPath = sqlExecutor.renderResultAsJsonFile(jsonGenerationRequest);
+            } finally {
+                permits.release();
+            }
 
             var htmlGenerationRequest = new SqlExecutor.HtmlTableRequest(request.getSql(), outputPath,
                     request.getParameterValues(), request.getDatasourceName(), request.getMarkdownFileName(),
@@ -75,6 +81,10 @@ public class SqlExecutionController {
             String htmlTable = sqlExecutor.convertToHtmlTable(htmlGenerationRequest);
 
             return ResponseEntity.ok(htmlTable);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Interrupted while waiting for datasource " + request.getDatasourceName());
         } catch (Exception e) {
             log.error("Error executing SQL", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -82,61 +92,92 @@ public class SqlExecutionController {
         }
     }
 
-    @GetMapping("/downloadExcel")
-    public ResponseEntity<Resource> downloadExcel(@RequestParam String outputFileName, @RequestParam String markdownFileName) {
-        File outputFile;
+    @GetMapping("/runningQueries")
+    public ResponseEntity<String> runningQueries() {
+        TemplateOutput output = new StringOutput();
+        templateEngine.render("running-queries.jte",
+                Map.of("runningQueries", runningQueryRegistry.runningQueries()), output);
+        return ResponseEntity.ok(output.toString());
+    }
+
+    /**
+     * The running queries of one sql block, polled next to its re-execute button while it runs.
+     */
+    @GetMapping("/runningQueries/status")
+    public ResponseEntity<String> runningQueryStatus(@RequestParam String sqlHash) {
+        TemplateOutput output = new StringOutput();
+        templateEngine.render("running-query-status.jte", Map.of("runningQueries",
+                runningQueryRegistry.runningQueries().stream()
+                        .filter(query -> query.sqlHash().equals(sqlHash))
+                        .toList()), output);
+        return ResponseEntity.ok(output.toString());
+    }
+
+    @PostMapping("/runningQueries/{id}/cancel")
+    public ResponseEntity<String> cancelQuery(@PathVariable long id) {
+        if (!runningQueryRegistry.cancel(id)) {
+            log.info("Query {} has already finished", id);
+        }
+        return runningQueries();
+    }
+
+    @GetMapping("/sqlResult/page")
+    public ResponseEntity<String> sqlResultPage(@RequestParam String outputFileName,
+                                                @RequestParam String markdownFileName,
+                                                @RequestParam(defaultValue = "0") int offset,
+                                                @RequestParam(required = false) Integer limit,
+                                                @RequestParam(required = false) String sortColumn,
+                                                @RequestParam(required = false) String sortDirection,
+                                                @RequestParam(required = false) String filter) {
         try {
-            outputFile = sqlExecutor.getResourceResponseEntity(outputFileName, markdownFileName);
-            FileSystemResource resource = new FileSystemResource(outputFile);
-
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=sql_results.xlsx")
-                    .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                    .contentLength(resource.contentLength())
-                    .body(resource);
+            int pageSize = limit != null ? Math.max(1, limit) : configService.getSqlPageSize();
+            return ResponseEntity.ok(sqlExecutor.renderResultPage(markdownFileName, outputFileName,
+                    Math.max(0, offset), pageSize, sortColumn, sortDirection, filter));
         } catch (Exception e) {
-            log.error("Error generating Excel file", e);
+            log.error("Error reading SQL result page", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(null);
+                    .body("Error reading SQL result page: " + e.getMessage());
         }
     }
 
+    @GetMapping("/downloadExcel")
+    public ResponseEntity<StreamingResponseBody> downloadExcel(@RequestParam String outputFileName,
+                                                               @RequestParam String markdownFileName) {
+        return download(outputFileName, markdownFileName, ResultExport.Format.EXCEL);
+    }
 
-    @PostMapping(value = "/sortTable", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> sortTable(@RequestBody TableSortRequest request) {
-        try {
-            var outputPath = Paths.get(configService.getDocsDirectory())
-                    .resolve(Path.of(request.getMarkdownFileName())
-                            .getParent()
-                            .resolve(request.getOutputFileName()));
-            JsonNode rootNode = objectMapper.readTree(outputPath.toFile());
-            JsonNode dataNode = rootNode.get("data");
-
-            var columnName = request.getColumnName();
-            var columnType = request.getColumnType();
-            var sortDirection = request.getSortDirection();
-
-            List<Map<String, Object>> data = new ArrayList<>();
-            for (JsonNode row : dataNode) {
-                Map<String, Object> rowData = new HashMap<>();
-                row.fields().forEachRemaining(entry -> rowData.put(entry.getKey(), entry.getValue().isNull() ? null : entry.getValue()));
-                data.add(rowData);
-            }
-
-            sqlExecutor.sortData(data, columnName, columnType, sortDirection);
-
-            // Convert sorted data back to JSON
-            ArrayNode sortedDataNode = objectMapper.createArrayNode();
-            data.forEach(row -> sortedDataNode.add(objectMapper.valueToTree(row)));
+    @GetMapping("/downloadCsv")
+    public ResponseEntity<StreamingResponseBody> downloadCsv(@RequestParam String outputFileName,
+                                                             @RequestParam String markdownFileName) {
+        return download(outputFileName, markdownFileName, ResultExport.Format.CSV);
+    }
 
-            ((ObjectNode) rootNode).set("data", sortedDataNode);
+    @GetMapping("/downloadTsv")
+    public ResponseEntity<StreamingResponseBody> downloadTsv(@RequestParam String outputFileName,
+                                                             @RequestParam String markdownFileName) {
+        return download(outputFileName, markdownFileName, ResultExport.Format.TSV);
+    }
 
-            // Write the sorted data back to the file
-            objectMapper.writeValue(outputPath.toFile(), rootNode);
+    private ResponseEntity<StreamingResponseBody> download(String outputFileName, String markdownFileName,
+                                                           ResultExport.Format format) {
+        if (!Files.exists(sqlExecutor.resolveOutputPath(markdownFileName, outputFileName))) {
+            log.error("Output file {} of {} not found", outputFileName, markdownFileName);
+            return ResponseEntity.notFound().build();
+        }
+        // written while the query runs, nothing is buffered in memory or in a temp file
+        StreamingResponseBody body = out -> sqlExecutor.exportResult(outputFileName, markdownFileName, format, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=sql_results." + format.fileExtension())
+                .contentType(MediaType.parseMediaType(format.mediaType()))
+                .body(body);
+    }
 
-            String htmlTable = sqlExecutor.convertToHtmlTable(rootNode, request.getDatasourceName(),
+    @PostMapping(value = "/sortTable", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> sortTable(@RequestBody TableSortRequest request) {
+        try {
+            String htmlTable = sqlExecutor.convertToHtmlTable(request.getDatasourceName(),
                     request.getMarkdownFileName(), request.getOutputFileName(), request.getColumnName(),
-                    request.getSortDirection(), request.getCodeBlockCounter());
+                    request.getSortDirection(), request.getFilter(), request.getCodeBlockCounter());
 
             return ResponseEntity.ok(htmlTable);
         } catch (Exception e) {
@@ -252,6 +293,7 @@ public class SqlExecutionController {
         private String datasourceName;
         private String markdownFileName;
         private String sortDirection;
+        private String filter;
         private Integer codeBlockCounter;
     }
 }
@@ -0,0 +1,231 @@
+package uk.anbu.devnotes.module;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read access to a sql result written by {@link ColumnarResultWriter}.
+ * <p>
+ * The file is memory-mapped and values are decoded on demand, so reading a window of rows only touches the pages
+ * holding those rows. Layout, all numbers big-endian and all strings an int byte length (-1 for null) followed by
+ * utf-8 bytes:
+ * <pre>
+ * int    magic "DNC1"
+ * header sqlText, int parameter count, (name, value)*, datasourceName, executionTime,
+ *        byte hasReachedMaxRows, int rowCount, int columnCount, (name, javaClass, byte encoding)*
+ * per column: int section length, section
+ *   INT64, FLOAT64  null bitmap (rowCount + 7) / 8 bytes, rowCount * 8 byte values
+ *   TIMESTAMP       null bitmap, rowCount * 8 byte epoch seconds, rowCount * 4 byte nanos
+ *   STRING          int dictionary size, int dictionary bytes, (dictionary size + 1) * int offsets,
+ *                   dictionary bytes, rowCount * int codes (-1 for null)
+ * </pre>
+ */
+public final class ColumnarResultFile {
+
+    static final byte[] MAGIC = {'D', 'N', 'C', '1'};
+
+    public enum Encoding {
+        INT64, FLOAT64, TIMESTAMP, STRING;
+
+        static Encoding forJavaClass(String javaClass) {
+            return switch (javaClass == null ? "" : javaClass) {
+                case "java.lang.Integer", "java.lang.Long", "java.lang.Short", "java.lang.Byte" -> INT64;
+                case "java.lang.Double" -> FLOAT64;
+                case "java.sql.Timestamp" -> TIMESTAMP;
+                default -> STRING;
+            };
+        }
+    }
+
+    public record Column(String name, String javaClass, Encoding encoding) {
+    }
+
+    public record Header(String sqlText, Map<String, String> parameterValues, String datasourceName,
+                         LocalDateTime executionTime, boolean hasReachedMaxRows) {
+    }
+
+    private final ByteBuffer buffer;
+    private final Header header;
+    private final int rowCount;
+    private final List<Column> columns;
+    private final ColumnVector[] vectors;
+
+    private ColumnarResultFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        buffer.position(MAGIC.length);
+        String sqlText = readString(buffer);
+        int parameterCount = buffer.getInt();
+        Map<String, String> parameterValues = new LinkedHashMap<>();
+        for (int i = 0; i < parameterCount; i++) {
+            parameterValues.put(readString(buffer), readString(buffer));
+        }
+        String datasourceName = readString(buffer);
+        String executionTime = readString(buffer);
+        boolean hasReachedMaxRows = buffer.get() != 0;
+        this.header = new Header(sqlText, Collections.unmodifiableMap(parameterValues), datasourceName,
+                executionTime == null ? LocalDateTime.of(1970, 1, 1, 0, 0) : LocalDateTime.parse(executionTime),
+                hasReachedMaxRows);
+
+        this.rowCount = buffer.getInt();
+        int columnCount = buffer.getInt();
+        List<Column> columnList = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            columnList.add(new Column(readString(buffer), readString(buffer), Encoding.values()[buffer.get()]));
+        }
+        this.columns = Collections.unmodifiableList(columnList);
+
+        this.vectors = new ColumnVector[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            int sectionLength = buffer.getInt();
+            int sectionStart = buffer.position();
+            vectors[i] = new ColumnVector(columnList.get(i).encoding(), sectionStart);
+            buffer.position(sectionStart + sectionLength);
+        }
+    }
+
+    public static ColumnarResultFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new ColumnarResultFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    static boolean hasMagic(byte[] firstBytes) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (firstBytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Header header() {
+        return header;
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public List<Column> columns() {
+        return columns;
+    }
+
+    public int columnIndex(String name) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).name().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isNull(int column, int row) {
+        ColumnVector vector = vectors[column];
+        if (vector.encoding == Encoding.STRING) {
+            return buffer.getInt(vector.codes + row * 4) < 0;
+        }
+        return (buffer.get(vector.start + (row >>> 3)) & (1 << (row & 7))) != 0;
+    }
+
+    public long getLong(int column, int row) {
+        return buffer.getLong(vectors[column].values + row * 8);
+    }
+
+    public double getDouble(int column, int row) {
+        return buffer.getDouble(vectors[column].values + row * 8);
+    }
+
+    public Timestamp getTimestamp(int column, int row) {
+        ColumnVector vector = vectors[column];
+        Timestamp timestamp = new Timestamp(buffer.getLong(vector.values + row * 8) * 1000);
+        timestamp.setNanos(buffer.getInt(vector.values + rowCount * 8 + row * 4));
+        return timestamp;
+    }
+
+    public String getString(int column, int row) {
+        ColumnVector vector = vectors[column];
+        int code = buffer.getInt(vector.codes + row * 4);
+        if (code < 0) {
+            return null;
+        }
+        String value = vector.dictionary[code];
+        if (value == null) {
+            int start = buffer.getInt(vector.offsets + code * 4);
+            int end = buffer.getInt(vector.offsets + (code + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            buffer.get(vector.bytes + start, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            vector.dictionary[code] = value;
+        }
+        return value;
+    }
+
+    /**
+     * The value as {@link Long}, {@link Double}, {@link Timestamp} or {@link String} depending on the encoding of
+     * the column, or null.
+     */
+    public Object getValue(int column, int row) {
+        if (isNull(column, row)) {
+            return null;
+        }
+        return switch (vectors[column].encoding) {
+            case INT64 -> getLong(column, row);
+            case FLOAT64 -> getDouble(column, row);
+            case TIMESTAMP -> getTimestamp(column, row);
+            case STRING -> getString(column, row);
+        };
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private final class ColumnVector {
+        private final Encoding encoding;
+        private final int start;
+        private final int values;
+        private final int offsets;
+        private final int bytes;
+        private final int codes;
+        private final String[] dictionary;
+
+        private ColumnVector(Encoding encoding, int start) {
+            this.encoding = encoding;
+            this.start = start;
+            if (encoding == Encoding.STRING) {
+                int dictionarySize = buffer.getInt(start);
+                int dictionaryBytes = buffer.getInt(start + 4);
+                this.offsets = start + 8;
+                this.bytes = offsets + (dictionarySize + 1) * 4;
+                this.codes = bytes + dictionaryBytes;
+                this.values = -1;
+                // decoded lazily, repeated values share one String
+                this.dictionary = new String[dictionarySize];
+            } else {
+                this.values = start + (rowCount + 7) / 8;
+                this.offsets = -1;
+                this.bytes = -1;
+                this.codes = -1;
+                this.dictionary = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package uk.anbu.devnotes.module;
+
+import uk.anbu.devnotes.module.ColumnarResultFile.Column;
+import uk.anbu.devnotes.module.ColumnarResultFile.Encoding;
+import uk.anbu.devnotes.module.ColumnarResultFile.Header;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the rows of a sql result column by column and writes them in the layout described on
+ * {@link ColumnarResultFile}.
+ * <p>
+ * The values of every column are appended to a temp file as rows are added and copied into the result file by
+ * {@link #write}, only the null bitmaps and the lookup of the first {@value #MAX_DICTIONARY_LOOKUP} distinct values of
+ * each string column are held in memory. Later distinct values are added to the dictionary again when they repeat.
+ * The temp files are deleted on {@link #close}.
+ */
+final class ColumnarResultWriter implements Closeable {
+
+    static final int MAX_DICTIONARY_LOOKUP = 1 << 16;
+
+    private final List<Column> columns;
+    private final List<Spill> spills = new ArrayList<>();
+    private final ColumnBuilder[] builders;
+    private int rowCount;
+
+    ColumnarResultWriter(List<Column> columns) throws IOException {
+        this.columns = columns;
+        this.builders = new ColumnBuilder[columns.size()];
+        try {
+            for (int i = 0; i < builders.length; i++) {
+                builders[i] = switch (columns.get(i).encoding()) {
+                    case INT64 -> new LongColumnBuilder(spill());
+                    case FLOAT64 -> new DoubleColumnBuilder(spill());
+                    case TIMESTAMP -> new TimestampColumnBuilder(spill(), spill());
+                    case STRING -> new StringColumnBuilder(spill(), spill(), spill());
+                };
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    static ColumnarResultWriter of(ResultSetMetaData metaData) throws SQLException, IOException {
+        List<Column> columns = new ArrayList<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String javaClass = metaData.getColumnClassName(i);
+            columns.add(new Column(metaData.getColumnLabel(i), javaClass, Encoding.forJavaClass(javaClass)));
+        }
+        return new ColumnarResultWriter(columns);
+    }
+
+    int rowCount() {
+        return rowCount;
+    }
+
+    void addRow(ResultSet rs) throws SQLException, IOException {
+        for (int i = 0; i < builders.length; i++) {
+            builders[i].appendFrom(rs, i + 1);
+        }
+        rowCount++;
+    }
+
+    /**
+     * @throws IOException if the result does not fit the int lengths of the layout
+     */
+    void write(Path path, Header header) throws IOException {
+        long fileLength = 0;
+        int[] sectionLengths = new int[builders.length];
+        for (int i = 0; i < builders.length; i++) {
+            long sectionLength = builders[i].sectionLength(rowCount);
+            fileLength += sectionLength;
+            if (sectionLength > Integer.MAX_VALUE || fileLength > Integer.MAX_VALUE) {
+                throw new IOException("The result of " + rowCount + " rows is too large for a columnar output file");
+            }
+            sectionLengths[i] = (int) sectionLength;
+        }
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024))) {
+            out.write(ColumnarResultFile.MAGIC);
+            writeString(out, header.sqlText());
+            Map<String, String> parameterValues = header.parameterValues() != null ? header.parameterValues() : Map.of();
+            out.writeInt(parameterValues.size());
+            for (var entry : parameterValues.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            writeString(out, header.datasourceName());
+            writeString(out, header.executionTime() != null ? header.executionTime().toString() : null);
+            out.writeByte(header.hasReachedMaxRows() ? 1 : 0);
+            out.writeInt(rowCount);
+            out.writeInt(columns.size());
+            for (Column column : columns) {
+                writeString(out, column.name());
+                writeString(out, column.javaClass());
+                out.writeByte(column.encoding().ordinal());
+            }
+            for (int i = 0; i < builders.length; i++) {
+                out.writeInt(sectionLengths[i]);
+                builders[i].writeTo(out, rowCount);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Spill spill : spills) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Spill spill() throws IOException {
+        Spill spill = new Spill();
+        spills.add(spill);
+        return spill;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * A temp file that a column appends its values to.
+     */
+    private static final class Spill implements Closeable {
+        private final Path path;
+        private final DataOutputStream out;
+
+        private Spill() throws IOException {
+            this.path = Files.createTempFile("devnotes-column-", ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 16 * 1024));
+        }
+
+        private void copyTo(OutputStream target) throws IOException {
+            out.flush();
+            Files.copy(path, target);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private abstract static class ColumnBuilder {
+        protected int size;
+
+        abstract void appendFrom(ResultSet rs, int index) throws SQLException, IOException;
+
+        abstract long sectionLength(int rowCount);
+
+        abstract void writeTo(DataOutputStream out, int rowCount) throws IOException;
+    }
+
+    private abstract static class FixedWidthColumnBuilder extends ColumnBuilder {
+        protected final BitSet nulls = new BitSet();
+
+        protected void writeNulls(DataOutputStream out, int rowCount) throws IOException {
+            out.write(Arrays.copyOf(nulls.toByteArray(), (rowCount + 7) / 8));
+        }
+    }
+
+    private static final class LongColumnBuilder extends FixedWidthColumnBuilder {
+        private final Spill values;
+
+        private LongColumnBuilder(Spill values) {
+            this.values = values;
+        }
+
+        @Override
+        void appendFrom(ResultSet rs, int index) throws SQLException, IOException {
+            long value = rs.getLong(index);
+            if (rs.wasNull()) {
+                nulls.set(size);
+                value = 0;
+            }
+            values.out.writeLong(value);
+            size++;
+        }
+
+        @Override
+        long sectionLength(int rowCount) {
+            return (rowCount + 7) / 8 + rowCount * 8L;
+        }
+
+        @Override
+        void writeTo(DataOutputStream out, int rowCount) throws IOException {
+            writeNulls(out, rowCount);
+            values.copyTo(out);
+        }
+    }
+
+    private static final class DoubleColumnBuilder extends FixedWidthColumnBuilder {
+        private final Spill values;
+
+        private DoubleColumnBuilder(Spill values) {
+            this.values = values;
+        }
+
+        @Override
+        void appendFrom(ResultSet rs, int index) throws SQLException, IOException {
+            double value = rs.getDouble(index);
+            if (rs.wasNull()) {
+                nulls.set(size);
+                value = 0;
+            }
+            values.out.writeDouble(value);
+            size++;
+        }
+
+        @Override
+        long sectionLength(int rowCount) {
+            return (rowCount + 7) / 8 + rowCount * 8L;
+        }
+
+        @Override
+        void writeTo(DataOutputStream out, int rowCount) throws IOException {
+            writeNulls(out, rowCount);
+            values.copyTo(out);
+        }
+    }
+
+    private static final class TimestampColumnBuilder extends FixedWidthColumnBuilder {
+        private final Spill seconds;
+        private final Spill nanos;
+
+        private TimestampColumnBuilder(Spill seconds, Spill nanos) {
+            this.seconds = seconds;
+            this.nanos = nanos;
+        }
+
+        @Override
+        void appendFrom(ResultSet rs, int index) throws SQLException, IOException {
+            Timestamp timestamp = rs.getTimestamp(index);
+            if (timestamp == null) {
+                nulls.set(size);
+                seconds.out.writeLong(0);
+                nanos.out.writeInt(0);
+            } else {
+                seconds.out.writeLong(Math.floorDiv(timestamp.getTime(), 1000));
+                nanos.out.writeInt(timestamp.getNanos());
+            }
+            size++;
+        }
+
+        @Override
+        long sectionLength(int rowCount) {
+            return (rowCount + 7) / 8 + rowCount * 12L;
+        }
+
+        @Override
+        void writeTo(DataOutputStream out, int rowCount) throws IOException {
+            writeNulls(out, rowCount);
+            seconds.copyTo(out);
+            nanos.copyTo(out);
+        }
+    }
+
+    private static final class StringColumnBuilder extends ColumnBuilder {
+        private final Map<String, Integer> codesByValue = new HashMap<>();
+        private final Spill offsets;
+        private final Spill dictionary;
+        private final Spill codes;
+        private int dictionarySize;
+        private long dictionaryBytes;
+
+        private StringColumnBuilder(Spill offsets, Spill dictionary, Spill codes) throws IOException {
+            this.offsets = offsets;
+            this.dictionary = dictionary;
+            this.codes = codes;
+            offsets.out.writeInt(0);
+        }
+
+        @Override
+        void appendFrom(ResultSet rs, int index) throws SQLException, IOException {
+            Object value = rs.getObject(index);
+            if (value instanceof Blob) {
+                value = "<blob>";
+            } else if (value instanceof Clob) {
+                value = "<clob>";
+            }
+            codes.out.writeInt(value == null ? -1 : code(value.toString()));
+            size++;
+        }
+
+        private int code(String value) throws IOException {
+            Integer code = codesByValue.get(value);
+            if (code != null) {
+                return code;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            dictionary.out.write(bytes);
+            dictionaryBytes += bytes.length;
+            // offsets past the int range are caught by the length check of write
+            offsets.out.writeInt((int) dictionaryBytes);
+            if (codesByValue.size() < MAX_DICTIONARY_LOOKUP) {
+                codesByValue.put(value, dictionarySize);
+            }
+            return dictionarySize++;
+        }
+
+        @Override
+        long sectionLength(int rowCount) {
+            return 8 + (dictionarySize + 1) * 4L + dictionaryBytes + rowCount * 4L;
+        }
+
+        @Override
+        void writeTo(DataOutputStream out, int rowCount) throws IOException {
+            out.writeInt(dictionarySize);
+            out.writeInt((int) dictionaryBytes);
+            offsets.copyTo(out);
+            dictionary.copyTo(out);
+            codes.copyTo(out);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package uk.anbu.devnotes.module;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads csv one record at a time, following RFC 4180: fields are separated by commas, records end with CRLF or LF,
+ * and a quoted field may contain commas, line breaks and quotes written as {@code ""}. Only the current record is
+ * held in memory. Lenient where the RFC is not, a quote inside an unquoted field is kept as is and a missing closing
+ * quote ends the field at the end of the input.
+ * <p>
+ * The tokenizer counts the UTF-8 bytes it has consumed, so a later read can seek straight to a record with
+ * {@link #byteOffset()} instead of reading the records before it again.
+ */
+final class CsvTokenizer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder field = new StringBuilder();
+    private int position;
+    private int limit;
+    private long byteOffset;
+
+    CsvTokenizer(Reader reader) {
+        this(reader, 0);
+    }
+
+    /**
+     * @param byteOffset the offset in the UTF-8 input at which the reader starts
+     */
+    CsvTokenizer(Reader reader, long byteOffset) {
+        this.reader = reader;
+        this.byteOffset = byteOffset;
+    }
+
+    /**
+     * The offset in the UTF-8 input at which the next record starts.
+     */
+    long byteOffset() {
+        return byteOffset;
+    }
+
+    /**
+     * The fields of the next record, null at the end of the input.
+     */
+    List<String> nextRecord() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> record = new ArrayList<>();
+        while (true) {
+            field.setLength(0);
+            if (c == '"') {
+                c = readQuoted();
+            }
+            while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                field.append((char) c);
+                c = read();
+            }
+            record.add(field.toString());
+            if (c == ',') {
+                c = read();
+                continue;
+            }
+            if (c == '\r' && peek() == '\n') {
+                read();
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Reads a quoted field up to its closing quote and returns the character after it.
+     */
+    private int readQuoted() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                return c;
+            }
+            if (c == '"') {
+                c = read();
+                if (c != '"') {
+                    return c;
+                }
+            }
+            field.append((char) c);
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        char c = buffer[position++];
+        // a surrogate pair takes 4 bytes, 2 for each of its chars
+        byteOffset += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer, 0, BUFFER_SIZE);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+}
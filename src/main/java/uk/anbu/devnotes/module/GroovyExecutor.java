@@ -1,48 +1,129 @@
 package uk.anbu.devnotes.module;
 
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
 import groovy.lang.GroovyShell;
-import lombok.RequiredArgsConstructor;
+import groovy.lang.Script;
+import groovy.transform.ThreadInterrupt;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.commonmark.node.FencedCodeBlock;
 import org.commonmark.node.HtmlBlock;
 import org.commonmark.node.Node;
 import org.commonmark.node.Text;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
+import org.springframework.web.util.HtmlUtils;
 import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.OutputStore;
+import uk.anbu.devnotes.util.TaskExecutors;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import static uk.anbu.devnotes.module.MarkdownRenderer.generateOutputFileName;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static uk.anbu.devnotes.module.MarkdownRenderer.generateHash;
 
+/**
+ * Runs groovy code blocks. Scripts are compiled once and their classes kept in an LRU cache keyed by the hash of the
+ * script, each in its own class loader so an evicted script can be unloaded. Scripts run on a small pool of their own
+ * and are cancelled when they run longer than the configured timeout or allocate more than the allocation budget. A
+ * script that fails is rendered as an error block.
+ */
 @Slf4j
-@RequiredArgsConstructor
 @Component
 public class GroovyExecutor {
+    private static final long LIMIT_CHECK_INTERVAL_MILLIS = 100;
+    // checks for Thread.interrupted() at the start of loops, closures and methods, so a cancelled script stops
+    private static final CompilerConfiguration COMPILER_CONFIGURATION = new CompilerConfiguration()
+            .addCompilationCustomizers(new ASTTransformationCustomizer(ThreadInterrupt.class));
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
     private final ConfigService configService;
+    private final OutputStore outputStore;
+    private final ThreadPoolTaskExecutor scriptExecutor;
+    private final Map<String, CompiledScript> compiledScripts;
+
+    public GroovyExecutor(ConfigService configService, OutputStore outputStore) {
+        this.configService = configService;
+        this.outputStore = outputStore;
+        this.scriptExecutor = TaskExecutors.daemonExecutor("groovy-", configService.getGroovyThreads(),
+                configService.getGroovyMaxQueuedScripts());
+        int maxEntries = Math.max(1, configService.getGroovyCacheMaxEntries());
+        this.compiledScripts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                if (size() > maxEntries) {
+                    // drops the classes of the script, the class loader goes with the last reference to them
+                    eldest.getValue().classLoader().clearCache();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        log.warn("Allocated memory of threads is not measured by this JVM, groovy scripts have no allocation budget");
+        return null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scriptExecutor.shutdown();
+    }
 
     public Node processGroovyCodeBlock(GroovyCodeBlockRequest request) {
-        String docsDirectory = configService.getDocsDirectory();
-        String outputFileName = generateOutputFileName(docsDirectory, request.fileNameWithRelativePath, request.groovyScript);
-        Path outputPath = Paths.get(outputFileName);
+        Path outputPath = outputStore.path(request.fileNameWithRelativePath, generateHash(request.groovyScript));
 
-        String output;
+        boolean csvTable = "csv-table".equals(request.targetType) || "csv-table-with-header".equals(request.targetType);
+        String output = null;
         if (Files.exists(outputPath)) {
-            // If the output file already exists, read its content
-            try {
-                output = Files.readString(outputPath);
-                log.info("Using existing output file: {}", outputFileName);
-            } catch (IOException e) {
-                log.error("Error reading existing output file: {}", outputFileName, e);
-                output = "Error: Unable to read existing output file";
+            // If the output file already exists, read its content, csv tables read it a page at a time
+            log.info("Using existing output file: {}", outputPath);
+            if (!csvTable) {
+                try {
+                    output = Files.readString(outputPath);
+                } catch (IOException e) {
+                    log.error("Error reading existing output file: {}", outputPath, e);
+                    output = "Error: Unable to read existing output file";
+                }
             }
         } else {
             // If the output file doesn't exist, execute the Groovy script and save the output
-            output = executeGroovyScript(request.groovyScript);
-            saveOutput(outputFileName, output);
+            try {
+                output = executeGroovyScript(request.groovyScript);
+            } catch (GroovyScriptException e) {
+                // not saved, the script runs again the next time the page is rendered
+                return errorBlock(e);
+            }
+            saveOutput(request.fileNameWithRelativePath, outputPath, output);
         }
 
         // Replace the code block with the output
@@ -57,62 +138,249 @@ public class GroovyExecutor {
             fencedCodeBlock.setInfo("text");
             fencedCodeBlock.setLiteral(output);
             return fencedCodeBlock;
-        } else if ("csv-table".equals(request.targetType) || "csv-table-with-header".equals(request.targetType)) {
-            return csvToHtmlTable(request.targetType, output);
+        } else if (csvTable) {
+            return csvToHtmlTable(request, outputPath, output);
         } else {
             return new Text(String.format("Error: Unknown target type '%s', use target type 'html', 'text', " +
                     "'code-block', 'csv-table' or 'csv-table-with-header'", request.targetType));
         }
     }
 
-    private static Node csvToHtmlTable(String targetType, String output) {
-        String[] lines = output.split("\n");
-        StringBuilder tableHtml = new StringBuilder();
-        tableHtml.append("<table>");
-        if ("csv-table-with-header".equals(targetType)) {
-            String[] header = lines[0].split(",");
-            tableHtml.append("<tr>");
-            for (String headerCell : header) {
-                tableHtml.append("<th>").append(headerCell).append("</th>");
-            }
-            tableHtml.append("</tr>");
-            lines = Arrays.copyOfRange(lines, 1, lines.length);
-        }
-        for (String line : lines) {
-            String[] cells = line.split(",");
-            tableHtml.append("<tr>");
-            for (String cell : cells) {
-                tableHtml.append("<td>").append(cell).append("</td>");
-            }
-            tableHtml.append("</tr>");
+    private static Node errorBlock(GroovyScriptException e) {
+        StringBuilder html = new StringBuilder("<div class=\"groovy-error\"><strong>")
+                .append(HtmlUtils.htmlEscape(e.getMessage())).append("</strong>");
+        if (e.getCause() != null) {
+            String detail = e.getCause().getMessage() != null ? e.getCause().getMessage() : e.getCause().toString();
+            html.append("<pre>").append(HtmlUtils.htmlEscape(detail)).append("</pre>");
         }
-        tableHtml.append("</table>");
+        HtmlBlock htmlBlock = new HtmlBlock();
+        htmlBlock.setLiteral(html.append("</div>").toString());
+        return htmlBlock;
+    }
 
+    private Node csvToHtmlTable(GroovyCodeBlockRequest request, Path outputPath, String output) {
+        var html = new StringWriter();
+        try (Reader csv = output != null ? new StringReader(output) : Files.newBufferedReader(outputPath)) {
+            html.write("<table class=\"groovy-csv\">");
+            writeCsvRows(new CsvTokenizer(csv), "csv-table-with-header".equals(request.targetType),
+                    request.fileNameWithRelativePath, outputPath.getFileName().toString(), 0, 1, html);
+            html.write("</table>");
+        } catch (IOException e) {
+            log.error("Error reading csv output file: {}", outputPath, e);
+            return new Text("Error: Unable to read csv output - reason: " + e.getMessage());
+        }
         HtmlBlock htmlBlock = new HtmlBlock();
-        htmlBlock.setLiteral(tableHtml.toString());
+        htmlBlock.setLiteral(html.toString());
         return htmlBlock;
     }
 
-    private String executeGroovyScript(String script) {
-        GroovyShell shell = new GroovyShell();
+    /**
+     * The rows of a csv table from row {@code offset} on, requested by the last row of a page as it scrolls into view.
+     *
+     * @param byteOffset where the record of row {@code offset} starts in the output, 0 to find it by reading the
+     *                   records before it
+     * @param columns    the most cells of a row on the pages before, the width of the rows that span the table
+     */
+    public String renderCsvPage(String markdownFileName, String outputFileName, boolean withHeader, int offset,
+                                long byteOffset, int columns) throws IOException {
+        Path outputPath = outputStore.resolve(markdownFileName, outputFileName);
+        var html = new StringWriter();
+        try (SeekableByteChannel channel = Files.newByteChannel(outputPath)) {
+            channel.position(offset > 0 ? byteOffset : 0);
+            writeCsvRows(new CsvTokenizer(Channels.newReader(channel, UTF_8), channel.position()), withHeader,
+                    markdownFileName, outputFileName, offset, columns, html);
+        }
+        return html.toString();
+    }
+
+    /**
+     * Writes a page of {@code devnotes.sql.pageSize} csv records as table rows, the header row only on the first
+     * page. Records are read one at a time, so only a record is held in memory whatever the size of the output. The
+     * row that loads the next page carries the byte offset of its first record, so every page seeks to its records
+     * instead of reading the records before them again, like the pages of the sql tables. It also carries the most
+     * cells of a row so far, which a page that does not read the header takes as the width of its spanning rows. A
+     * tokenizer that starts at the top of the output skips the records before {@code offset}. No rows are shown
+     * beyond {@code devnotes.groovy.csv.maxRows}.
+     */
+    private void writeCsvRows(CsvTokenizer csv, boolean withHeader, String markdownFileName, String outputFileName,
+                              int offset, int columnsBefore, Writer out) throws IOException {
+        int columns = Math.max(1, columnsBefore);
+        if (csv.byteOffset() == 0) {
+            if (withHeader) {
+                List<String> header = csv.nextRecord();
+                if (header == null) {
+                    return;
+                }
+                if (offset == 0) {
+                    writeCsvRow("th", header, out);
+                }
+                columns = Math.max(columns, header.size());
+            }
+            for (int i = 0; i < offset && csv.nextRecord() != null; i++) {
+                // skipped
+            }
+        }
+        int pageEnd = offset + Math.max(1, configService.getSqlPageSize());
+        int maxRows = configService.getGroovyCsvMaxRows();
+        long recordOffset = csv.byteOffset();
+        List<String> record;
+        for (int row = offset; (record = csv.nextRecord()) != null; row++) {
+            if (row == maxRows) {
+                out.write("<tr class=\"groovy-csv-more\"><td colspan=\"" + columns + "\">Only the first " + maxRows
+                        + " rows are shown</td></tr>");
+                return;
+            }
+            if (row == pageEnd) {
+                String url = "/groovyResult/page?markdownFileName=" + URLEncoder.encode(markdownFileName, UTF_8)
+                        + "&outputFileName=" + URLEncoder.encode(outputFileName, UTF_8)
+                        + "&header=" + withHeader + "&offset=" + row + "&byteOffset=" + recordOffset
+                        + "&columns=" + columns;
+                out.write("<tr class=\"groovy-csv-more\" hx-get=\"" + HtmlUtils.htmlEscape(url)
+                        + "\" hx-trigger=\"revealed\" hx-swap=\"outerHTML\"><td colspan=\"" + columns
+                        + "\">more rows...</td></tr>");
+                return;
+            }
+            writeCsvRow("td", record, out);
+            columns = Math.max(columns, record.size());
+            recordOffset = csv.byteOffset();
+        }
+    }
+
+    private static void writeCsvRow(String cellTag, List<String> cells, Writer out) throws IOException {
+        out.write("<tr>");
+        for (String cell : cells) {
+            out.write("<" + cellTag + ">");
+            out.write(HtmlUtils.htmlEscape(cell));
+            out.write("</" + cellTag + ">");
+        }
+        out.write("</tr>");
+    }
+
+    /**
+     * Runs a script and returns what it evaluates to. The script is cancelled once it runs longer than the timeout or
+     * allocates more than the allocation budget, the checks for the interrupt compiled into its loops, closures and
+     * methods then end it. The budget counts all bytes the script allocates, also garbage, and is checked every
+     * {@link #LIMIT_CHECK_INTERVAL_MILLIS}, so it catches a script that keeps allocating, not one huge array.
+     *
+     * @throws GroovyScriptException if the script fails, is cancelled or cannot be queued
+     */
+    String executeGroovyScript(String script) {
+        var execution = new ScriptExecution();
+        Future<String> future;
         try {
-            Object result = shell.evaluate(script);
-            return result != null ? result.toString() : "";
-        } catch (Exception e) {
-            log.error("Error executing Groovy script", e);
-            return "Error: " + e.getMessage();
+            future = scriptExecutor.submit(() -> execution.run(script));
+        } catch (TaskRejectedException e) {
+            log.warn("Groovy script rejected, {} scripts are waiting", configService.getGroovyMaxQueuedScripts());
+            throw new GroovyScriptException("Too many groovy scripts are waiting to run, try again later", null);
+        }
+        try {
+            while (true) {
+                try {
+                    return future.get(LIMIT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    String exceededLimit = execution.exceededLimit();
+                    // a script that completed meanwhile is not cancelled and its result is taken on the next turn
+                    if (exceededLimit != null && future.cancel(true)) {
+                        log.warn("Groovy script cancelled: {}", exceededLimit);
+                        throw new GroovyScriptException(exceededLimit, null);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            log.error("Error executing Groovy script", e.getCause());
+            throw new GroovyScriptException("Groovy script failed", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new GroovyScriptException("Interrupted while running the groovy script", null);
         }
     }
 
-    private void saveOutput(String fileName, String content) {
+    /**
+     * The compiled class of a script, compiled on a cache miss. Concurrent misses of one script may both compile it,
+     * compiling outside the lock lets other scripts be looked up meanwhile.
+     */
+    Class<? extends Script> compile(String script) {
+        String hash = generateHash(script);
+        synchronized (compiledScripts) {
+            CompiledScript compiledScript = compiledScripts.get(hash);
+            if (compiledScript != null) {
+                return compiledScript.scriptClass();
+            }
+        }
+        var classLoader = new GroovyClassLoader(GroovyExecutor.class.getClassLoader(), COMPILER_CONFIGURATION);
+        @SuppressWarnings("unchecked")
+        var scriptClass = (Class<? extends Script>) classLoader.parseClass(
+                new GroovyCodeSource(script, "Script_" + hash + ".groovy", GroovyShell.DEFAULT_CODE_BASE), false);
+        synchronized (compiledScripts) {
+            return compiledScripts.computeIfAbsent(hash, key -> new CompiledScript(scriptClass, classLoader))
+                    .scriptClass();
+        }
+    }
+
+    private void saveOutput(String markdownFileName, Path outputPath, String content) {
         try {
-            Path outputPath = Paths.get(fileName);
             Files.createDirectories(outputPath.getParent());
-            Files.write(outputPath, content.getBytes());
+            Files.write(outputPath, content.getBytes(UTF_8));
+            outputStore.written(markdownFileName, outputPath);
         } catch (IOException e) {
             log.error("Error saving output file", e);
         }
     }
 
+    /**
+     * A script run, measured from the time it gets a thread of the pool.
+     */
+    private class ScriptExecution {
+        private volatile Thread thread;
+        private volatile long startedAt;
+        private volatile long allocatedBytesAtStart;
+
+        String run(String script) {
+            startedAt = System.currentTimeMillis();
+            allocatedBytesAtStart = allocatedBytes(Thread.currentThread());
+            thread = Thread.currentThread();
+            Object result = InvokerHelper.createScript(compile(script), new Binding()).run();
+            return result != null ? result.toString() : "";
+        }
+
+        /**
+         * The limit the script has gone beyond, null while it waits for a thread or is within its limits.
+         */
+        String exceededLimit() {
+            Thread scriptThread = thread;
+            if (scriptThread == null) {
+                return null;
+            }
+            int timeoutSeconds = configService.getGroovyTimeoutSeconds();
+            if (System.currentTimeMillis() - startedAt > TimeUnit.SECONDS.toMillis(timeoutSeconds)) {
+                return "Groovy script timed out after " + timeoutSeconds + " seconds";
+            }
+            int budgetMb = configService.getGroovyAllocationBudgetMb();
+            if (budgetMb > 0 && THREAD_MX_BEAN != null
+                    && allocatedBytes(scriptThread) - allocatedBytesAtStart > budgetMb * 1024L * 1024L) {
+                return "Groovy script allocated more than " + budgetMb + " MB";
+            }
+            return null;
+        }
+
+        @SuppressWarnings("deprecation") // Thread.threadId() is not available before Java 19
+        private static long allocatedBytes(Thread thread) {
+            return THREAD_MX_BEAN != null ? THREAD_MX_BEAN.getThreadAllocatedBytes(thread.getId()) : 0;
+        }
+    }
+
+    /**
+     * A groovy script that failed, was cancelled or could not run, rendered as an error block in place of its output.
+     */
+    static final class GroovyScriptException extends RuntimeException {
+        GroovyScriptException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private record CompiledScript(Class<? extends Script> scriptClass, GroovyClassLoader classLoader) {
+    }
+
     public record GroovyCodeBlockRequest(String groovyScript, String targetType, String fileNameWithRelativePath) {}
 }
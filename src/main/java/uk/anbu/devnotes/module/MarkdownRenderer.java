@@ -16,54 +16,229 @@ import uk.anbu.devnotes.service.DataSourceConfig;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Slf4j
 public class MarkdownRenderer {
 
+    // Parser and HtmlRenderer are immutable and thread-safe once built, so one instance serves every render
+    private static final List<Extension> EXTENSIONS = List.of(TablesExtension.create());
+    private static final Parser PARSER = Parser.builder()
+            .extensions(EXTENSIONS)
+            .build();
+    private static final AttributeProvider IMAGE_ATTRIBUTE_PROVIDER = new ImageAttributeProvider();
+    private static final HtmlRenderer HTML_RENDERER = HtmlRenderer.builder()
+            .extensions(EXTENSIONS)
+            .attributeProviderFactory(context -> IMAGE_ATTRIBUTE_PROVIDER)
+            .build();
+    private static final Pattern GROOVY_CODE_TYPE = Pattern.compile("^groovy:([^:]+)$");
+    private static final Pattern SQL_CODE_TYPE = Pattern.compile("^sql\\(([^)]+)\\)$");
+    private static final Pattern SQL_PARAMETER = Pattern.compile(":(\\w+)");
+    private static final Pattern URI_SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]*:");
+    private static final HexFormat HEX_FORMAT = HexFormat.of();
+
     private final Function<SqlExecutor.JsonGenerationRequest, Path> sqlToJsonFileResolver;
     private final Function<SqlExecutor.HtmlTableRequest, String> sqlToHtmlTableResolver;
     private final Function<GroovyExecutor.GroovyCodeBlockRequest, Node> groovyCodeBlockResolver;
     private final Function<String, DataSourceConfig> dataSourceConfigResolver;
+    private final Executor codeBlockExecutor;
+    private final Function<String, Semaphore> dataSourcePermits;
+    private final BiConsumer<SqlExecutor.JsonGenerationRequest, Duration> sqlRefreshRegistrar;
 
     public MarkdownRenderer(Function<SqlExecutor.JsonGenerationRequest, Path> sqlToJsonFileResolver,
                             Function<SqlExecutor.HtmlTableRequest, String> sqlToHtmlTableResolver,
                             Function<GroovyExecutor.GroovyCodeBlockRequest, Node> groovyCodeBlockResolver,
                             Function<String, DataSourceConfig> dataSourceConfigResolver) {
+        // Blocks run one after another on the rendering thread, so there is nothing to limit
+        this(sqlToJsonFileResolver, sqlToHtmlTableResolver, groovyCodeBlockResolver, dataSourceConfigResolver,
+                Runnable::run, dataSourceName -> new Semaphore(1));
+    }
+
+    public MarkdownRenderer(Function<SqlExecutor.JsonGenerationRequest, Path> sqlToJsonFileResolver,
+                            Function<SqlExecutor.HtmlTableRequest, String> sqlToHtmlTableResolver,
+                            Function<GroovyExecutor.GroovyCodeBlockRequest, Node> groovyCodeBlockResolver,
+                            Function<String, DataSourceConfig> dataSourceConfigResolver,
+                            Executor codeBlockExecutor,
+                            Function<String, Semaphore> dataSourcePermits) {
+        this(sqlToJsonFileResolver, sqlToHtmlTableResolver, groovyCodeBlockResolver, dataSourceConfigResolver,
+                codeBlockExecutor, dataSourcePermits, (request, ttl) -> {
+                });
+    }
+
+    /**
+     * @param dataSourcePermits   the permits of a datasource by name, shared with everything else that queries it
+     * @param sqlRefreshRegistrar called with every sql block that is rendered and its ttl, or null if the block has
+     *                            no ttl
+     */
+    public MarkdownRenderer(Function<SqlExecutor.JsonGenerationRequest, Path> sqlToJsonFileResolver,
+                            Function<SqlExecutor.HtmlTableRequest, String> sqlToHtmlTableResolver,
+                            Function<GroovyExecutor.GroovyCodeBlockRequest, Node> groovyCodeBlockResolver,
+                            Function<String, DataSourceConfig> dataSourceConfigResolver,
+                            Executor codeBlockExecutor,
+                            Function<String, Semaphore> dataSourcePermits,
+                            BiConsumer<SqlExecutor.JsonGenerationRequest, Duration> sqlRefreshRegistrar) {
         this.sqlToJsonFileResolver = sqlToJsonFileResolver;
         this.sqlToHtmlTableResolver = sqlToHtmlTableResolver;
         this.groovyCodeBlockResolver = groovyCodeBlockResolver;
         this.dataSourceConfigResolver = dataSourceConfigResolver;
+        this.codeBlockExecutor = codeBlockExecutor;
+        this.dataSourcePermits = dataSourcePermits;
+        this.sqlRefreshRegistrar = sqlRefreshRegistrar;
     }
 
     public String convertMarkdown(String markdown, String fileNameWithRelativePath) {
-        Integer codeBlockCounter = 0;
-        List<Extension> extensions = List.of(TablesExtension.create());
-        Parser parser = Parser.builder()
-                .extensions(extensions)
-                .build();
-        Node document = parser.parse(markdown);
-        processDocument(document, fileNameWithRelativePath, codeBlockCounter);
-        HtmlRenderer renderer = HtmlRenderer.builder()
-                .extensions(extensions)
-                .attributeProviderFactory(context -> new ImageAttributeProvider())
-                .build();
-        return renderer.render(document);
-    }
-
-    private void processDocument(Node node, String fileNameWithRelativePath, Integer codeBlockCounter) {
-        // Traverse the node tree
+        return render(markdown, fileNameWithRelativePath).html();
+    }
+
+    /**
+     * Renders the markdown and reports the hashes of the output files that the code blocks of the page read and the
+     * links of the page.
+     */
+    public RenderedMarkdown render(String markdown, String fileNameWithRelativePath) {
+        Node document = PARSER.parse(markdown);
+        var context = new RenderContext(fileNameWithRelativePath, imageLocation(fileNameWithRelativePath));
+        processDocument(document, context);
+        List<PendingCodeBlock> pendingCodeBlocks = context.pendingCodeBlocks;
+        executeCodeBlocks(pendingCodeBlocks);
+        Set<String> outputHashes = new LinkedHashSet<>();
+        pendingCodeBlocks.forEach(pending -> {
+            if (pending.outputHash() != null) {
+                outputHashes.add(pending.outputHash());
+            }
+        });
+        // The html is usually a bit larger than the markdown, sizing the buffer up front avoids repeated copying
+        StringBuilder html = new StringBuilder(markdown.length() + (markdown.length() >> 1));
+        HTML_RENDERER.render(document, html);
+        return new RenderedMarkdown(html.toString(), outputHashes, List.copyOf(context.links));
+    }
+
+    /**
+     * The links and images of a page in document order, without rendering it or running its code blocks.
+     */
+    public static List<PageLink> links(String markdown, String fileNameWithRelativePath) {
+        String imageLocation = imageLocation(fileNameWithRelativePath);
+        List<PageLink> links = new ArrayList<>();
+        walk(PARSER.parse(markdown), node -> {
+            PageLink link = pageLink(node, imageLocation);
+            if (link != null) {
+                links.add(link);
+            }
+        });
+        return links;
+    }
+
+    /**
+     * The hashes of the outputs that the code blocks of a page read, without rendering it or running its code blocks.
+     * Unlike {@link #render} this also counts the sql blocks of datasources that are not configured.
+     */
+    public static Set<String> outputHashes(String markdown) {
+        Set<String> hashes = new LinkedHashSet<>();
+        walk(PARSER.parse(markdown), node -> {
+            if (node instanceof FencedCodeBlock codeBlock && codeBlock.getInfo() != null) {
+                String sourceCode = codeBlock.getLiteral();
+                if (GROOVY_CODE_TYPE.matcher(codeBlock.getInfo()).matches()) {
+                    hashes.add(generateHash(sourceCode));
+                } else if (SQL_CODE_TYPE.matcher(codeBlock.getInfo()).matches()) {
+                    hashes.add(generateHash(SqlExecutor.outputKey(sourceCode, parameterValues(sourceCode))));
+                }
+            }
+        });
+        return hashes;
+    }
+
+    /**
+     * A link or image to a file of the docs directory, null for other nodes and for external destinations.
+     */
+    private static PageLink pageLink(Node node, String imageLocation) {
+        if (node instanceof Link link) {
+            return pageLink(link.getDestination(), imageLocation, false);
+        } else if (node instanceof Image image) {
+            return pageLink(image.getDestination(), imageLocation, true);
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a destination the way the markdown and image pages do: links against the docs directory, images
+     * against the directory of the page.
+     */
+    private static PageLink pageLink(String destination, String imageLocation, boolean image) {
+        if (destination.isEmpty() || destination.startsWith("#") || URI_SCHEME.matcher(destination).find()) {
+            return null;
+        }
+        String target;
+        try {
+            Path path = Paths.get(image ? imageLocation : ".").resolve(destination.replaceFirst("^/+", ""))
+                    .normalize();
+            target = path.startsWith("..") ? null : path.toString().replace('\\', '/');
+        } catch (InvalidPathException e) {
+            target = null;
+        }
+        return new PageLink(destination, target == null || !target.isEmpty() ? target : ".", image);
+    }
+
+    /**
+     * The directory of the markdown file relative to the docs root, images are resolved against it.
+     */
+    private static String imageLocation(String fileNameWithRelativePath) {
+        String fileLocation = fileNameWithRelativePath.replace('\\', '/'); // Windows
+        int lastSlash = fileLocation.lastIndexOf('/');
+        if (lastSlash <= 0) { // If the file is in the root directory
+            return ".";
+        }
+        return fileLocation.substring(0, lastSlash); // Remove filename
+    }
+
+    private void processDocument(Node document, RenderContext context) {
+        walk(document, node -> processNode(node, context));
+    }
+
+    /**
+     * Visits the nodes of the document in document order. The walk follows the parent, child and sibling links of
+     * the nodes instead of recursing, so it runs in constant stack space however large the document is.
+     */
+    private static void walk(Node document, Consumer<Node> visitor) {
+        Node node = document;
+        while (node != null) {
+            visitor.accept(node);
+            if (node.getFirstChild() != null) {
+                node = node.getFirstChild();
+                continue;
+            }
+            while (node != document && node.getNext() == null) {
+                node = node.getParent();
+            }
+            node = node == document ? null : node.getNext();
+        }
+    }
+
+    private void processNode(Node node, RenderContext context) {
         log.trace("Rendering type: {}", node);
+        PageLink pageLink = pageLink(node, context.imageLocation);
+        if (pageLink != null) {
+            context.links.add(pageLink);
+        }
         if (node instanceof Link link) {
             String destination = link.getDestination();
             if (destination.startsWith("http:") || destination.startsWith("https:")) {
@@ -72,66 +247,124 @@ public class MarkdownRenderer {
                 link.setDestination("?filename=" + URLEncoder.encode(link.getDestination(), StandardCharsets.UTF_8));
             }
         } else if (node instanceof Image image) {
-            String fileLocation = fileNameWithRelativePath
-                    .replaceAll("\\\\", "/") // Windows
-                    .replaceFirst("/[^/]+$", ""); // Remove filename
-            if (fileLocation.isEmpty() || fileLocation.equals(fileNameWithRelativePath)) { // If the file is in the root directory
-                fileLocation = ".";
-            }
-
-            image.setDestination("/image?filename=" + fileLocation + "/" + URLEncoder.encode(image.getDestination(), StandardCharsets.UTF_8));
-        } else if (node instanceof FencedCodeBlock) {
-            codeBlockCounter++;
-            processFencedCodeBlock((FencedCodeBlock) node, fileNameWithRelativePath, codeBlockCounter);
-        }
-
-        // Process siblings
-        if (node.getNext() != null) {
-            processDocument(node.getNext(), fileNameWithRelativePath, codeBlockCounter);
-        }
-        // Process children
-        if (node.getFirstChild() != null) {
-            processDocument(node.getFirstChild(), fileNameWithRelativePath, codeBlockCounter);
+            image.setDestination("/image?filename=" + context.imageLocation + "/" + URLEncoder.encode(image.getDestination(), StandardCharsets.UTF_8));
+        } else if (node instanceof FencedCodeBlock codeBlock) {
+            context.codeBlockCounter++;
+            processFencedCodeBlock(codeBlock, context, context.codeBlockCounter);
         }
     }
 
-    private void processFencedCodeBlock(FencedCodeBlock codeBlock, String fileNameWithRelativePath, Integer codeBlockCounter) {
+    private void processFencedCodeBlock(FencedCodeBlock codeBlock, RenderContext context, int codeBlockCounter) {
         String codeType = codeBlock.getInfo();
-        if (codeType.matches("^groovy:([^:]+)$")) {
-            renderGroovyResult(codeBlock, fileNameWithRelativePath, codeType);
-        } else if (codeType.matches("^sql\\(([^)]+)\\)$")) {
-            renderSqlResult(codeBlock, fileNameWithRelativePath, codeType, codeBlockCounter);
+        if (codeType == null || codeType.isEmpty()) {
+            return;
+        }
+        String fileNameWithRelativePath = context.fileNameWithRelativePath;
+        if (GROOVY_CODE_TYPE.matcher(codeType).matches()) {
+            context.pendingCodeBlocks.add(renderGroovyResult(codeBlock, fileNameWithRelativePath, codeType));
+        } else if (SQL_CODE_TYPE.matcher(codeType).matches()) {
+            context.pendingCodeBlocks.add(renderSqlResult(codeBlock, fileNameWithRelativePath, codeType,
+                    codeBlockCounter));
         }
     }
 
-    private void renderGroovyResult(FencedCodeBlock codeBlock, String fileNameWithRelativePath, String codeType) {
+    private PendingCodeBlock renderGroovyResult(FencedCodeBlock codeBlock, String fileNameWithRelativePath,
+                                                String codeType) {
         String targetType = codeType.substring(7);
         String groovyScript = codeBlock.getLiteral();
         var groovyCodeBlockRequest = new GroovyExecutor.GroovyCodeBlockRequest(groovyScript, targetType,
                 fileNameWithRelativePath);
-        var node = groovyCodeBlockResolver.apply(groovyCodeBlockRequest);
-        codeBlock.insertAfter(node);
-        codeBlock.setInfo("hidden-groovy");
+        // Identical scripts share a lane so that they never write the same output file at the same time
+        return new PendingCodeBlock(codeBlock, "hidden-groovy", "groovy:" + groovyScript,
+                generateHash(groovyScript), () -> groovyCodeBlockResolver.apply(groovyCodeBlockRequest));
     }
 
-    private void renderSqlResult(FencedCodeBlock codeBlock, String fileNameWithRelativePath, String codeType,
-                                 Integer codeBlockCounter) {
-        String dataSourceName = codeType.substring(4, codeType.length() - 1);
+    private PendingCodeBlock renderSqlResult(FencedCodeBlock codeBlock, String fileNameWithRelativePath,
+                                             String codeType, Integer codeBlockCounter) {
+        SqlFenceInfo fenceInfo;
+        try {
+            fenceInfo = SqlFenceInfo.parse(codeType.substring(4, codeType.length() - 1));
+        } catch (IllegalArgumentException e) {
+            return new PendingCodeBlock(codeBlock, "hidden-sql", null, null,
+                    () -> new Text("Error: " + e.getMessage()));
+        }
+        String dataSourceName = fenceInfo.dataSourceName();
         String sql = codeBlock.getLiteral();
-        Node node;
         var dataSourceConfig = dataSourceConfigResolver.apply(dataSourceName);
         if (dataSourceConfig == null) {
-            node = new Text("Error: DataSource '" + dataSourceName + "' not defined in config.");
-        } else {
-            node = processSqlCodeBlock(sql, dataSourceConfig, fileNameWithRelativePath, codeBlockCounter);
+            return new PendingCodeBlock(codeBlock, "hidden-sql", null, null,
+                    () -> new Text("Error: DataSource '" + dataSourceName + "' not defined in config."));
         }
-        codeBlock.insertAfter(node);
-        codeBlock.setInfo("hidden-sql");
+        Map<String, String> parameterValues = parameterValues(sql);
+        sqlRefreshRegistrar.accept(new SqlExecutor.JsonGenerationRequest(dataSourceConfig, sql, parameterValues,
+                fileNameWithRelativePath, false), fenceInfo.ttl());
+        // Identical queries share a lane so that they never write the same output file at the same time
+        return new PendingCodeBlock(codeBlock, "hidden-sql", "sql:" + dataSourceName + ":" + sql,
+                generateHash(SqlExecutor.outputKey(sql, parameterValues)),
+                () -> withPermit(dataSourceName, () -> processSqlCodeBlock(sql, parameterValues, dataSourceConfig,
+                        fileNameWithRelativePath, codeBlockCounter)));
     }
 
-    private Node processSqlCodeBlock(String sql, DataSourceConfig dataSourceConfig, String fileNameWithRelativePath,
-                                     Integer codeBlockCounter) {
+    /**
+     * Runs the collected code blocks and inserts their results after the code blocks, in document order.
+     * <p>
+     * Blocks that share a lane run one after another, different lanes run concurrently on the code block executor.
+     * Sql blocks hold a permit of their datasource while they run, so the queries of concurrent renders, re-executed
+     * queries and refreshes together stay within the limit of the datasource.
+     */
+    private void executeCodeBlocks(List<PendingCodeBlock> pendingCodeBlocks) {
+        Node[] results = new Node[pendingCodeBlocks.size()];
+        Map<String, List<Integer>> lanes = new LinkedHashMap<>();
+        for (int i = 0; i < pendingCodeBlocks.size(); i++) {
+            PendingCodeBlock pending = pendingCodeBlocks.get(i);
+            if (pending.lane() == null) {
+                results[i] = execute(pending);
+            } else {
+                lanes.computeIfAbsent(pending.lane(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        var futures = lanes.values().stream()
+                .map(lane -> CompletableFuture.runAsync(() -> {
+                    for (int i : lane) {
+                        results[i] = execute(pendingCodeBlocks.get(i));
+                    }
+                }, codeBlockExecutor))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(futures).join();
+
+        for (int i = 0; i < pendingCodeBlocks.size(); i++) {
+            PendingCodeBlock pending = pendingCodeBlocks.get(i);
+            pending.codeBlock().insertAfter(results[i]);
+            pending.codeBlock().setInfo(pending.hiddenInfo());
+        }
+    }
+
+    private static Node execute(PendingCodeBlock pending) {
+        try {
+            return pending.work().get();
+        } catch (Exception e) {
+            log.error("Error executing code block", e);
+            return new Text("Error: " + e.getMessage());
+        }
+    }
 
+    private Node withPermit(String dataSourceName, Supplier<Node> work) {
+        Semaphore permits = dataSourcePermits.apply(dataSourceName);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Text("Error: Interrupted while waiting for datasource '" + dataSourceName + "'");
+        }
+        try {
+            return work.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static Map<String, String> parameterValues(String sql) {
         List<String> parameterNames = extractParameterNames(sql);
         Map<String, String> parameterValues = new LinkedHashMap<>();
 
@@ -142,7 +375,12 @@ public class MarkdownRenderer {
                 parameterValues.put(param, "placeholder_value");
             }
         }
+        return parameterValues;
+    }
 
+    private Node processSqlCodeBlock(String sql, Map<String, String> parameterValues,
+                                     DataSourceConfig dataSourceConfig, String fileNameWithRelativePath,
+                                     Integer codeBlockCounter) {
         var request = new SqlExecutor.JsonGenerationRequest(dataSourceConfig, sql, parameterValues,
                 fileNameWithRelativePath, false);
         var outputPath = sqlToJsonFileResolver.apply(request);
@@ -151,10 +389,9 @@ public class MarkdownRenderer {
                 fileNameWithRelativePath, codeBlockCounter);
     }
 
-    private List<String> extractParameterNames(String sql) {
+    private static List<String> extractParameterNames(String sql) {
         List<String> parameterNames = new ArrayList<>();
-        Pattern pattern = Pattern.compile(":(\\w+)");
-        Matcher matcher = pattern.matcher(sql);
+        Matcher matcher = SQL_PARAMETER.matcher(sql);
         while (matcher.find()) {
             parameterNames.add(matcher.group(1));
         }
@@ -172,29 +409,57 @@ public class MarkdownRenderer {
     }
 
     public static String generateOutputFileName(String docsDirectory, String markdownFileName, String scriptText) {
-        String hash = generateHash(scriptText);
+        return outputFileName(docsDirectory, markdownFileName, generateHash(scriptText));
+    }
+
+    /**
+     * Where the output of a code block was kept before outputs moved to the {@code OutputStore}, next to the markdown
+     * file. Only used to move the outputs written by earlier versions.
+     */
+    public static String outputFileName(String docsDirectory, String markdownFileName, String hash) {
         return Paths.get(docsDirectory, markdownFileName).getParent().resolve(
                 Paths.get(markdownFileName).getFileName().toString().replaceFirst("[.][^.]+$", "") + "." + hash + ".output"
         ).toString();
     }
 
-    private static String generateHash(String input) {
+    public static String generateHash(String input) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] hash = digest.digest(input.getBytes());
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.substring(0, 16); // Use first 16 characters of the hash
+            return HEX_FORMAT.formatHex(hash, 0, 8); // Use first 16 characters of the hash
         } catch (NoSuchAlgorithmException e) {
             log.error("Error generating hash", e);
             return "error";
         }
     }
 
+    private static class RenderContext {
+        private final String fileNameWithRelativePath;
+        private final String imageLocation;
+        private final List<PendingCodeBlock> pendingCodeBlocks = new ArrayList<>();
+        private final List<PageLink> links = new ArrayList<>();
+        private int codeBlockCounter;
+
+        private RenderContext(String fileNameWithRelativePath, String imageLocation) {
+            this.fileNameWithRelativePath = fileNameWithRelativePath;
+            this.imageLocation = imageLocation;
+        }
+    }
+
+    public record RenderedMarkdown(String html, Set<String> outputHashes, List<PageLink> links) {
+    }
+
+    /**
+     * @param destination the destination as written in the markdown
+     * @param target      the file or directory it points to relative to the docs directory, null if it is outside
+     */
+    public record PageLink(String destination, String target, boolean image) {
+    }
+
+    private record PendingCodeBlock(FencedCodeBlock codeBlock, String hiddenInfo, String lane, String outputHash,
+                                    Supplier<Node> work) {
+    }
+
     public static class ImageAttributeProvider implements AttributeProvider {
         @Override
         public void setAttributes(Node node, String tagName, Map<String, String> attributes) {
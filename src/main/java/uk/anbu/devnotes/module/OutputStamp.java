@@ -0,0 +1,37 @@
+package uk.anbu.devnotes.module;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Size and modification time of an output file, stored in the sidecar files derived from it so a sidecar of an
+ * output that changed since can be recognised.
+ */
+record OutputStamp(long size, long lastModified) {
+
+    /**
+     * The stamp of {@code outputPath}, or null if it does not exist.
+     */
+    static OutputStamp of(Path outputPath) throws IOException {
+        try {
+            var attributes = Files.readAttributes(outputPath, BasicFileAttributes.class);
+            return new OutputStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    static OutputStamp read(DataInput in) throws IOException {
+        return new OutputStamp(in.readLong(), in.readLong());
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(lastModified);
+    }
+}
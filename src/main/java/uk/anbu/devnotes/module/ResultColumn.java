@@ -0,0 +1,266 @@
+package uk.anbu.devnotes.module;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.BitSet;
+
+/**
+ * The values of one column of a sql result as a typed vector, parsed once from the output file so rows can be
+ * compared without parsing values again. Nulls compare lower than any value.
+ */
+final class ResultColumn {
+
+    enum Type {
+        LONG, DOUBLE, DECIMAL, TIMESTAMP, STRING;
+
+        static Type forJavaClass(String javaClass) {
+            return switch (javaClass == null ? "" : javaClass) {
+                case "java.lang.Integer", "java.lang.Long", "java.lang.Short", "java.lang.Byte" -> LONG;
+                case "java.lang.Double", "java.lang.Float" -> DOUBLE;
+                case "java.math.BigDecimal" -> DECIMAL;
+                case "java.sql.Timestamp" -> TIMESTAMP;
+                default -> STRING;
+            };
+        }
+    }
+
+    private static final int DATE_LENGTH = "yyyy-mm-dd".length();
+
+    private final String javaClass;
+    private final Type type;
+    private final int size;
+    private final BitSet nulls;
+    /**
+     * LONG values, or the epoch seconds of TIMESTAMP values.
+     */
+    private long[] longs;
+    private double[] doubles;
+    private int[] nanos;
+    private BigDecimal[] decimals;
+    private String[] strings;
+
+    ResultColumn(String javaClass, int size) {
+        this.javaClass = javaClass;
+        this.type = Type.forJavaClass(javaClass);
+        this.size = size;
+        this.nulls = new BitSet(size);
+        // rows without a value for the column stay null
+        nulls.set(0, size);
+        switch (type) {
+            case LONG -> longs = new long[size];
+            case DOUBLE -> doubles = new double[size];
+            case DECIMAL -> decimals = new BigDecimal[size];
+            case TIMESTAMP -> {
+                longs = new long[size];
+                nanos = new int[size];
+            }
+            case STRING -> strings = new String[size];
+        }
+    }
+
+    static ResultColumn of(ColumnarResultFile file, int column) {
+        var result = new ResultColumn(file.columns().get(column).javaClass(), file.rowCount());
+        for (int row = 0; row < file.rowCount(); row++) {
+            if (file.isNull(column, row)) {
+                continue;
+            }
+            switch (file.columns().get(column).encoding()) {
+                case INT64 -> result.setLong(row, file.getLong(column, row));
+                case FLOAT64 -> result.setDouble(row, file.getDouble(column, row));
+                case TIMESTAMP -> result.setTimestamp(row, file.getTimestamp(column, row));
+                case STRING -> result.setText(row, file.getString(column, row));
+            }
+        }
+        return result;
+    }
+
+    Type type() {
+        return type;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    /**
+     * The value of a filter as a column of one row of the same type, so it compares with the values of this column.
+     *
+     * @throws IllegalArgumentException if the text is not a value of the type of the column
+     */
+    ResultColumn parse(String text) {
+        var value = new ResultColumn(javaClass, 1);
+        try {
+            value.setText(0, text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        return value;
+    }
+
+    /**
+     * The value as text for contains and full-text filters, null for a null value.
+     */
+    String text(int row) {
+        if (nulls.get(row)) {
+            return null;
+        }
+        return switch (type) {
+            case LONG -> Long.toString(longs[row]);
+            case DOUBLE -> Double.toString(doubles[row]);
+            case DECIMAL -> decimals[row].toPlainString();
+            case TIMESTAMP -> timestamp(row).toString();
+            case STRING -> strings[row];
+        };
+    }
+
+    private Timestamp timestamp(int row) {
+        var timestamp = new Timestamp(longs[row] * 1000);
+        timestamp.setNanos(nanos[row]);
+        return timestamp;
+    }
+
+    /**
+     * Sets a value as written by the json output format.
+     */
+    void set(int row, JsonNode value) {
+        if (value == null || value.isNull()) {
+            nulls.set(row);
+        } else if (value.isNumber()) {
+            switch (type) {
+                case LONG -> setLong(row, value.asLong());
+                case DOUBLE -> setDouble(row, value.asDouble());
+                case DECIMAL -> setDecimal(row, value.decimalValue());
+                case TIMESTAMP -> setTimestamp(row, new Timestamp(value.asLong()));
+                case STRING -> setText(row, value.asText());
+            }
+        } else {
+            setText(row, value.asText());
+        }
+    }
+
+    /**
+     * Sets a value from its text, as stored for string encoded columns of the columnar format.
+     */
+    void setText(int row, String text) {
+        switch (type) {
+            case LONG -> setLong(row, Long.parseLong(text));
+            case DOUBLE -> setDouble(row, Double.parseDouble(text));
+            case DECIMAL -> setDecimal(row, new BigDecimal(text));
+            case TIMESTAMP -> setTimestamp(row, parseTimestamp(text));
+            case STRING -> {
+                strings[row] = text;
+                nulls.clear(row);
+            }
+        }
+    }
+
+    private void setLong(int row, long value) {
+        longs[row] = value;
+        nulls.clear(row);
+    }
+
+    private void setDouble(int row, double value) {
+        doubles[row] = value;
+        nulls.clear(row);
+    }
+
+    private void setDecimal(int row, BigDecimal value) {
+        decimals[row] = value;
+        nulls.clear(row);
+    }
+
+    private void setTimestamp(int row, Timestamp value) {
+        longs[row] = Math.floorDiv(value.getTime(), 1000);
+        nanos[row] = value.getNanos();
+        nulls.clear(row);
+    }
+
+    private static Timestamp parseTimestamp(String text) {
+        if (text.length() == DATE_LENGTH) {
+            // a date in a filter, e.g. 2024-03-01, is the start of the day
+            return Timestamp.valueOf(LocalDate.parse(text).atStartOfDay());
+        }
+        try {
+            return Timestamp.valueOf(text);
+        } catch (IllegalArgumentException e) {
+            // the json format writes timestamps as ISO-8601 text, e.g. 2024-03-01T10:15:30.123+00:00
+            return Timestamp.from(OffsetDateTime.parse(text).toInstant());
+        }
+    }
+
+    int compare(int a, int b) {
+        return compare(a, this, b);
+    }
+
+    /**
+     * Compares a row of this column with a row of a column of the same type.
+     */
+    int compare(int row, ResultColumn other, int otherRow) {
+        boolean aNull = nulls.get(row);
+        boolean bNull = other.nulls.get(otherRow);
+        if (aNull || bNull) {
+            return aNull ? (bNull ? 0 : -1) : 1;
+        }
+        return switch (type) {
+            case LONG -> Long.compare(longs[row], other.longs[otherRow]);
+            case DOUBLE -> Double.compare(doubles[row], other.doubles[otherRow]);
+            case DECIMAL -> decimals[row].compareTo(other.decimals[otherRow]);
+            case TIMESTAMP -> longs[row] != other.longs[otherRow] ? Long.compare(longs[row], other.longs[otherRow])
+                    : Integer.compare(nanos[row], other.nanos[otherRow]);
+            case STRING -> strings[row].compareTo(other.strings[otherRow]);
+        };
+    }
+
+    /**
+     * Like {@link #compare(int, ResultColumn, int)}, but strings ignore case.
+     */
+    int compareIgnoreCase(int row, ResultColumn other, int otherRow) {
+        if (type == Type.STRING && !nulls.get(row) && !other.nulls.get(otherRow)) {
+            return strings[row].compareToIgnoreCase(other.strings[otherRow]);
+        }
+        return compare(row, other, otherRow);
+    }
+
+    /**
+     * The row numbers in ascending order of their values, rows with equal values keep their order.
+     */
+    int[] ascendingOrder() {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        mergeSort(rows, new int[size], 0, size);
+        return rows;
+    }
+
+    private void mergeSort(int[] rows, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle);
+        mergeSort(rows, buffer, middle, to);
+        if (compare(rows[middle - 1], rows[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package uk.anbu.devnotes.module;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Writes query results row by row as they are fetched, so an export never holds more than a small window of rows.
+ */
+public final class ResultExport {
+
+    public enum Format {
+        EXCEL("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+        CSV("csv", "text/csv"),
+        TSV("tsv", "text/tab-separated-values");
+
+        private final String fileExtension;
+        private final String mediaType;
+
+        Format(String fileExtension, String mediaType) {
+            this.fileExtension = fileExtension;
+            this.mediaType = mediaType;
+        }
+
+        public String fileExtension() {
+            return fileExtension;
+        }
+
+        public String mediaType() {
+            return mediaType;
+        }
+    }
+
+    interface Sink extends Closeable {
+        void header(ResultSetMetaData metaData) throws SQLException, IOException;
+
+        void row(ResultSet rs) throws SQLException, IOException;
+
+        /**
+         * Flushes everything written to the output stream, which is left open.
+         */
+        void finish() throws IOException;
+    }
+
+    private ResultExport() {
+    }
+
+    static Sink open(Format format, OutputStream out) {
+        return switch (format) {
+            case EXCEL -> new ExcelSink(out);
+            case CSV -> new DelimitedSink(out, ',', "\r\n");
+            case TSV -> new DelimitedSink(out, '\t', "\n");
+        };
+    }
+
+    private static String text(Object value) {
+        if (value instanceof Blob) {
+            return "<blob>";
+        } else if (value instanceof Clob) {
+            return "<clob>";
+        }
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Keeps {@link #ROW_WINDOW} rows in memory, older rows are flushed to a compressed temp file that is deleted on
+     * {@link #close()}. Column widths are taken from the first {@link #WIDTH_SAMPLE_ROWS} rows instead of
+     * autosizing over every row.
+     */
+    private static final class ExcelSink implements Sink {
+        private static final int ROW_WINDOW = 100;
+        private static final int WIDTH_SAMPLE_ROWS = 500;
+        private static final int MAX_COLUMN_WIDTH = 80;
+
+        private final OutputStream out;
+        private final SXSSFWorkbook workbook;
+        private final SXSSFSheet sheet;
+        private int columnCount;
+        private int[] columnWidths;
+        private int rowNum;
+
+        private ExcelSink(OutputStream out) {
+            this.out = out;
+            this.workbook = new SXSSFWorkbook(ROW_WINDOW);
+            workbook.setCompressTempFiles(true);
+            this.sheet = workbook.createSheet("SQL Results");
+        }
+
+        @Override
+        public void header(ResultSetMetaData metaData) throws SQLException {
+            columnCount = metaData.getColumnCount();
+            columnWidths = new int[columnCount];
+            CellStyle headerStyle = createHeaderRowStyle();
+            Row headerRow = sheet.createRow(rowNum++);
+            for (int i = 0; i < columnCount; i++) {
+                String columnName = metaData.getColumnLabel(i + 1);
+                Cell cell = headerRow.createCell(i);
+                cell.setCellValue(columnName);
+                cell.setCellStyle(headerStyle);
+                columnWidths[i] = columnName.length();
+            }
+        }
+
+        @Override
+        public void row(ResultSet rs) throws SQLException {
+            if (rowNum >= SpreadsheetVersion.EXCEL2007.getMaxRows()) {
+                return;
+            }
+            boolean sample = rowNum <= WIDTH_SAMPLE_ROWS;
+            Row dataRow = sheet.createRow(rowNum++);
+            for (int i = 0; i < columnCount; i++) {
+                String value = text(rs.getObject(i + 1));
+                if (value != null) {
+                    dataRow.createCell(i).setCellValue(value);
+                    if (sample) {
+                        columnWidths[i] = Math.max(columnWidths[i], value.length());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            for (int i = 0; i < columnCount; i++) {
+                sheet.setColumnWidth(i, (Math.min(columnWidths[i], MAX_COLUMN_WIDTH) + 2) * 256);
+            }
+            workbook.write(out);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            workbook.close();
+        }
+
+        private CellStyle createHeaderRowStyle() {
+            CellStyle headerStyle = workbook.createCellStyle();
+            headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            Font headerFont = workbook.createFont();
+            headerFont.setBold(true);
+            headerStyle.setFont(headerFont);
+            return headerStyle;
+        }
+    }
+
+    /**
+     * CSV as in RFC 4180, fields holding the separator, a quote or a line break are quoted. TSV has no quoting, so
+     * tabs and line breaks in values are replaced by spaces.
+     */
+    private static final class DelimitedSink implements Sink {
+        private final Writer writer;
+        private final char separator;
+        private final String lineSeparator;
+        private int columnCount;
+
+        private DelimitedSink(OutputStream out, char separator, String lineSeparator) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            this.separator = separator;
+            this.lineSeparator = lineSeparator;
+        }
+
+        @Override
+        public void header(ResultSetMetaData metaData) throws SQLException, IOException {
+            columnCount = metaData.getColumnCount();
+            for (int i = 0; i < columnCount; i++) {
+                writeField(i, metaData.getColumnLabel(i + 1));
+            }
+            writer.write(lineSeparator);
+        }
+
+        @Override
+        public void row(ResultSet rs) throws SQLException, IOException {
+            for (int i = 0; i < columnCount; i++) {
+                writeField(i, text(rs.getObject(i + 1)));
+            }
+            writer.write(lineSeparator);
+        }
+
+        private void writeField(int column, String value) throws IOException {
+            if (column > 0) {
+                writer.write(separator);
+            }
+            if (value == null) {
+                return;
+            }
+            if (separator == '\t') {
+                writer.write(value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' '));
+            } else if (value.indexOf(separator) >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                    || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() {
+            // the writer only wraps the response stream, which is closed by its owner
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package uk.anbu.devnotes.module;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The filter typed into the search box of a result table, terms separated by spaces that all have to match:
+ * <ul>
+ *     <li>{@code smith} a row with any value containing smith, ignoring case</li>
+ *     <li>{@code NAME~smith} the NAME column contains smith, ignoring case</li>
+ *     <li>{@code NAME=Smith} and {@code NAME!=Smith} equals, strings ignore case</li>
+ *     <li>{@code AMOUNT>=10}, {@code AMOUNT<20}, {@code CREATED>2024-03-01} ranges on numbers and timestamps</li>
+ *     <li>{@code NAME=(null)} and {@code NAME!=(null)} is null and is not null, as nulls are shown in the table</li>
+ * </ul>
+ * Values with spaces are quoted, {@code NAME="John Smith"}. Values are parsed once for the type of their column
+ * and compared with the {@link ResultColumn} vectors of the output.
+ */
+final class ResultFilter {
+
+    static final ResultFilter NONE = new ResultFilter("", List.of());
+
+    private static final Pattern COLUMN_TERM = Pattern.compile("(\\w+)(>=|<=|!=|=|>|<|~)(.*)", Pattern.DOTALL);
+    private static final String NULL_VALUE = "(null)";
+
+    enum Operator {
+        CONTAINS, EQUALS, NOT_EQUALS, GREATER, GREATER_OR_EQUAL, LESS, LESS_OR_EQUAL, IS_NULL, IS_NOT_NULL;
+
+        private static Operator of(String symbol, String value) {
+            return switch (symbol) {
+                case "~" -> CONTAINS;
+                case "=" -> NULL_VALUE.equals(value) ? IS_NULL : EQUALS;
+                case "!=" -> NULL_VALUE.equals(value) ? IS_NOT_NULL : NOT_EQUALS;
+                case ">" -> GREATER;
+                case ">=" -> GREATER_OR_EQUAL;
+                case "<" -> LESS;
+                default -> LESS_OR_EQUAL;
+            };
+        }
+    }
+
+    /**
+     * A filter that names an unknown column, or has a value that is not valid for its column.
+     */
+    static final class InvalidFilterException extends IllegalArgumentException {
+        InvalidFilterException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * @param column the column the term applies to, null for a term that matches any column
+     */
+    record Term(String column, Operator operator, String value) {
+    }
+
+    private final String expression;
+    private final List<Term> terms;
+
+    private ResultFilter(String expression, List<Term> terms) {
+        this.expression = expression;
+        this.terms = terms;
+    }
+
+    static ResultFilter parse(String expression) {
+        if (expression == null || expression.isBlank()) {
+            return NONE;
+        }
+        List<Term> terms = new ArrayList<>();
+        for (String token : tokens(expression)) {
+            Matcher matcher = COLUMN_TERM.matcher(token);
+            if (matcher.matches()) {
+                String value = unquote(matcher.group(3));
+                terms.add(new Term(matcher.group(1), Operator.of(matcher.group(2), value), value));
+            } else {
+                terms.add(new Term(null, Operator.CONTAINS, unquote(token)));
+            }
+        }
+        return new ResultFilter(expression.strip(), List.copyOf(terms));
+    }
+
+    String expression() {
+        return expression;
+    }
+
+    List<Term> terms() {
+        return terms;
+    }
+
+    boolean isEmpty() {
+        return terms.isEmpty();
+    }
+
+    /**
+     * The columns the filter reads, every column if a term matches any column.
+     *
+     * @throws InvalidFilterException for an unknown column
+     */
+    Set<String> columns(List<String> columnNames) {
+        Set<String> columns = new LinkedHashSet<>();
+        for (Term term : terms) {
+            if (term.column() == null) {
+                columns.addAll(columnNames);
+            } else {
+                columns.add(columnName(term.column(), columnNames));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * The rows that match every term.
+     *
+     * @param columns the values of the columns returned by {@link #columns(List)}
+     * @throws InvalidFilterException for an unknown column, or a value that is not valid for its column
+     */
+    BitSet matchingRows(int rowCount, List<String> columnNames, Function<String, ResultColumn> columns) {
+        BitSet rows = new BitSet(rowCount);
+        rows.set(0, rowCount);
+        for (Term term : terms) {
+            if (term.column() == null) {
+                retainContainingAnyColumn(rows, term.value(), columnNames, columns);
+            } else {
+                String columnName = columnName(term.column(), columnNames);
+                retain(rows, term, columnName, columns.apply(columnName));
+            }
+        }
+        return rows;
+    }
+
+    private static void retainContainingAnyColumn(BitSet rows, String value, List<String> columnNames,
+                                                  Function<String, ResultColumn> columns) {
+        List<ResultColumn> searched = columnNames.stream().map(columns).toList();
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            boolean found = false;
+            for (ResultColumn column : searched) {
+                if (!column.isNull(row) && containsIgnoreCase(column.text(row), value)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    private static void retain(BitSet rows, Term term, String columnName, ResultColumn column) {
+        ResultColumn value = switch (term.operator()) {
+            case EQUALS, NOT_EQUALS, GREATER, GREATER_OR_EQUAL, LESS, LESS_OR_EQUAL -> {
+                try {
+                    yield column.parse(term.value());
+                } catch (IllegalArgumentException e) {
+                    throw new InvalidFilterException("Invalid value '" + term.value() + "' for column "
+                            + columnName, e);
+                }
+            }
+            default -> null;
+        };
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (!matches(term, column, row, value)) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    private static boolean matches(Term term, ResultColumn column, int row, ResultColumn value) {
+        boolean isNull = column.isNull(row);
+        return switch (term.operator()) {
+            case IS_NULL -> isNull;
+            case IS_NOT_NULL -> !isNull;
+            case CONTAINS -> !isNull && containsIgnoreCase(column.text(row), term.value());
+            case EQUALS -> !isNull && column.compareIgnoreCase(row, value, 0) == 0;
+            case NOT_EQUALS -> !isNull && column.compareIgnoreCase(row, value, 0) != 0;
+            case GREATER -> !isNull && column.compare(row, value, 0) > 0;
+            case GREATER_OR_EQUAL -> !isNull && column.compare(row, value, 0) >= 0;
+            case LESS -> !isNull && column.compare(row, value, 0) < 0;
+            case LESS_OR_EQUAL -> !isNull && column.compare(row, value, 0) <= 0;
+        };
+    }
+
+    private static String columnName(String name, List<String> columnNames) {
+        for (String columnName : columnNames) {
+            if (columnName.equalsIgnoreCase(name)) {
+                return columnName;
+            }
+        }
+        throw new InvalidFilterException("Unknown column " + name, null);
+    }
+
+    static boolean containsIgnoreCase(String text, String value) {
+        int last = text.length() - value.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, value, 0, value.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits at spaces outside of double quotes, the quotes are kept.
+     */
+    private static List<String> tokens(String expression) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (Character.isWhitespace(c) && !quoted) {
+                if (!token.isEmpty()) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+            } else {
+                token.append(c);
+            }
+        }
+        if (!token.isEmpty()) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,200 @@
+package uk.anbu.devnotes.module;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte offsets of the rows of a json .output file, so a window of rows can be parsed without reading the rows
+ * before it.
+ * <p>
+ * Besides the offsets the index keeps every top level field of the output except {@code data}, and the size and
+ * modification time of the output it was built from. An index whose output has changed since is ignored.
+ */
+final class RowOffsetIndex {
+
+    private static final int MAGIC = 0x444E5249; // "DNRI"
+
+    private final OutputStamp outputStamp;
+    private final JsonNode header;
+    /**
+     * Start of every row, followed by the position of the closing bracket of the data array.
+     */
+    private final long[] offsets;
+
+    private RowOffsetIndex(OutputStamp outputStamp, JsonNode header, long[] offsets) {
+        this.outputStamp = outputStamp;
+        this.header = header;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Scans the output with a streaming parser, rows are skipped rather than parsed.
+     */
+    static RowOffsetIndex build(ObjectMapper objectMapper, Path outputPath) throws IOException {
+        var outputStamp = OutputStamp.of(outputPath);
+        ObjectNode header = objectMapper.createObjectNode();
+        long[] offsets = new long[16];
+        int rowCount = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(outputPath.toFile())) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                parser.nextToken();
+                if ("data".equals(fieldName)) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        if (rowCount + 1 == offsets.length) {
+                            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                        }
+                        offsets[rowCount++] = parser.currentTokenLocation().getByteOffset();
+                        parser.skipChildren();
+                    }
+                    offsets[rowCount] = parser.currentTokenLocation().getByteOffset();
+                } else {
+                    header.set(fieldName, objectMapper.readTree(parser));
+                }
+            }
+        }
+        return new RowOffsetIndex(outputStamp, header, Arrays.copyOf(offsets, rowCount + 1));
+    }
+
+    /**
+     * The index stored at {@code indexPath}, or null if there is none or it does not match the output any more.
+     */
+    static RowOffsetIndex read(ObjectMapper objectMapper, Path indexPath, Path outputPath) throws IOException {
+        var outputStamp = OutputStamp.of(outputPath);
+        if (outputStamp == null) {
+            return null;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            if (!OutputStamp.read(in).equals(outputStamp)) {
+                return null;
+            }
+            JsonNode header = objectMapper.readTree(in.readNBytes(in.readInt()));
+            long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new RowOffsetIndex(outputStamp, header, offsets);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    void write(ObjectMapper objectMapper, Path indexPath) throws IOException {
+        Files.createDirectories(indexPath.getParent());
+        Path tempPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            outputStamp.write(out);
+            byte[] headerBytes = objectMapper.writeValueAsBytes(header);
+            out.writeInt(headerBytes.length);
+            out.write(headerBytes);
+            out.writeInt(offsets.length);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    JsonNode header() {
+        return header;
+    }
+
+    int rowCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Parses the given rows, consecutive rows are read with a single read of the bytes between them.
+     */
+    List<JsonNode> readRows(ObjectMapper objectMapper, Path outputPath, int[] rows) throws IOException {
+        List<JsonNode> result = new ArrayList<>(rows.length);
+        if (rows.length == 0) {
+            return result;
+        }
+        try (FileChannel channel = FileChannel.open(outputPath, StandardOpenOption.READ)) {
+            int runStart = 0;
+            while (runStart < rows.length) {
+                int runEnd = runStart + 1;
+                while (runEnd < rows.length && rows[runEnd] == rows[runEnd - 1] + 1) {
+                    runEnd++;
+                }
+                long from = offsets[rows[runStart]];
+                byte[] bytes = read(channel, from, (int) (offsets[rows[runEnd - 1] + 1] - from), outputPath);
+                for (int i = runStart; i < runEnd; i++) {
+                    // the slice of a row ends with the comma before the next row, which the parser does not read
+                    result.add(objectMapper.readTree(bytes, (int) (offsets[rows[i]] - from),
+                            (int) (offsets[rows[i] + 1] - offsets[rows[i]])));
+                }
+                runStart = runEnd;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the values of the columns in {@code targets} with one streaming parser, other values are skipped.
+     */
+    void readColumns(ObjectMapper objectMapper, Path outputPath, Map<String, ResultColumn> targets)
+            throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(outputPath.toFile())) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                parser.nextToken();
+                if (!"data".equals(fieldName)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                int row = 0;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        ResultColumn target = targets.get(parser.currentName());
+                        parser.nextToken();
+                        if (target != null) {
+                            target.set(row, objectMapper.readTree(parser));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length, Path outputPath) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Output file is shorter than its row index: " + outputPath);
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,58 @@
+package uk.anbu.devnotes.module;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The row numbers of an output file in ascending order of one column, stored next to the other sidecars in the
+ * cache directory. Descending order is the same permutation read backwards.
+ */
+final class SortOrderIndex {
+
+    private static final int MAGIC = 0x444E534F; // "DNSO"
+
+    private SortOrderIndex() {
+    }
+
+    /**
+     * The stored order, or null if there is none or it was built from a different version of the output.
+     */
+    static int[] read(Path indexPath, OutputStamp outputStamp) throws IOException {
+        if (outputStamp == null) {
+            return null;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != MAGIC || !OutputStamp.read(in).equals(outputStamp)) {
+                return null;
+            }
+            int[] order = new int[in.readInt()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = in.readInt();
+            }
+            return order;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    static void write(Path indexPath, OutputStamp outputStamp, int[] ascendingOrder) throws IOException {
+        Files.createDirectories(indexPath.getParent());
+        Path tempPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            outputStamp.write(out);
+            out.writeInt(ascendingOrder.length);
+            for (int row : ascendingOrder) {
+                out.writeInt(row);
+            }
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
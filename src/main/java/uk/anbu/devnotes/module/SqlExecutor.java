@@ -8,79 +8,232 @@ import gg.jte.TemplateEngine;
 import gg.jte.output.StringOutput;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.FillPatternType;
-import org.apache.poi.ss.usermodel.Font;
-import org.apache.poi.ss.usermodel.IndexedColors;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.springframework.context.event.EventListener;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
 import uk.anbu.devnotes.service.ConfigService;
 import uk.anbu.devnotes.service.DataSourceConfig;
+import uk.anbu.devnotes.service.DataSourceRegistry;
+import uk.anbu.devnotes.service.OutputChangedEvent;
+import uk.anbu.devnotes.service.OutputStore;
+import uk.anbu.devnotes.service.RunningQueryRegistry;
 
-import java.io.File;
-import java.io.FileOutputStream;
+
+import javax.sql.DataSource;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Timestamp;
+import java.sql.Statement;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
-import static uk.anbu.devnotes.module.MarkdownRenderer.generateOutputFileName;
-
 @RequiredArgsConstructor
 @Slf4j
 @Component
 public class SqlExecutor {
 
+    /**
+     * Bound of the number of values held by {@link #cachedColumns}.
+     */
+    private static final long MAX_CACHED_COLUMN_VALUES = 2_000_000;
+
+    /**
+     * Numbers from this size on, or below {@link #PLAIN_BELOW}, are shown in full rather than as formatted.
+     */
+    private static final BigDecimal PLAIN_ABOVE = new BigDecimal("1E16");
+    private static final long PLAIN_ABOVE_LONG = PLAIN_ABOVE.longValueExact();
+    private static final BigDecimal PLAIN_BELOW = new BigDecimal("1E-3");
+    /**
+     * DecimalFormat is not thread safe, each thread formats with its own rather than building one per value.
+     */
+    private static final ThreadLocal<DecimalFormat> NUMBER_FORMAT = ThreadLocal.withInitial(() -> {
+        var symbols = new DecimalFormatSymbols(Locale.US);
+        symbols.setGroupingSeparator(',');
+        symbols.setDecimalSeparator('.');
+        DecimalFormat df = new DecimalFormat("#,##0.##################", symbols);
+        df.setMaximumFractionDigits(340); // Maximum possible double precision
+        return df;
+    });
+
     private final ObjectMapper objectMapper;
     private final TemplateEngine templateEngine;
     private final ConfigService configService;
+    private final DataSourceRegistry dataSourceRegistry;
+    private final RunningQueryRegistry runningQueryRegistry;
+    private final OutputStore outputStore;
+    /**
+     * Executions in progress by output file, a caller asking for an output that is being written waits for that
+     * execution instead of running the same query again into the same file.
+     */
+    private final Map<Path, CompletableFuture<Path>> executions = new ConcurrentHashMap<>();
+    /**
+     * Parsed columns of recently sorted or filtered outputs by output file and column name, least recently used
+     * first. Guarded by itself.
+     */
+    private final Map<String, CachedColumn> cachedColumns = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedColumnValues;
 
     public Path renderResultAsJsonFile(JsonGenerationRequest request) {
-        var jdbcTemplate = getNamedParameterJdbcTemplate(request.dataSourceConfig());
+        return execute(request, false);
+    }
 
-        var parametersAsString = request.parameterValues() != null ?
-                request.parameterValues().entrySet().stream()
-                        .map(entry -> entry.getKey() + "=" + entry.getValue())
-                        .collect(Collectors.joining("&")) : "";
-        String outputFileName = generateOutputFileName(configService.getDocsDirectory(),
-                request.markdownFilePath(), request.sql() + ";" + parametersAsString);
-        Path outputPath = Paths.get(outputFileName);
+    /**
+     * Runs the query of a sql block again in the background. Unlike {@link #renderResultAsJsonFile} a failing query
+     * keeps the last output, so a page keeps showing data while its database is unavailable.
+     */
+    public Path refreshResultFile(JsonGenerationRequest request) {
+        return execute(request, true);
+    }
+
+    /**
+     * The output file of a sql block in the {@link OutputStore}, named by the hash of its query and parameters.
+     */
+    public Path outputPath(JsonGenerationRequest request) {
+        return outputStore.path(request.markdownFilePath(), sqlHash(request));
+    }
+
+    private static String sqlHash(JsonGenerationRequest request) {
+        return sqlHash(request.sql(), request.parameterValues());
+    }
+
+    /**
+     * The hash that names the output file of a query and identifies it in the {@link RunningQueryRegistry}.
+     */
+    public static String sqlHash(String sql, Map<String, String> parameterValues) {
+        return MarkdownRenderer.generateHash(outputKey(sql, parameterValues));
+    }
+
+    private Path execute(JsonGenerationRequest request, boolean keepOutputOnError) {
+        Path outputPath = outputPath(request);
 
         if (outputPath.toFile().exists() && !request.forceExecute()) {
             log.info("Output file already exists, skipping SQL query");
             return outputPath;
-        } else {
+        }
+
+        var execution = new CompletableFuture<Path>();
+        var runningExecution = executions.putIfAbsent(outputPath, execution);
+        if (runningExecution != null) {
+            log.info("Same SQL query is already executing against {}, waiting for its result",
+                    request.dataSourceConfig().name());
+            return runningExecution.join();
+        }
+        try {
             log.info("Executing SQL query against {}", request.dataSourceConfig().name());
+            executeQuery(request, outputPath, keepOutputOnError);
+            execution.complete(outputPath);
+        } catch (RuntimeException | Error e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            executions.remove(outputPath, execution);
         }
+        return outputPath;
+    }
 
+    private void executeQuery(JsonGenerationRequest request, Path outputPath, boolean keepOutputOnError) {
         SqlParameterSource parameterSource = new MapSqlParameterSource(request.parameterValues());
 
+        try (var runningQuery = runningQueryRegistry.start(sqlHash(request), request.dataSourceConfig().name());
+             var pool = dataSourceRegistry.lease(request.dataSourceConfig())) {
+            var jdbcTemplate = getNamedParameterJdbcTemplate(pool.dataSource(), request.dataSourceConfig(),
+                    runningQuery);
+            if (SqlOutputFormat.fromConfig(configService.getSqlOutputFormat()) == SqlOutputFormat.COLUMNAR) {
+                replaceOutput(outputPath,
+                        path -> writeColumnarResult(jdbcTemplate, request, parameterSource, path, runningQuery));
+            } else {
+                replaceOutput(outputPath,
+                        path -> writeJsonResult(jdbcTemplate, request, parameterSource, path, runningQuery));
+                indexRows(outputPath);
+            }
+        } catch (Exception e) {
+            log.error("Error executing SQL query", e);
+            if (keepOutputOnError && Files.exists(outputPath)) {
+                return;
+            }
+            // write a json result with error message to the output file
+            try {
+                replaceOutput(outputPath, path -> writeErrorMessage(e, request, path));
+            } catch (IOException e1) {
+                log.error("Error writing error message to file", e1);
+            }
+            indexRows(outputPath);
+        }
+        deleteSortOrderIndexes(outputPath);
+        outputStore.written(request.markdownFilePath(), outputPath);
+    }
+
+    /**
+     * Drops the indexes of an output the sweep of the {@link OutputStore} deleted.
+     */
+    @EventListener
+    public void onOutputChanged(OutputChangedEvent event) {
+        if (Files.exists(event.output())) {
+            return;
+        }
+        deleteSortOrderIndexes(event.output());
+        try {
+            Files.deleteIfExists(rowOffsetIndexPath(event.output()));
+        } catch (IOException e) {
+            log.debug("Unable to delete the row index of {}", event.output(), e);
+        }
+    }
+
+    /**
+     * Writes an output file next to {@code outputPath} and moves it into place, readers see either the old or the
+     * new output but never a partly written one. The partial file is named {@code .partial.output}, which is never
+     * read as the output of a code block.
+     */
+    private static void replaceOutput(Path outputPath, OutputWriter writer) throws IOException {
+        Files.createDirectories(outputPath.getParent());
+        Path partialPath = outputPath.resolveSibling(
+                outputPath.getFileName().toString().replaceFirst("[.]output$", "") + ".partial.output");
+        try {
+            writer.write(partialPath);
+            Files.move(partialPath, outputPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partialPath);
+        }
+    }
+
+    @FunctionalInterface
+    private interface OutputWriter {
+        void write(Path path) throws IOException;
+    }
+
+    private void writeJsonResult(NamedParameterJdbcTemplate jdbcTemplate, JsonGenerationRequest request,
+                                 SqlParameterSource parameterSource, Path outputPath,
+                                 RunningQueryRegistry.RunningQuery runningQuery) throws IOException {
         final Integer[] rowCount = {0};
         final Integer[] columnCount = {0};
         final List<String> columnNames = new ArrayList<>();
@@ -120,6 +273,7 @@ public class SqlExecutor {
                     }
 
                     writeRow(rs, jsonGenerator, columnCount, columnNames);
+                    runningQuery.rowStreamed();
                 } catch (IOException e) {
                     throw new RuntimeException("Error writing SQL result to file", e);
                 }
@@ -130,18 +284,268 @@ public class SqlExecutor {
             jsonGenerator.writeBooleanField("hasReachedMaxRows", hasReachedMaxRows[0]);
             endOutermostObject(jsonGenerator);
             jsonGenerator.close();
-        } catch (Exception e) {
-            log.error("Error executing SQL query", e);
-            // write a json result with error message to the output file
-            writeErrorMessage(e, outputPath);
         }
-        return outputPath;
     }
 
-    private void writeErrorMessage(Exception e, Path outputPath) {
+    /**
+     * Rebuilds the row index of a json output the moment it is written, a rewrite within the modification time
+     * granularity of the file system would otherwise go unnoticed.
+     */
+    private void indexRows(Path outputPath) {
+        try {
+            RowOffsetIndex.build(objectMapper, outputPath).write(objectMapper, rowOffsetIndexPath(outputPath));
+        } catch (IOException e) {
+            // pages are still served, the index is built again on the first read
+            log.warn("Unable to index rows of {}", outputPath, e);
+        }
+    }
+
+    private Path rowOffsetIndexPath(Path outputPath) {
+        return Paths.get(configService.getCacheDirectory(), "rows",
+                MarkdownRenderer.generateHash(outputPath.toAbsolutePath().normalize().toString()) + ".rows");
+    }
+
+    private RowOffsetIndex rowOffsetIndex(Path outputPath) throws IOException {
+        Path indexPath = rowOffsetIndexPath(outputPath);
+        var index = RowOffsetIndex.read(objectMapper, indexPath, outputPath);
+        if (index == null) {
+            index = RowOffsetIndex.build(objectMapper, outputPath);
+            index.write(objectMapper, indexPath);
+        }
+        return index;
+    }
+
+    private Path sortOrderIndexDirectory(Path outputPath) {
+        return Paths.get(configService.getCacheDirectory(), "sort",
+                MarkdownRenderer.generateHash(outputPath.toAbsolutePath().normalize().toString()));
+    }
+
+    /**
+     * Sort orders are also checked against the output they were built from, deleting them when the output is
+     * written covers rewrites within the modification time granularity of the file system.
+     */
+    private void deleteSortOrderIndexes(Path outputPath) {
+        try {
+            FileSystemUtils.deleteRecursively(sortOrderIndexDirectory(outputPath));
+        } catch (IOException e) {
+            log.warn("Unable to delete sort orders of {}", outputPath, e);
+        }
+    }
+
+    /**
+     * The row numbers of an output file in ascending order of a column, built from a {@link ResultColumn} the first
+     * time a column is sorted and read from its {@link SortOrderIndex} after that.
+     */
+    private int[] ascendingOrder(Path outputPath, String columnName) throws IOException {
+        Path indexPath = sortOrderIndexDirectory(outputPath)
+                .resolve(MarkdownRenderer.generateHash(columnName) + ".sort");
+        var outputStamp = OutputStamp.of(outputPath);
+        int[] ascendingOrder = SortOrderIndex.read(indexPath, outputStamp);
+        if (ascendingOrder == null) {
+            ascendingOrder = readColumn(outputPath, columnName).ascendingOrder();
+            SortOrderIndex.write(indexPath, outputStamp, ascendingOrder);
+        }
+        return ascendingOrder;
+    }
+
+    private ResultColumn readColumn(Path outputPath, String columnName) throws IOException {
+        return resultColumns(outputPath, List.of(columnName)).get(columnName);
+    }
+
+    /**
+     * The columns of an output file as {@link ResultColumn}s. Columns stay cached while their output is unchanged,
+     * so filtering or sorting the same table again does not parse the output again.
+     */
+    private Map<String, ResultColumn> resultColumns(Path outputPath, Collection<String> columnNames)
+            throws IOException {
+        var outputStamp = OutputStamp.of(outputPath);
+        String outputKey = outputPath.toAbsolutePath().normalize() + "\n";
+        Map<String, ResultColumn> columns = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (cachedColumns) {
+            for (String columnName : columnNames) {
+                var cached = cachedColumns.get(outputKey + columnName);
+                if (cached != null && cached.outputStamp().equals(outputStamp)) {
+                    columns.put(columnName, cached.column());
+                } else {
+                    missing.add(columnName);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return columns;
+        }
+        Map<String, ResultColumn> read = readColumns(outputPath, missing);
+        columns.putAll(read);
+        synchronized (cachedColumns) {
+            read.forEach((columnName, column) ->
+                    cacheColumn(outputKey + columnName, new CachedColumn(outputStamp, column)));
+        }
+        return columns;
+    }
+
+    private void cacheColumn(String key, CachedColumn cachedColumn) {
+        if (cachedColumn.column().size() > MAX_CACHED_COLUMN_VALUES) {
+            return;
+        }
+        var previous = cachedColumns.put(key, cachedColumn);
+        cachedColumnValues += cachedColumn.column().size() - (previous != null ? previous.column().size() : 0);
+        var leastRecentlyUsed = cachedColumns.values().iterator();
+        while (cachedColumnValues > MAX_CACHED_COLUMN_VALUES) {
+            var evicted = leastRecentlyUsed.next();
+            cachedColumnValues -= evicted.column().size();
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    private Map<String, ResultColumn> readColumns(Path outputPath, List<String> columnNames) throws IOException {
+        Map<String, ResultColumn> columns = new HashMap<>();
+        if (SqlOutputFormat.of(outputPath) == SqlOutputFormat.COLUMNAR) {
+            var file = ColumnarResultFile.open(outputPath);
+            for (String columnName : columnNames) {
+                int column = file.columnIndex(columnName);
+                if (column < 0) {
+                    throw new IllegalArgumentException("Unknown column " + columnName);
+                }
+                columns.put(columnName, ResultColumn.of(file, column));
+            }
+            return columns;
+        }
+        var index = rowOffsetIndex(outputPath);
+        for (String columnName : columnNames) {
+            String javaClass = null;
+            boolean found = false;
+            for (JsonNode column : index.header().path("metadata")) {
+                if (columnName.equals(column.path("name").asText())) {
+                    javaClass = column.path("type").asText(null);
+                    found = true;
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("Unknown column " + columnName);
+            }
+            columns.put(columnName, new ResultColumn(javaClass, index.rowCount()));
+        }
+        index.readColumns(objectMapper, outputPath, columns);
+        return columns;
+    }
+
+    private record CachedColumn(OutputStamp outputStamp, ResultColumn column) {
+    }
+
+    /**
+     * The rows of an output file that match a filter, null if the filter is empty.
+     */
+    private BitSet matchingRows(Path outputPath, ResultFilter filter, int rowCount, List<String> columnNames)
+            throws IOException {
+        if (filter.isEmpty()) {
+            return null;
+        }
+        Map<String, ResultColumn> columns = resultColumns(outputPath, filter.columns(columnNames));
+        return filter.matchingRows(rowCount, columnNames, columns::get);
+    }
+
+    /**
+     * The row numbers shown at positions {@code offset} to {@code offset + limit} of a table of {@code rowCount}
+     * rows, in the given order or in file order if it is null.
+     */
+    static int[] pageRows(int rowCount, int offset, int limit, int[] ascendingOrder, boolean descending) {
+        int start = Math.min(Math.max(offset, 0), rowCount);
+        int end = (int) Math.min(rowCount, (long) start + Math.max(limit, 0));
+        int[] rows = new int[end - start];
+        for (int position = start; position < end; position++) {
+            if (ascendingOrder == null) {
+                rows[position - start] = position;
+            } else {
+                rows[position - start] = ascendingOrder[descending ? rowCount - 1 - position : position];
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * As {@link #pageRows(int, int, int, int[], boolean)}, counting only the rows in {@code matches}, all rows if
+     * it is null.
+     */
+    static int[] pageRows(int rowCount, int offset, int limit, int[] ascendingOrder, boolean descending,
+                          BitSet matches) {
+        if (matches == null) {
+            return pageRows(rowCount, offset, limit, ascendingOrder, descending);
+        }
+        int matchCount = matches.cardinality();
+        int start = Math.min(Math.max(offset, 0), matchCount);
+        int end = (int) Math.min(matchCount, (long) start + Math.max(limit, 0));
+        int[] rows = new int[end - start];
+        int matched = 0;
+        for (int position = 0; position < rowCount && matched < end; position++) {
+            int row = ascendingOrder == null ? position
+                    : ascendingOrder[descending ? rowCount - 1 - position : position];
+            if (matches.get(row)) {
+                if (matched >= start) {
+                    rows[matched - start] = row;
+                }
+                matched++;
+            }
+        }
+        return rows;
+    }
+
+    private void writeColumnarResult(NamedParameterJdbcTemplate jdbcTemplate, JsonGenerationRequest request,
+                                     SqlParameterSource parameterSource, Path outputPath,
+                                     RunningQueryRegistry.RunningQuery runningQuery) throws IOException {
+        var executionTime = LocalDateTime.now();
+        int maxRows = configService.getSqlMaxRows();
+        final boolean[] hasReachedMaxRows = {false};
+        try {
+            jdbcTemplate.query(request.sql(), parameterSource, (ResultSetExtractor<Void>) rs -> {
+                // unlike a row callback, the extractor sees the metadata of empty results too
+                try (var columns = ColumnarResultWriter.of(rs.getMetaData())) {
+                    while (rs.next()) {
+                        if (columns.rowCount() + 1 > maxRows) {
+                            log.info("Reached max rows, stopping SQL query");
+                            hasReachedMaxRows[0] = true;
+                            break;
+                        }
+                        columns.addRow(rs);
+                        runningQuery.rowStreamed();
+                    }
+                    columns.write(outputPath, new ColumnarResultFile.Header(request.sql(),
+                            request.parameterValues(), request.dataSourceConfig().name(), executionTime,
+                            hasReachedMaxRows[0]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error writing columnar result", e);
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * The text whose hash names the output file of a query, see {@link MarkdownRenderer#generateOutputFileName}.
+     */
+    public static String outputKey(String sql, Map<String, String> parameterValues) {
+        var parametersAsString = parameterValues != null ?
+                parameterValues.entrySet().stream()
+                        .map(entry -> entry.getKey() + "=" + entry.getValue())
+                        .collect(Collectors.joining("&")) : "";
+        return sql + ";" + parametersAsString;
+    }
+
+    private void writeErrorMessage(Exception e, JsonGenerationRequest request, Path outputPath)
+            throws IOException {
         try (FileWriter writer = new FileWriter(outputPath.toFile())) {
             JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(writer);
             startOutermostObject(jsonGenerator);
+            // the query is kept so a timed out or cancelled query can be edited and run again
+            jsonGenerator.writeObjectFieldStart("sql");
+            jsonGenerator.writeStringField("sqlText", request.sql());
+            jsonGenerator.writeObjectField("parameterValues",
+                    request.parameterValues() != null ? request.parameterValues() : Map.of());
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeStringField("datasourceName", request.dataSourceConfig().name());
+            jsonGenerator.writeStringField("executionTime", LocalDateTime.now().toString());
             jsonGenerator.writeArrayFieldStart("metadata");
             jsonGenerator.writeStartObject();
             jsonGenerator.writeStringField("name", "Error");
@@ -155,106 +559,70 @@ public class SqlExecutor {
             jsonGenerator.writeEndArray();
             endOutermostObject(jsonGenerator);
             jsonGenerator.close();
-        } catch (Exception e1) {
-            log.error("Error writing error message to file", e1);
         }
     }
 
-    private NamedParameterJdbcTemplate getNamedParameterJdbcTemplate(DataSourceConfig dataSourceConfig) {
-
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
-        dataSource.setDriverClassName(dataSourceConfig.driverClassName());
-        dataSource.setUrl(dataSourceConfig.url());
-        dataSource.setUsername(dataSourceConfig.username());
-        dataSource.setPassword(dataSourceConfig.password());
-
-        var jdbcTemplate = new JdbcTemplate(dataSource);
+    private NamedParameterJdbcTemplate getNamedParameterJdbcTemplate(DataSource dataSource,
+                                                                     DataSourceConfig dataSourceConfig,
+                                                                     RunningQueryRegistry.RunningQuery runningQuery) {
+        var jdbcTemplate = new TrackedJdbcTemplate(dataSource, runningQuery);
+        jdbcTemplate.setQueryTimeout(dataSourceConfig.queryTimeoutSeconds());
         jdbcTemplate.setFetchSize(500);
         jdbcTemplate.setMaxRows(configService.getSqlMaxRows() + 1);
 
         return new NamedParameterJdbcTemplate(jdbcTemplate);
     }
 
-    public File getResourceResponseEntity(String fileName, String markdownFileName) throws IOException {
-        Path markdownFileDirectory = Paths.get(configService.getDocsDirectory()).resolve(markdownFileName).getParent();
-        Path outputPath = Paths.get(markdownFileDirectory.toString(), fileName);
-        JsonNode rootNode = objectMapper.readTree(outputPath.toFile());
-
-        JsonNode sqlNode = rootNode.get("sql");
-        String sql = sqlNode.get("sqlText").asText();
-        Map<String, Object> parameterValues = objectMapper.convertValue(sqlNode.get("parameterValues"),
-                new TypeReference<>() {
-                });
-
-        String dataSourceName = rootNode.get("datasourceName").asText();
-        DataSourceConfig dataSourceConfig = configService.getDataSourceConfig(dataSourceName);
-
-        NamedParameterJdbcTemplate jdbcTemplate = getNamedParameterJdbcTemplate(dataSourceConfig);
-
-        return createWorkbook(jdbcTemplate, sql, parameterValues);
+    /**
+     * The output file of a sql code block of a page by its file name.
+     *
+     * @throws IllegalArgumentException if the name is not the name of an output file
+     */
+    public Path resolveOutputPath(String markdownFileName, String outputFileName) {
+        return outputStore.resolve(markdownFileName, outputFileName);
     }
 
-    private static File createWorkbook(NamedParameterJdbcTemplate jdbcTemplate, String sql,
-                                       Map<String, Object> parameterValues) throws IOException {
-        Workbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("SQL Results");
-
-        CellStyle headerStyle = createHeaderRowStyle(workbook);
-
-        final int[] rowNum = {0};
-        final boolean[] headerCreated = {false};
-
-        jdbcTemplate.query(sql, parameterValues, rs -> {
-            if (!headerCreated[0]) {
-                createHeaderRow(rs, sheet, rowNum, headerStyle, headerCreated);
-            }
-            createDataRow(rs, sheet, rowNum);
-        });
-
-        for (int i = 0; i < sheet.getRow(0).getPhysicalNumberOfCells(); i++) {
-            sheet.autoSizeColumn(i);
+    /**
+     * Runs the query of an output file again and streams every row to {@code out}. Unlike the output file the
+     * export is not limited to {@code devnotes.sql.maxRows}.
+     */
+    public void exportResult(String outputFileName, String markdownFileName, ResultExport.Format format,
+                             OutputStream out) throws IOException {
+        SqlResult header = getResultPage(resolveOutputPath(markdownFileName, outputFileName), 0, 0);
+        DataSourceConfig dataSourceConfig = configService.getDataSourceConfig(header.getDatasourceName());
+        if (dataSourceConfig == null) {
+            throw new IllegalArgumentException("Unknown datasource " + header.getDatasourceName());
         }
 
-        File outputFile = File.createTempFile("sql_results", ".xlsx");
-        FileOutputStream outputStream = new FileOutputStream(outputFile);
-        workbook.write(outputStream);
-        workbook.close();
-        return outputFile;
-    }
-
-    private static CellStyle createHeaderRowStyle(Workbook workbook) {
-        CellStyle headerStyle = workbook.createCellStyle();
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerStyle.setFont(headerFont);
-        return headerStyle;
-    }
-
-    private static void createDataRow(ResultSet rs, Sheet sheet, int[] rowNum) throws SQLException {
-        Row dataRow = sheet.createRow(rowNum[0]++);
-        for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-            Cell cell = dataRow.createCell(i - 1);
-            Object value = rs.getObject(i);
-            if (value != null) {
-                cell.setCellValue(value.toString());
-            }
-        }
-    }
-
-    private static void createHeaderRow(ResultSet rs, Sheet sheet, int[] rowNum, CellStyle headerStyle,
-                                        boolean[] headerCreated) throws SQLException {
-        Row headerRow = sheet.createRow(rowNum[0]++);
-        for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-            Cell cell = headerRow.createCell(i - 1);
-            cell.setCellValue(rs.getMetaData().getColumnName(i));
-            cell.setCellStyle(headerStyle);
+        Map<String, Object> parameterValues = header.getSql().parameters() != null ? header.getSql().parameters()
+                : Map.of();
+
+        // output files are named <markdown name>.<hash>.output
+        String[] fileNameParts = outputFileName.split("\\.");
+        String sqlHash = fileNameParts.length > 2 ? fileNameParts[fileNameParts.length - 2] : outputFileName;
+        try (var runningQuery = runningQueryRegistry.start(sqlHash, dataSourceConfig.name());
+             var pool = dataSourceRegistry.lease(dataSourceConfig);
+             ResultExport.Sink sink = ResultExport.open(format, out)) {
+            var jdbcTemplate = new TrackedJdbcTemplate(pool.dataSource(), runningQuery);
+            jdbcTemplate.setQueryTimeout(dataSourceConfig.queryTimeoutSeconds());
+            jdbcTemplate.setFetchSize(1000);
+            new NamedParameterJdbcTemplate(jdbcTemplate).query(header.getSql().sqlText(), parameterValues,
+                    (ResultSetExtractor<Void>) rs -> {
+                        try {
+                            sink.header(rs.getMetaData());
+                            while (rs.next()) {
+                                sink.row(rs);
+                                runningQuery.rowStreamed();
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Error writing export", e);
+                        }
+                        return null;
+                    });
+            sink.finish();
         }
-        headerCreated[0] = true;
     }
 
-
     private static void endOutermostObject(JsonGenerator jsonGenerator) throws IOException {
         jsonGenerator.writeEndObject();
     }
@@ -295,7 +663,7 @@ public class SqlExecutor {
 
     public String convertToHtmlTable(HtmlTableRequest request) {
         try {
-            SqlResult sqlResult = getResult(request);
+            SqlResult sqlResult = getResultPage(request.outputPath(), 0, configService.getSqlPageSize());
 
             Map<String, Object> params = new HashMap<>();
             params.put("outputFileName", request.outputPath().getFileName().toString());
@@ -303,6 +671,7 @@ public class SqlExecutor {
             params.put("markdownFileName", request.markdownFileName());
             params.put("sqlResult", sqlResult);
             params.put("codeBlockCounter", request.codeBlockCounter());
+            params.put("pageSize", configService.getSqlPageSize());
 
             StringOutput output = new StringOutput();
             templateEngine.render("sql-result-table.jte", params, output);
@@ -314,37 +683,65 @@ public class SqlExecutor {
         }
     }
 
-    public String convertToHtmlTable(JsonNode rootNode, String dataSourceName, String markdownFileName,
-                                     String outputFileName, String sortColumn, String sortDirection,
+    public String convertToHtmlTable(String dataSourceName, String markdownFileName, String outputFileName,
+                                     String sortColumn, String sortDirection, String filter,
                                      Integer codeBlockCounter) throws IOException {
-        JsonNode sqlNode = rootNode.get("sql");
-        String previousSqlText = sqlNode.get("sqlText").asText();
-
-        Map<String, String> previousParameterValues = objectMapper.convertValue(sqlNode.get("parameterValues"),
-                new TypeReference<>() {
-                });
-
-        var outputPath = Path.of(configService.getDocsDirectory()).resolve(markdownFileName).getParent()
-                .resolve(outputFileName);
-        HtmlTableRequest request = new HtmlTableRequest(previousSqlText, outputPath, previousParameterValues,
-                dataSourceName, markdownFileName, codeBlockCounter);
-        SqlResult sqlResult = getResult(request);
-
         Map<String, Object> params = new HashMap<>();
+        params.put("sqlResult", getFilteredResultPage(markdownFileName, outputFileName, 0,
+                configService.getSqlPageSize(), sortColumn, sortDirection, filter, params));
         params.put("outputFileName", outputFileName);
         params.put("datasourceName", dataSourceName);
         params.put("markdownFileName", markdownFileName);
-        params.put("parameterValues", previousParameterValues);
         params.put("sortColumn", sortColumn);
         params.put("sortDirection", sortDirection);
-        params.put("sqlResult", sqlResult);
+        params.put("filter", filter);
         params.put("codeBlockCounter", codeBlockCounter);
+        params.put("pageSize", configService.getSqlPageSize());
 
         StringOutput output = new StringOutput();
         templateEngine.render("sql-result-table.jte", params, output);
         return output.toString();
     }
 
+    /**
+     * The table rows {@code offset} to {@code offset + limit} of an output file, optionally sorted by a column and
+     * filtered by a {@link ResultFilter}, followed by a placeholder row that fetches the next page once it is
+     * scrolled into view.
+     */
+    public String renderResultPage(String markdownFileName, String outputFileName, int offset, int limit,
+                                   String sortColumn, String sortDirection, String filter) throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        SqlResult sqlResult = getFilteredResultPage(markdownFileName, outputFileName, offset, limit, sortColumn,
+                sortDirection, filter, params);
+        params.put("outputFileName", outputFileName);
+        params.put("markdownFileName", markdownFileName);
+        params.put("sortColumn", sortColumn);
+        params.put("sortDirection", sortDirection);
+        params.put("sqlResult", sqlResult);
+        params.put("offset", offset);
+        params.put("limit", limit);
+
+        StringOutput output = new StringOutput();
+        templateEngine.render("sql-result-rows.jte", params, output);
+        return output.toString();
+    }
+
+    /**
+     * A page of a filtered result. A filter that is not valid for the output is reported as {@code filterError}
+     * with no rows, rather than failing the table.
+     */
+    private SqlResult getFilteredResultPage(String markdownFileName, String outputFileName, int offset, int limit,
+                                            String sortColumn, String sortDirection, String filter,
+                                            Map<String, Object> params) throws IOException {
+        Path outputPath = resolveOutputPath(markdownFileName, outputFileName);
+        try {
+            return getResultPage(outputPath, offset, limit, sortColumn, sortDirection, filter);
+        } catch (ResultFilter.InvalidFilterException e) {
+            params.put("filterError", e.getMessage());
+            return getResultPage(outputPath, 0, 0);
+        }
+    }
+
     public record HumanReadableNumber(String value) {
         @Override
         public String toString() {
@@ -356,22 +753,18 @@ public class SqlExecutor {
         if (value == null) {
             return new HumanReadableNumber("(null)");
         }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return humanReadableNumber(value.longValue());
+        }
 
-        var bigDecimal = new BigDecimal(value.toString());
-
-        // Create a DecimalFormat instance
-        var symbols = new DecimalFormatSymbols(Locale.US);
-        symbols.setGroupingSeparator(',');
-        symbols.setDecimalSeparator('.');
-        DecimalFormat df = new DecimalFormat("#,##0.##################", symbols);
-        df.setMaximumFractionDigits(340); // Maximum possible double precision
+        var bigDecimal = value instanceof BigDecimal decimal ? decimal : new BigDecimal(value.toString());
 
         // Format the number
-        String formattedNumber = df.format(bigDecimal);
+        String formattedNumber = NUMBER_FORMAT.get().format(bigDecimal);
 
         // Handle special cases for very large or very small numbers
-        if (bigDecimal.abs().compareTo(new BigDecimal("1E16")) >= 0 ||
-                (bigDecimal.abs().compareTo(BigDecimal.ZERO) > 0 && bigDecimal.abs().compareTo(new BigDecimal("1E-3")) < 0)) {
+        var abs = bigDecimal.abs();
+        if (abs.compareTo(PLAIN_ABOVE) >= 0 || (abs.signum() > 0 && abs.compareTo(PLAIN_BELOW) < 0)) {
             // Use plain string for very large or very small numbers
             formattedNumber = bigDecimal.toPlainString();
 
@@ -390,10 +783,95 @@ public class SqlExecutor {
         return new HumanReadableNumber(formattedNumber);
     }
 
+    /**
+     * As {@link #humanReadableNumber(Number)}, grouping the digits of integral values directly.
+     */
+    static HumanReadableNumber humanReadableNumber(long value) {
+        if (value <= -PLAIN_ABOVE_LONG || value >= PLAIN_ABOVE_LONG) {
+            return humanReadableNumber(BigDecimal.valueOf(value));
+        }
+        String digits = Long.toString(value);
+        int start = value < 0 ? 1 : 0;
+        int firstGroupEnd = start + ((digits.length() - start - 1) % 3) + 1;
+        var sb = new StringBuilder(digits.length() + 6);
+        sb.append(digits, 0, firstGroupEnd);
+        for (int i = firstGroupEnd; i < digits.length(); i += 3) {
+            sb.append(',').append(digits, i, i + 3);
+        }
+        return new HumanReadableNumber(sb.toString());
+    }
+
     SqlResult getResult(HtmlTableRequest request) throws IOException {
-        JsonNode rootNode = objectMapper.readTree(request.outputPath().toFile());
+        return getResult(request.outputPath());
+    }
+
+    private SqlResult getResult(Path outputPath) throws IOException {
+        if (SqlOutputFormat.of(outputPath) == SqlOutputFormat.COLUMNAR) {
+            return getColumnarResult(ColumnarResultFile.open(outputPath), 0, Integer.MAX_VALUE);
+        }
+        JsonNode rootNode = objectMapper.readTree(outputPath.toFile());
+        JsonNode dataNode = rootNode.has("data") ? rootNode.get("data") : objectMapper.createArrayNode();
+        return getJsonResult(rootNode, dataNode, dataNode.size());
+    }
+
+    /**
+     * The header and the rows {@code offset} to {@code offset + limit} of an output file. Only those rows are read,
+     * json outputs are read through their {@link RowOffsetIndex}.
+     */
+    SqlResult getResultPage(Path outputPath, int offset, int limit) throws IOException {
+        return getResultPage(outputPath, offset, limit, null, null);
+    }
+
+    /**
+     * As {@link #getResultPage(Path, int, int)}, with the rows ordered by {@code sortColumn} when it is given. The
+     * output itself is never rewritten, the order comes from a {@link SortOrderIndex}.
+     */
+    SqlResult getResultPage(Path outputPath, int offset, int limit, String sortColumn, String sortDirection)
+            throws IOException {
+        return getResultPage(outputPath, offset, limit, sortColumn, sortDirection, null);
+    }
+
+    /**
+     * As {@link #getResultPage(Path, int, int, String, String)}, counting only the rows that match a
+     * {@link ResultFilter}. The total row count of a filtered result is the number of matching rows.
+     *
+     * @throws ResultFilter.InvalidFilterException if the filter names an unknown column or has a value not valid
+     *                                             for its column
+     */
+    SqlResult getResultPage(Path outputPath, int offset, int limit, String sortColumn, String sortDirection,
+                            String filter) throws IOException {
+        var resultFilter = ResultFilter.parse(filter);
+        int[] ascendingOrder = sortColumn == null || sortColumn.isEmpty() ? null
+                : ascendingOrder(outputPath, sortColumn);
+        boolean descending = "desc".equals(sortDirection);
+        if (SqlOutputFormat.of(outputPath) == SqlOutputFormat.COLUMNAR) {
+            var file = ColumnarResultFile.open(outputPath);
+            List<String> columnNames = file.columns().stream().map(ColumnarResultFile.Column::name).toList();
+            BitSet matches = matchingRows(outputPath, resultFilter, file.rowCount(), columnNames);
+            return withMatches(getColumnarResult(file,
+                    pageRows(file.rowCount(), offset, limit, ascendingOrder, descending, matches)), matches);
+        }
+        var index = rowOffsetIndex(outputPath);
+        List<String> columnNames = new ArrayList<>();
+        for (JsonNode column : index.header().path("metadata")) {
+            columnNames.add(column.path("name").asText());
+        }
+        BitSet matches = matchingRows(outputPath, resultFilter, index.rowCount(), columnNames);
+        int[] rows = pageRows(index.rowCount(), offset, limit, ascendingOrder, descending, matches);
+        return withMatches(getJsonResult(index.header(), index.readRows(objectMapper, outputPath, rows),
+                index.rowCount()), matches);
+    }
+
+    private static SqlResult withMatches(SqlResult result, BitSet matches) {
+        if (matches != null) {
+            result.setUnfilteredRowCount(result.getTotalRowCount());
+            result.setTotalRowCount(matches.cardinality());
+        }
+        return result;
+    }
+
+    private SqlResult getJsonResult(JsonNode rootNode, Iterable<JsonNode> rows, int totalRowCount) {
         var metadataNode = Optional.ofNullable(rootNode.get("metadata"));
-        var dataNode = Optional.ofNullable(rootNode.get("data"));
         var sqlNode = Optional.ofNullable(rootNode.get("sql"));
 
         var sql = sqlNode.map(s -> s.get("sqlText").asText()).orElse("");
@@ -411,26 +889,26 @@ public class SqlExecutor {
         }
 
         List<Map<String, Object>> data = new ArrayList<>();
-        if (dataNode.isPresent()) {
-            for (JsonNode row : dataNode.get()) {
-                Map<String, Object> rowData = new HashMap<>();
-                for (var colMeta : metadata) {
-                    String columnName = colMeta.name();
-                    JsonNode valueNode = row.get(columnName);
-                    Object value;
-                    if (valueNode.isNull()) {
-                        value = "(null)";
-                    } else {
-                        value = switch (colMeta.javaClass()) {
-                            case "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.math.BigDecimal" ->
-                                    humanReadableNumber(new BigDecimal(valueNode.asText()));
-                            default -> valueNode.asText();
-                        };
-                    }
-                    rowData.put(columnName, value);
+        for (JsonNode row : rows) {
+            Map<String, Object> rowData = new HashMap<>();
+            for (var colMeta : metadata) {
+                String columnName = colMeta.name();
+                JsonNode valueNode = row.get(columnName);
+                Object value;
+                if (valueNode.isNull()) {
+                    value = "(null)";
+                } else {
+                    value = switch (colMeta.javaClass()) {
+                        case "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.math.BigDecimal" ->
+                                valueNode.isIntegralNumber() && valueNode.canConvertToLong()
+                                        ? humanReadableNumber(valueNode.longValue())
+                                        : humanReadableNumber(new BigDecimal(valueNode.asText()));
+                        default -> valueNode.asText();
+                    };
                 }
-                data.add(rowData);
+                rowData.put(columnName, value);
             }
+            data.add(rowData);
         }
 
         boolean hasReachedMaxRows = rootNode.has("hasReachedMaxRows") && rootNode.get("hasReachedMaxRows").asBoolean();
@@ -442,50 +920,71 @@ public class SqlExecutor {
                 : LocalDateTime.parse(rootNode.get("executionTime").asText());
         return SqlResult.builder()
                 .sql(new SqlResult.Sql(sql, parameterValues))
-                .datasourceName(rootNode.get("datasourceName").asText())
+                .datasourceName(rootNode.path("datasourceName").asText())
                 .executionTime(executionTime)
                 .hasReachedMaxRows(hasReachedMaxRows)
+                .totalRowCount(totalRowCount)
+                .data(new SqlResult.Data(metadata, data))
+                .build();
+    }
+
+    /**
+     * The header and the rows {@code offset} to {@code offset + limit} of a columnar result, only those rows are
+     * decoded.
+     */
+    static SqlResult getColumnarResult(ColumnarResultFile file, int offset, int limit) {
+        return getColumnarResult(file, pageRows(file.rowCount(), offset, limit, null, false));
+    }
+
+    private static SqlResult getColumnarResult(ColumnarResultFile file, int[] rows) {
+        var header = file.header();
+        List<SqlResult.Metadata> metadata = new ArrayList<>();
+        for (var column : file.columns()) {
+            metadata.add(new SqlResult.Metadata(column.name(), column.javaClass()));
+        }
+
+        List<Map<String, Object>> data = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            Map<String, Object> rowData = new HashMap<>();
+            for (int column = 0; column < metadata.size(); column++) {
+                var colMeta = metadata.get(column);
+                Object value = file.getValue(column, row);
+                rowData.put(colMeta.name(), value == null ? "(null)" : switch (colMeta.javaClass()) {
+                    case "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.math.BigDecimal" ->
+                            humanReadableNumber(value instanceof Number number ? number
+                                    : new BigDecimal(value.toString()));
+                    default -> value.toString();
+                });
+            }
+            data.add(rowData);
+        }
+
+        return SqlResult.builder()
+                .sql(new SqlResult.Sql(header.sqlText(), new HashMap<>(header.parameterValues())))
+                .datasourceName(header.datasourceName())
+                .executionTime(header.executionTime())
+                .hasReachedMaxRows(header.hasReachedMaxRows())
+                .totalRowCount(file.rowCount())
                 .data(new SqlResult.Data(metadata, data))
                 .build();
     }
 
-    public static List<Map<String, Object>> sortData(List<Map<String, Object>> data, String columnName, String columnType,
-                                                     String sortDirection) {
-
-        data.sort((a, b) -> {
-            int comparison = compare(a.get(columnName), b.get(columnName), columnType);
-            return sortDirection.equals("desc") ? -comparison : comparison;
-        });
-        return data;
-    }
-
-    private static int compare(Object a, Object b, String dataType) {
-        if (a == null || b == null) {
-            return a == null ? (b == null ? 0 : -1) : 1;
-        }
-        switch (dataType) {
-            case "java.lang.Integer":
-                var intA = Integer.parseInt(a.toString());
-                var intB = Integer.parseInt(b.toString());
-                return Integer.compare(intA, intB);
-            case "java.lang.Long":
-                var longA = Long.parseLong(a.toString());
-                var longB = Long.parseLong(b.toString());
-                return Long.compare(longA, longB);
-            case "java.lang.Double":
-                var doubleA = Double.parseDouble(a.toString());
-                var doubleB = Double.parseDouble(b.toString());
-                return Double.compare(doubleA, doubleB);
-            case "java.math.BigDecimal":
-                var decimalA = new BigDecimal(a.toString());
-                var decimalB = new BigDecimal(b.toString());
-                return decimalA.compareTo(decimalB);
-            case "java.sql.Timestamp":
-                var timestampA = Timestamp.valueOf(a.toString());
-                var timestampB = Timestamp.valueOf(b.toString());
-                return timestampA.compareTo(timestampB);
-            default:
-                return a.toString().compareTo(b.toString());
+    /**
+     * Attaches every statement it creates to a {@link RunningQueryRegistry.RunningQuery}, so the query can be
+     * cancelled from another request.
+     */
+    private static final class TrackedJdbcTemplate extends JdbcTemplate {
+        private final RunningQueryRegistry.RunningQuery runningQuery;
+
+        private TrackedJdbcTemplate(DataSource dataSource, RunningQueryRegistry.RunningQuery runningQuery) {
+            super(dataSource);
+            this.runningQuery = runningQuery;
+        }
+
+        @Override
+        protected void applyStatementSettings(Statement stmt) throws SQLException {
+            super.applyStatementSettings(stmt);
+            runningQuery.attach(stmt);
         }
     }
 
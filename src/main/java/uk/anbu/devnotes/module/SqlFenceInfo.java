@@ -0,0 +1,52 @@
+package uk.anbu.devnotes.module;
+
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The info string of a sql code block, {@code sql(datasource)} or {@code sql(datasource, ttl=10m)}.
+ *
+ * @param ttl how long the output of the block stays fresh, null if it is only refreshed on request
+ */
+record SqlFenceInfo(String dataSourceName, Duration ttl) {
+
+    private static final Pattern TTL = Pattern.compile("(\\d+)([smhd])");
+
+    /**
+     * Parses the text between the parentheses of {@code sql(...)}.
+     *
+     * @throws IllegalArgumentException for options other than a ttl, or a ttl that is not a number followed by one
+     *                                  of s, m, h or d
+     */
+    static SqlFenceInfo parse(String arguments) {
+        String[] parts = arguments.split(",");
+        Duration ttl = null;
+        for (int i = 1; i < parts.length; i++) {
+            String[] option = parts[i].split("=", 2);
+            if (option.length != 2 || !option[0].trim().equals("ttl")) {
+                throw new IllegalArgumentException("Unknown sql block option '" + parts[i].trim() + "'");
+            }
+            ttl = parseTtl(option[1].trim());
+        }
+        return new SqlFenceInfo(parts[0].trim(), ttl);
+    }
+
+    private static Duration parseTtl(String value) {
+        Matcher matcher = TTL.matcher(value);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid ttl '" + value + "', expected e.g. 30s, 10m, 2h or 1d");
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        Duration ttl = switch (matcher.group(2)) {
+            case "s" -> Duration.ofSeconds(amount);
+            case "m" -> Duration.ofMinutes(amount);
+            case "h" -> Duration.ofHours(amount);
+            default -> Duration.ofDays(amount);
+        };
+        if (ttl.isZero()) {
+            throw new IllegalArgumentException("Invalid ttl '" + value + "', the ttl must be positive");
+        }
+        return ttl;
+    }
+}
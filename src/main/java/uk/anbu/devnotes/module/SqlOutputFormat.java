@@ -0,0 +1,36 @@
+package uk.anbu.devnotes.module;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Encoding of the .output files written for sql code blocks, selected with {@code devnotes.sql.outputFormat}.
+ * Files are always read in the encoding they were written in, so existing json files stay readable after switching.
+ */
+public enum SqlOutputFormat {
+    /**
+     * One json object per row, see {@link SqlExecutor#renderResultAsJsonFile}.
+     */
+    JSON,
+    /**
+     * Typed column vectors, see {@link ColumnarResultFile}.
+     */
+    COLUMNAR;
+
+    public static SqlOutputFormat fromConfig(String value) {
+        if (value == null || value.isBlank()) {
+            return JSON;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    public static SqlOutputFormat of(Path outputFile) throws IOException {
+        try (InputStream in = Files.newInputStream(outputFile)) {
+            byte[] magic = new DataInputStream(in).readNBytes(4);
+            return magic.length == 4 && ColumnarResultFile.hasMagic(magic) ? COLUMNAR : JSON;
+        }
+    }
+}
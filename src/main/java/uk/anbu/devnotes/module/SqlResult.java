@@ -14,6 +14,15 @@ public class SqlResult {
     private LocalDateTime executionTime;
     private String datasourceName;
     private boolean hasReachedMaxRows;
+    /**
+     * Number of rows in the output, {@link #getRowCount()} is the number of rows in {@link #data}.
+     */
+    private int totalRowCount;
+    /**
+     * Number of rows in the output when the result is filtered, {@link #totalRowCount} is then the number of
+     * matching rows. Null for a result that is not filtered.
+     */
+    private Integer unfilteredRowCount;
     private Data data;
 
     public record Sql(String sqlText, Map<String, Object> parameters) {
@@ -0,0 +1,189 @@
+package uk.anbu.devnotes.scheduled;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import uk.anbu.devnotes.module.SqlExecutor;
+import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.DataSourceConfig;
+import uk.anbu.devnotes.service.DataSourcePermits;
+import uk.anbu.devnotes.util.TaskExecutors;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the queries of sql blocks with a ttl, e.g. {@code sql(prod, ttl=10m)}, again before their output expires, so
+ * pages always read a fresh output without waiting for the database.
+ * <p>
+ * Blocks are registered when a page renders them. A block is refreshed once its output is older than its ttl minus
+ * the check interval, at most {@code devnotes.sql.refresh.maxConcurrentPerDataSource} blocks of a datasource are
+ * refreshed at the same time. A refresh also takes one of the {@link DataSourcePermits} of its datasource, so it
+ * waits for the next check while pages are querying the datasource up to its limit. Blocks whose markdown file no
+ * longer contains their query are dropped.
+ */
+@Component
+@Slf4j
+public class SqlRefreshScheduledTasks {
+
+    private static final long CHECK_INTERVAL_MILLIS = 1000 * 10;
+
+    private final ConfigService configService;
+    private final SqlExecutor sqlExecutor;
+    private final DataSourcePermits dataSourcePermits;
+    private final Map<Path, RefreshedBlock> blocks = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> refreshPermits = new ConcurrentHashMap<>();
+    private final Executor refreshExecutor;
+
+    @Autowired
+    public SqlRefreshScheduledTasks(ConfigService configService, SqlExecutor sqlExecutor,
+                                    DataSourcePermits dataSourcePermits) {
+        this(configService, sqlExecutor, dataSourcePermits, TaskExecutors.daemonExecutor("sql-refresh-",
+                configService.getSqlRefreshThreads()));
+    }
+
+    SqlRefreshScheduledTasks(ConfigService configService, SqlExecutor sqlExecutor,
+                             DataSourcePermits dataSourcePermits, Executor refreshExecutor) {
+        this.configService = configService;
+        this.sqlExecutor = sqlExecutor;
+        this.dataSourcePermits = dataSourcePermits;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Registers a rendered sql block, a block without a ttl is no longer refreshed.
+     */
+    public void register(SqlExecutor.JsonGenerationRequest request, Duration ttl) {
+        Path outputPath = sqlExecutor.outputPath(request);
+        if (ttl == null) {
+            blocks.remove(outputPath);
+            return;
+        }
+        String dataSourceName = request.dataSourceConfig().name();
+        blocks.compute(outputPath, (path, block) -> {
+            // a refresh in progress keeps its block, replacing it would lose track of the refresh
+            if (block != null && block.ttl.equals(ttl) && block.dataSourceName.equals(dataSourceName)) {
+                return block;
+            }
+            return new RefreshedBlock(dataSourceName, request.sql(), request.parameterValues(),
+                    request.markdownFilePath(), ttl, block != null ? block.lastAttemptMillis : 0);
+        });
+    }
+
+    @Scheduled(fixedDelay = CHECK_INTERVAL_MILLIS)
+    public void refreshExpiringBlocks() {
+        long now = System.currentTimeMillis();
+        for (var entry : blocks.entrySet()) {
+            Path outputPath = entry.getKey();
+            RefreshedBlock block = entry.getValue();
+            if (block.refreshing || !isExpiring(outputPath, block, now)) {
+                continue;
+            }
+            Semaphore permits = refreshPermits.computeIfAbsent(block.dataSourceName,
+                    name -> new Semaphore(Math.max(1, configService.getSqlRefreshMaxConcurrentPerDataSource())));
+            if (!permits.tryAcquire()) {
+                continue;
+            }
+            Semaphore queryPermits = dataSourcePermits.permits(block.dataSourceName);
+            if (!queryPermits.tryAcquire()) {
+                permits.release();
+                continue;
+            }
+            block.refreshing = true;
+            block.lastAttemptMillis = now;
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        refresh(outputPath, block);
+                    } finally {
+                        block.refreshing = false;
+                        queryPermits.release();
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                block.refreshing = false;
+                queryPermits.release();
+                permits.release();
+                log.error("Unable to schedule refresh of {}", outputPath, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refreshExecutor instanceof ThreadPoolTaskExecutor pool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A block is due once its output, or the last failed attempt to refresh it, is older than its ttl minus one
+     * check interval, so it is refreshed before it expires and a failing query is not retried on every check.
+     */
+    private static boolean isExpiring(Path outputPath, RefreshedBlock block, long now) {
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(outputPath).toMillis();
+        } catch (NoSuchFileException e) {
+            lastModified = 0;
+        } catch (IOException e) {
+            log.warn("Unable to read modification time of {}", outputPath, e);
+            return false;
+        }
+        long age = now - Math.max(lastModified, block.lastAttemptMillis);
+        return age >= block.ttl.toMillis() - CHECK_INTERVAL_MILLIS;
+    }
+
+    private void refresh(Path outputPath, RefreshedBlock block) {
+        DataSourceConfig dataSourceConfig = configService.getDataSourceConfig(block.dataSourceName);
+        if (dataSourceConfig == null || !markdownContainsQuery(block)) {
+            log.info("Sql block of {} is gone, no longer refreshing {}", block.markdownFilePath, outputPath);
+            blocks.remove(outputPath, block);
+            return;
+        }
+        log.info("Refreshing {}, ttl {}", outputPath, block.ttl);
+        sqlExecutor.refreshResultFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig, block.sql,
+                block.parameterValues, block.markdownFilePath, true));
+    }
+
+    private boolean markdownContainsQuery(RefreshedBlock block) {
+        try {
+            return Files.readString(Paths.get(configService.getDocsDirectory(), block.markdownFilePath))
+                    .contains(block.sql.strip());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static final class RefreshedBlock {
+        private final String dataSourceName;
+        private final String sql;
+        private final Map<String, String> parameterValues;
+        private final String markdownFilePath;
+        private final Duration ttl;
+        private volatile long lastAttemptMillis;
+        private volatile boolean refreshing;
+
+        private RefreshedBlock(String dataSourceName, String sql, Map<String, String> parameterValues,
+                               String markdownFilePath, Duration ttl, long lastAttemptMillis) {
+            this.dataSourceName = dataSourceName;
+            this.sql = sql;
+            this.parameterValues = parameterValues;
+            this.markdownFilePath = markdownFilePath;
+            this.ttl = ttl;
+            this.lastAttemptMillis = lastAttemptMillis;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.anbu.devnotes.service;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import uk.anbu.devnotes.util.TaskExecutors;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Applies reported file changes on a single background thread. Changes reported while an update is waiting to run
+ * are applied by that update, so a burst of events from the {@link DocsWatcher} costs one update rather than one per
+ * event.
+ */
+class CoalescingUpdater {
+
+    private final ThreadPoolTaskExecutor executor;
+    private final Consumer<List<Path>> applyChanges;
+    private final Set<Path> pendingChanges = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    CoalescingUpdater(String threadNamePrefix, Consumer<List<Path>> applyChanges) {
+        this.executor = TaskExecutors.daemonExecutor(threadNamePrefix, 1);
+        this.applyChanges = applyChanges;
+    }
+
+    /**
+     * Runs a task, such as a full reload, on the update thread after the updates scheduled before it.
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Schedules an update for the changed paths unless one is already waiting to run.
+     */
+    void changed(Collection<Path> changes) {
+        pendingChanges.addAll(changes);
+        if (updateScheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                updateScheduled.set(false);
+                List<Path> paths = new ArrayList<>(pendingChanges);
+                pendingChanges.removeAll(paths);
+                applyChanges.accept(paths);
+            });
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -26,6 +26,54 @@ public class ConfigService {
     private String sshKeyFile;
     @Value("${devnotes.sql.maxRows:1000}")
     private int sqlMaxRows;
+    @Value("${devnotes.sql.outputFormat:json}")
+    private String sqlOutputFormat = "json";
+    @Value("${devnotes.sql.pageSize:100}")
+    private int sqlPageSize = 100;
+    @Value("${devnotes.cacheDirectory:${user.home}/.devnotes/cache}")
+    private String cacheDirectory = System.getProperty("user.home") + File.separator + ".devnotes" + File.separator + "cache";
+    @Value("${devnotes.sql.pool.maxPools:16}")
+    private int sqlPoolMaxPools = 16;
+    @Value("${devnotes.sql.pool.maxSize:4}")
+    private int sqlPoolMaxSize = 4;
+    @Value("${devnotes.sql.pool.idleTimeoutMinutes:10}")
+    private int sqlPoolIdleTimeoutMinutes = 10;
+    @Value("${devnotes.sql.refresh.threads:2}")
+    private int sqlRefreshThreads = 2;
+    @Value("${devnotes.sql.refresh.maxConcurrentPerDataSource:1}")
+    private int sqlRefreshMaxConcurrentPerDataSource = 1;
+    @Value("${devnotes.render.threads:8}")
+    private int renderThreads = 8;
+    @Value("${devnotes.sql.maxConcurrentPerDataSource:2}")
+    private int sqlMaxConcurrentPerDataSource = 2;
+    @Value("${devnotes.render.cache.maxEntries:256}")
+    private int renderCacheMaxEntries = 256;
+    @Value("${devnotes.render.cache.maxSizeMb:64}")
+    private int renderCacheMaxSizeMb = 64;
+    @Value("${devnotes.database.metadata.threads:3}")
+    private int databaseMetadataThreads = 3;
+    @Value("${devnotes.groovy.threads:2}")
+    private int groovyThreads = 2;
+    @Value("${devnotes.groovy.maxQueuedScripts:32}")
+    private int groovyMaxQueuedScripts = 32;
+    @Value("${devnotes.groovy.timeoutSeconds:60}")
+    private int groovyTimeoutSeconds = 60;
+    @Value("${devnotes.groovy.allocationBudgetMb:1024}")
+    private int groovyAllocationBudgetMb = 1024;
+    @Value("${devnotes.groovy.cache.maxEntries:64}")
+    private int groovyCacheMaxEntries = 64;
+    @Value("${devnotes.groovy.csv.maxRows:10000}")
+    private int groovyCsvMaxRows = 10000;
+    @Value("${devnotes.watch.coalesceMillis:100}")
+    private int watchCoalesceMillis = 100;
+    @Value("${devnotes.watch.pollSeconds:5}")
+    private int watchPollSeconds = 5;
+    @Value("${devnotes.search.threads:4}")
+    private int searchThreads = 4;
+    @Value("${devnotes.search.includeOutputs:false}")
+    private boolean searchIncludeOutputs;
+    @Value("${devnotes.outputs.graceHours:24}")
+    private int outputsGraceHours = 24;
     private Map<String, DataSourceConfig> dataSources;
 
     public ConfigService() {
@@ -51,7 +99,8 @@ public class ConfigService {
                         mapper.getTypeFactory().constructMapType(Map.class, String.class, DataSourceConfig.class));
                 var x = configs.entrySet().stream()
                         .map(e -> new DataSourceConfig(e.getKey(), e.getValue().url(), e.getValue().username(),
-                                e.getValue().password(), e.getValue().driverClassName()))
+                                e.getValue().password(), e.getValue().driverClassName(),
+                                e.getValue().queryTimeoutSeconds()))
                         .collect(Collectors.toMap(DataSourceConfig::name, e -> e));
                 this.dataSources.putAll(x);
             } catch (IOException e) {
@@ -71,10 +120,11 @@ public class ConfigService {
                 DataSourceConfig config = updatedDataSources.getOrDefault(dataSourceName, new DataSourceConfig(dataSourceName, "", "", "", ""));
 
                 config = switch (property) {
-                    case "url" -> new DataSourceConfig(dataSourceName, entry.getValue(), config.username(), config.password(), config.driverClassName());
-                    case "username" -> new DataSourceConfig(dataSourceName, config.url(), entry.getValue(), config.password(), config.driverClassName());
-                    case "password" -> !entry.getValue().equals("********") ? new DataSourceConfig(dataSourceName, config.url(), config.username(), entry.getValue(), config.driverClassName()) : config;
-                    case "driverClassName" -> new DataSourceConfig(dataSourceName, config.url(), config.username(), config.password(), entry.getValue());
+                    case "url" -> new DataSourceConfig(dataSourceName, entry.getValue(), config.username(), config.password(), config.driverClassName(), config.queryTimeoutSeconds());
+                    case "username" -> new DataSourceConfig(dataSourceName, config.url(), entry.getValue(), config.password(), config.driverClassName(), config.queryTimeoutSeconds());
+                    case "password" -> !entry.getValue().equals("********") ? new DataSourceConfig(dataSourceName, config.url(), config.username(), entry.getValue(), config.driverClassName(), config.queryTimeoutSeconds()) : config;
+                    case "driverClassName" -> new DataSourceConfig(dataSourceName, config.url(), config.username(), config.password(), entry.getValue(), config.queryTimeoutSeconds());
+                    case "queryTimeoutSeconds" -> new DataSourceConfig(dataSourceName, config.url(), config.username(), config.password(), config.driverClassName(), parseQueryTimeout(entry.getValue()));
                     default -> config;
                 };
 
@@ -85,6 +135,10 @@ public class ConfigService {
         this.dataSources = updatedDataSources;
     }
 
+    private static int parseQueryTimeout(String value) {
+        return value == null || value.isBlank() ? 0 : Math.max(0, Integer.parseInt(value.trim()));
+    }
+
     public void saveAndReloadConfig() {
         saveDataSourceConfigs();
         loadDataSourceConfigs();
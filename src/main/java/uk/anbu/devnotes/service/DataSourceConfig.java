@@ -1,4 +1,12 @@
 package uk.anbu.devnotes.service;
 
-public record DataSourceConfig(String name, String url, String username, String password, String driverClassName) {
+/**
+ * @param queryTimeoutSeconds statement timeout for queries against this datasource, 0 for no timeout
+ */
+public record DataSourceConfig(String name, String url, String username, String password, String driverClassName,
+                               int queryTimeoutSeconds) {
+
+    public DataSourceConfig(String name, String url, String username, String password, String driverClassName) {
+        this(name, url, username, password, driverClassName, 0);
+    }
 }
@@ -0,0 +1,33 @@
+package uk.anbu.devnotes.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the queries that run against one datasource at the same time to
+ * {@code devnotes.sql.maxConcurrentPerDataSource}, across rendered pages, re-executed queries and refreshes, so
+ * opening a few pages at once does not flood a database with queries.
+ */
+@Service
+public class DataSourcePermits {
+
+    private final ConfigService configService;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DataSourcePermits(ConfigService configService) {
+        this.configService = configService;
+    }
+
+    /**
+     * The permits of a datasource, acquire one before running a query against it and release it afterwards.
+     */
+    public Semaphore permits(String dataSourceName) {
+        return permits.computeIfAbsent(dataSourceName,
+                name -> new Semaphore(Math.max(1, configService.getSqlMaxConcurrentPerDataSource())));
+    }
+}
@@ -0,0 +1,228 @@
+package uk.anbu.devnotes.service;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps one small connection pool per {@link DataSourceConfig}, so that rendering a page with many sql blocks
+ * does not log in to the database once per block.
+ * <p>
+ * Pools are kept in least-recently-used order. When more than {@code devnotes.sql.pool.maxPools} pools are open the
+ * least recently used idle one is closed, and pools that have not been used for
+ * {@code devnotes.sql.pool.idleTimeoutMinutes} are closed by a scheduled sweep. Pools are handed out as a
+ * {@link Lease}, and leased pools are never evicted, so a long query or export keeps running and the bound is
+ * exceeded until the sweep closes them. A changed config for a datasource name replaces the pool that was built from
+ * the old config; a pool that is replaced or removed while leased is closed when its last lease is released.
+ * <p>
+ * Closing a pool can take a while, so pools are closed after leaving the lock on the registry.
+ */
+@Service
+@Slf4j
+public class DataSourceRegistry {
+
+    private final ConfigService configService;
+    private final Map<DataSourceConfig, PooledDataSource> pools = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Autowired
+    public DataSourceRegistry(ConfigService configService) {
+        this.configService = configService;
+    }
+
+    /**
+     * Leases the pool of a datasource, the pool stays open until the lease is closed.
+     */
+    public Lease lease(DataSourceConfig config) {
+        List<PooledDataSource> closed = new ArrayList<>();
+        try {
+            synchronized (this) {
+                PooledDataSource pooled = pools.get(config);
+                if (pooled == null) {
+                    removePoolsReplacedBy(config, closed);
+                    evictLeastRecentlyUsed(configService.getSqlPoolMaxPools() - 1, closed);
+                    pooled = new PooledDataSource(createPool(config));
+                    pools.put(config, pooled);
+                    log.info("Created connection pool for datasource {}", config.name());
+                }
+                pooled.lastUsed = System.nanoTime();
+                pooled.leases++;
+                return new Lease(pooled);
+            }
+        } finally {
+            closed.forEach(PooledDataSource::close);
+        }
+    }
+
+    /**
+     * Closes the pools of datasources that are no longer configured, or whose configuration has changed.
+     */
+    public void retainAll(Collection<DataSourceConfig> currentConfigs) {
+        Set<DataSourceConfig> current = new HashSet<>(currentConfigs);
+        List<PooledDataSource> removed = new ArrayList<>();
+        synchronized (this) {
+            pools.entrySet().removeIf(entry -> {
+                if (current.contains(entry.getKey())) {
+                    return false;
+                }
+                retire(entry.getValue(), removed);
+                return true;
+            });
+        }
+        removed.forEach(PooledDataSource::close);
+    }
+
+    @Scheduled(fixedDelay = 1000 * 60)
+    public void closeIdlePools() {
+        long idleNanos = Duration.ofMinutes(configService.getSqlPoolIdleTimeoutMinutes()).toNanos();
+        long now = System.nanoTime();
+        List<PooledDataSource> idle = new ArrayList<>();
+        synchronized (this) {
+            Iterator<PooledDataSource> iterator = pools.values().iterator();
+            while (iterator.hasNext()) {
+                PooledDataSource pooled = iterator.next();
+                if (now - pooled.lastUsed > idleNanos && !pooled.inUse()) {
+                    iterator.remove();
+                    idle.add(pooled);
+                }
+            }
+        }
+        idle.forEach(PooledDataSource::close);
+    }
+
+    public synchronized int size() {
+        return pools.size();
+    }
+
+    @PreDestroy
+    public synchronized void closeAll() {
+        pools.values().forEach(PooledDataSource::close);
+        pools.clear();
+    }
+
+    private void removePoolsReplacedBy(DataSourceConfig config, List<PooledDataSource> closed) {
+        Iterator<Map.Entry<DataSourceConfig, PooledDataSource>> iterator = pools.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (entry.getKey().name().equals(config.name())) {
+                log.info("Configuration of datasource {} changed, closing old connection pool", config.name());
+                iterator.remove();
+                retire(entry.getValue(), closed);
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used pools that are not in use until at most {@code maxPools} are left.
+     */
+    private void evictLeastRecentlyUsed(int maxPools, List<PooledDataSource> closed) {
+        Iterator<PooledDataSource> iterator = pools.values().iterator();
+        while (pools.size() > Math.max(0, maxPools) && iterator.hasNext()) {
+            PooledDataSource pooled = iterator.next();
+            if (!pooled.inUse()) {
+                iterator.remove();
+                closed.add(pooled);
+            }
+        }
+    }
+
+    /**
+     * Marks a pool removed from the registry, it is closed now if it is not leased or else by its last lease.
+     */
+    private static void retire(PooledDataSource pooled, List<PooledDataSource> closed) {
+        pooled.retired = true;
+        if (pooled.leases == 0) {
+            closed.add(pooled);
+        }
+    }
+
+    private void release(PooledDataSource pooled) {
+        boolean close;
+        synchronized (this) {
+            pooled.leases--;
+            pooled.lastUsed = System.nanoTime();
+            close = pooled.retired && pooled.leases == 0;
+        }
+        if (close) {
+            pooled.close();
+        }
+    }
+
+    private HikariDataSource createPool(DataSourceConfig config) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("devnotes-" + config.name());
+        hikariConfig.setDriverClassName(config.driverClassName());
+        hikariConfig.setJdbcUrl(config.url());
+        hikariConfig.setUsername(config.username());
+        hikariConfig.setPassword(config.password());
+        hikariConfig.setMaximumPoolSize(Math.max(1, configService.getSqlPoolMaxSize()));
+        hikariConfig.setMinimumIdle(0);
+        hikariConfig.setIdleTimeout(Duration.ofMinutes(configService.getSqlPoolIdleTimeoutMinutes()).toMillis());
+        // Do not connect while building the pool, the first query reports connection errors instead
+        hikariConfig.setInitializationFailTimeout(-1);
+        return new HikariDataSource(hikariConfig);
+    }
+
+    private static class PooledDataSource {
+        private final HikariDataSource dataSource;
+        private long lastUsed = System.nanoTime();
+        private int leases;
+        private boolean retired;
+
+        private PooledDataSource(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        private boolean inUse() {
+            return leases > 0 || activeConnections() > 0;
+        }
+
+        private int activeConnections() {
+            var poolBean = dataSource.getHikariPoolMXBean();
+            return poolBean == null ? 0 : poolBean.getActiveConnections();
+        }
+
+        private void close() {
+            log.info("Closing connection pool {}", dataSource.getPoolName());
+            dataSource.close();
+        }
+    }
+
+    /**
+     * A pool handed out by {@link #lease}, close it once the work with its connections is done.
+     */
+    public final class Lease implements AutoCloseable {
+        private final PooledDataSource pooled;
+        private boolean released;
+
+        private Lease(PooledDataSource pooled) {
+            this.pooled = pooled;
+        }
+
+        public DataSource dataSource() {
+            return pooled.dataSource;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(pooled);
+            }
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package uk.anbu.devnotes.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes a yaml snapshot of the tables and columns of a database, read by a single {@code getColumns} sweep over the
+ * whole schema rather than one call per table. The snapshot is written while the sweep is read, it is never held in
+ * memory as a whole.
+ * <p>
+ * Primary keys, foreign keys and indexes can only be read per table, when they are included they are read by up to
+ * {@code devnotes.database.metadata.threads} connections in parallel with the sweep. The sweep and the key readers
+ * together take at most half of the connections of the pool, the rest stay free for the queries of rendered pages.
+ * <p>
+ * Every table gets a fingerprint, a hash of its columns and, on Oracle, its {@code LAST_DDL_TIME}. An incremental
+ * harvest only reads the keys of tables whose fingerprint differs from the previous snapshot and copies the others,
+ * so it runs a handful of queries against an unchanged schema. The output is written in a stable order, harvesting
+ * an unchanged schema again writes the same file.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DatabaseMetadataHarvester {
+
+    // H2 2.x and some other drivers report plain tables as BASE TABLE
+    private static final String[] TABLE_TYPES = {"TABLE", "BASE TABLE"};
+    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+
+    private final ConfigService configService;
+    private final DataSourceRegistry dataSourceRegistry;
+
+    /**
+     * Writes the snapshot to {@code targetFile}, which is only replaced once the snapshot is complete.
+     *
+     * @param schema      the schema to read, null or blank for every schema the user can see
+     * @param incremental read the keys of changed tables only, copying the others from the current {@code targetFile}
+     */
+    public HarvestSummary harvest(DataSourceConfig config, String schema, boolean includeKeys, boolean incremental,
+                                  Path targetFile) throws SQLException, IOException {
+        Snapshot previous = incremental ? Snapshot.read(targetFile) : Snapshot.EMPTY;
+        Files.createDirectories(targetFile.toAbsolutePath().getParent());
+        Path partialFile = targetFile.resolveSibling(targetFile.getFileName() + ".partial");
+        try {
+            HarvestSummary summary;
+            try (OutputStream out = Files.newOutputStream(partialFile)) {
+                summary = harvest(config, schema, includeKeys, previous, out);
+            }
+            Files.move(partialFile, targetFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return summary;
+        } finally {
+            Files.deleteIfExists(partialFile);
+        }
+    }
+
+    HarvestSummary harvest(DataSourceConfig config, String schema, boolean includeKeys, Snapshot previous,
+                           OutputStream out) throws SQLException, IOException {
+        String schemaPattern = schema == null || schema.isBlank() ? null : schema.strip();
+        long start = System.currentTimeMillis();
+        try (var pool = dataSourceRegistry.lease(config);
+             Connection conn = pool.dataSource().getConnection();
+             JsonGenerator generator = YAML_MAPPER.getFactory().createGenerator(out)) {
+            DataSource dataSource = pool.dataSource();
+            DatabaseMetaData dbMetaData = conn.getMetaData();
+            List<TableName> tables = readTables(dbMetaData, schemaPattern);
+            Map<TableName, String> fieldNames = fieldNames(tables);
+            Map<String, String> lastDdlTimes = readLastDdlTimes(conn, dbMetaData, schemaPattern);
+            boolean reuseKeys = includeKeys && previous.keysIncluded();
+
+            // the sweep keeps one connection of the pool busy, with a pool of three or less the keys are read after it
+            int workers = Math.min(configService.getDatabaseMetadataThreads(),
+                    Math.min(configService.getSqlPoolMaxSize() / 2 - 1, tables.size()));
+            ExecutorService executor = includeKeys && workers > 0 ? Executors.newFixedThreadPool(workers) : null;
+            try {
+                // a full harvest reads all keys while the columns are swept, an incremental one only knows which
+                // tables changed once the sweep is done
+                List<CompletableFuture<Map<TableName, TableKeys>>> keys = executor != null && !reuseKeys
+                        ? readKeysInParallel(dataSource, tables, workers, executor) : null;
+
+                generator.writeStartObject();
+                generator.writeStringField("datasource", config.name());
+                generator.writeStringField("database_product_name", dbMetaData.getDatabaseProductName());
+                generator.writeStringField("database_product_version", dbMetaData.getDatabaseProductVersion());
+                Map<TableName, String> fingerprints = writeTables(generator, dbMetaData, schemaPattern, tables,
+                        fieldNames, lastDdlTimes);
+                writeFingerprints(generator, fieldNames, fingerprints);
+                List<TableName> changed = tables.stream()
+                        .filter(table -> !fingerprints.get(table).equals(
+                                previous.fingerprints().get(fieldNames.get(table))))
+                        .toList();
+                if (includeKeys) {
+                    if (keys == null) {
+                        List<TableName> keysToRead = reuseKeys ? changed : tables;
+                        keys = executor != null ? readKeysInParallel(dataSource, keysToRead, workers, executor)
+                                : List.of(CompletableFuture.completedFuture(readKeys(dbMetaData, keysToRead)));
+                    }
+                    writeKeys(generator, fieldNames, joinKeys(keys), reuseKeys ? previous : Snapshot.EMPTY);
+                }
+                generator.writeEndObject();
+
+                log.info("Read metadata of {} tables of {} in {} ms, {} tables changed", tables.size(),
+                        config.name(), System.currentTimeMillis() - start, changed.size());
+                return new HarvestSummary(tables.size(), changed.size());
+            } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+            }
+        }
+    }
+
+    /**
+     * Oracle records when the definition of a table last changed, other databases are fingerprinted by their columns
+     * only.
+     */
+    private static Map<String, String> readLastDdlTimes(Connection conn, DatabaseMetaData dbMetaData,
+                                                        String schemaPattern) throws SQLException {
+        if (!dbMetaData.getDatabaseProductName().toLowerCase(Locale.ROOT).contains("oracle")) {
+            return Map.of();
+        }
+        String sql = "SELECT OWNER, OBJECT_NAME, TO_CHAR(LAST_DDL_TIME, 'YYYY-MM-DD HH24:MI:SS') FROM ALL_OBJECTS "
+                + "WHERE OBJECT_TYPE = 'TABLE'" + (schemaPattern != null ? " AND OWNER LIKE ?" : "");
+        Map<String, String> lastDdlTimes = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            if (schemaPattern != null) {
+                stmt.setString(1, schemaPattern);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lastDdlTimes.put(rs.getString(1) + "." + rs.getString(2), rs.getString(3));
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Unable to read LAST_DDL_TIME, tables are fingerprinted by their columns only", e);
+            return Map.of();
+        }
+        return lastDdlTimes;
+    }
+
+    private static List<TableName> readTables(DatabaseMetaData dbMetaData, String schemaPattern)
+            throws SQLException {
+        List<TableName> tables = new ArrayList<>();
+        try (ResultSet rs = dbMetaData.getTables(null, schemaPattern, "%", TABLE_TYPES)) {
+            while (rs.next()) {
+                tables.add(new TableName(rs.getString("TABLE_CAT"), rs.getString("TABLE_SCHEM"),
+                        rs.getString("TABLE_NAME")));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Writes the columns of every table from one sweep and returns the fingerprints of the tables. Drivers return the
+     * sweep ordered by table, so the columns of a table are written as they are read.
+     */
+    private static Map<TableName, String> writeTables(JsonGenerator generator, DatabaseMetaData dbMetaData,
+                                                      String schemaPattern, List<TableName> tables,
+                                                      Map<TableName, String> fieldNames,
+                                                      Map<String, String> lastDdlTimes)
+            throws SQLException, IOException {
+        Set<TableName> remaining = new LinkedHashSet<>(tables);
+        Map<TableName, String> fingerprints = new HashMap<>();
+        generator.writeObjectFieldStart("tables");
+        try (ResultSet rs = dbMetaData.getColumns(null, schemaPattern, "%", "%")) {
+            TableName current = null;
+            MessageDigest digest = null;
+            while (rs.next()) {
+                var table = new TableName(rs.getString("TABLE_CAT"), rs.getString("TABLE_SCHEM"),
+                        rs.getString("TABLE_NAME"));
+                if (!table.equals(current)) {
+                    if (current != null) {
+                        generator.writeEndArray();
+                        fingerprints.put(current, fingerprint(digest, current, lastDdlTimes));
+                        current = null;
+                    }
+                    // views, and tables seen before if a driver does not order the sweep
+                    if (!remaining.remove(table)) {
+                        continue;
+                    }
+                    generator.writeArrayFieldStart(fieldNames.get(table));
+                    current = table;
+                    digest = newDigest();
+                }
+                String name = rs.getString("COLUMN_NAME");
+                String type = rs.getString("TYPE_NAME");
+                int size = rs.getInt("COLUMN_SIZE");
+                boolean nullable = rs.getBoolean("NULLABLE");
+                generator.writeStartObject();
+                generator.writeStringField("name", name);
+                generator.writeStringField("type", type);
+                generator.writeNumberField("size", size);
+                generator.writeBooleanField("nullable", nullable);
+                generator.writeEndObject();
+                digest.update((name + "\0" + type + "\0" + size + "\0" + nullable + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            if (current != null) {
+                generator.writeEndArray();
+                fingerprints.put(current, fingerprint(digest, current, lastDdlTimes));
+            }
+        }
+        for (TableName table : remaining) {
+            generator.writeArrayFieldStart(fieldNames.get(table));
+            generator.writeEndArray();
+            fingerprints.put(table, fingerprint(newDigest(), table, lastDdlTimes));
+        }
+        generator.writeEndObject();
+        return fingerprints;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String fingerprint(MessageDigest digest, TableName table, Map<String, String> lastDdlTimes) {
+        String lastDdlTime = lastDdlTimes.get(table.schema() + "." + table.name());
+        if (lastDdlTime != null) {
+            digest.update(lastDdlTime.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 8);
+    }
+
+    private static void writeFingerprints(JsonGenerator generator, Map<TableName, String> fieldNames,
+                                          Map<TableName, String> fingerprints) throws IOException {
+        generator.writeObjectFieldStart("fingerprints");
+        for (var entry : sortedByFieldName(fieldNames).entrySet()) {
+            generator.writeStringField(entry.getKey(), fingerprints.get(entry.getValue()));
+        }
+        generator.writeEndObject();
+    }
+
+    private static Map<String, TableName> sortedByFieldName(Map<TableName, String> fieldNames) {
+        Map<String, TableName> sorted = new TreeMap<>();
+        fieldNames.forEach((table, fieldName) -> sorted.put(fieldName, table));
+        return sorted;
+    }
+
+    /**
+     * Tables are written by name, tables with the same name in several schemas by their qualified name.
+     */
+    private static Map<TableName, String> fieldNames(List<TableName> tables) {
+        Map<String, Integer> counts = new HashMap<>();
+        tables.forEach(table -> counts.merge(table.name(), 1, Integer::sum));
+        Map<TableName, String> fieldNames = new HashMap<>();
+        Set<String> used = new HashSet<>();
+        for (TableName table : tables) {
+            String fieldName = counts.get(table.name()) == 1 || table.schema() == null ? table.name()
+                    : table.schema() + "." + table.name();
+            for (int i = 2; !used.add(fieldName); i++) {
+                fieldName = table.name() + "#" + i;
+            }
+            fieldNames.put(table, fieldName);
+        }
+        return fieldNames;
+    }
+
+    private static List<CompletableFuture<Map<TableName, TableKeys>>> readKeysInParallel(
+            DataSource dataSource, List<TableName> tables, int workers, ExecutorService executor) {
+        List<CompletableFuture<Map<TableName, TableKeys>>> futures = new ArrayList<>();
+        int sliceSize = (tables.size() + workers - 1) / workers;
+        for (int from = 0; from < tables.size(); from += sliceSize) {
+            List<TableName> slice = tables.subList(from, Math.min(tables.size(), from + sliceSize));
+            futures.add(CompletableFuture.supplyAsync(() -> readKeys(dataSource, slice), executor));
+        }
+        return futures;
+    }
+
+    private static Map<TableName, TableKeys> readKeys(DataSource dataSource, List<TableName> tables) {
+        try (Connection conn = dataSource.getConnection()) {
+            return readKeys(conn.getMetaData(), tables);
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Map<TableName, TableKeys> readKeys(DatabaseMetaData dbMetaData, List<TableName> tables)
+            throws SQLException {
+        Map<TableName, TableKeys> keys = new HashMap<>();
+        for (TableName table : tables) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            keys.put(table, new TableKeys(readPrimaryKey(dbMetaData, table), readForeignKeys(dbMetaData, table),
+                    readIndexes(dbMetaData, table)));
+        }
+        return keys;
+    }
+
+    private static Map<TableName, TableKeys> joinKeys(List<CompletableFuture<Map<TableName, TableKeys>>> futures)
+            throws SQLException {
+        Map<TableName, TableKeys> keys = new HashMap<>();
+        try {
+            futures.forEach(future -> keys.putAll(future.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw e;
+        }
+        return keys;
+    }
+
+    private static List<String> readPrimaryKey(DatabaseMetaData dbMetaData, TableName table) throws SQLException {
+        Map<Integer, String> columns = new TreeMap<>();
+        try (ResultSet rs = dbMetaData.getPrimaryKeys(table.catalog(), table.schema(), table.name())) {
+            while (rs.next()) {
+                columns.put(rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+            }
+        }
+        return List.copyOf(columns.values());
+    }
+
+    private static List<ForeignKey> readForeignKeys(DatabaseMetaData dbMetaData, TableName table)
+            throws SQLException {
+        Map<String, ForeignKey> foreignKeys = new TreeMap<>();
+        try (ResultSet rs = dbMetaData.getImportedKeys(table.catalog(), table.schema(), table.name())) {
+            while (rs.next()) {
+                String referencedTable = rs.getString("PKTABLE_NAME");
+                String name = rs.getString("FK_NAME");
+                var foreignKey = foreignKeys.computeIfAbsent(name != null ? name : referencedTable,
+                        key -> new ForeignKey(key, new ArrayList<>(), referencedTable, new ArrayList<>()));
+                foreignKey.columns().add(rs.getString("FKCOLUMN_NAME"));
+                foreignKey.referencedColumns().add(rs.getString("PKCOLUMN_NAME"));
+            }
+        }
+        return List.copyOf(foreignKeys.values());
+    }
+
+    private static List<Index> readIndexes(DatabaseMetaData dbMetaData, TableName table) throws SQLException {
+        Map<String, Index> indexes = new TreeMap<>();
+        try (ResultSet rs = dbMetaData.getIndexInfo(table.catalog(), table.schema(), table.name(), false, true)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                // table statistics are reported as an index without a name
+                if (name == null) {
+                    continue;
+                }
+                boolean unique = !rs.getBoolean("NON_UNIQUE");
+                indexes.computeIfAbsent(name, key -> new Index(key, unique, new ArrayList<>()))
+                        .columns().add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        return List.copyOf(indexes.values());
+    }
+
+    /**
+     * Writes the keys of every table in the order of their names, the keys of tables that were not read again are
+     * copied from the previous snapshot.
+     */
+    private static void writeKeys(JsonGenerator generator, Map<TableName, String> fieldNames,
+                                  Map<TableName, TableKeys> keys, Snapshot previous) throws IOException {
+        Map<String, TableName> tables = sortedByFieldName(fieldNames);
+        generator.writeObjectFieldStart("primary_keys");
+        for (var table : tables.entrySet()) {
+            var tableKeys = keys.get(table.getValue());
+            if (tableKeys == null) {
+                copyPrevious(generator, table.getKey(), previous.primaryKeys());
+            } else if (!tableKeys.primaryKey().isEmpty()) {
+                writeStrings(generator, table.getKey(), tableKeys.primaryKey());
+            }
+        }
+        generator.writeEndObject();
+
+        generator.writeObjectFieldStart("foreign_keys");
+        for (var table : tables.entrySet()) {
+            var tableKeys = keys.get(table.getValue());
+            if (tableKeys == null) {
+                copyPrevious(generator, table.getKey(), previous.foreignKeys());
+                continue;
+            }
+            if (tableKeys.foreignKeys().isEmpty()) {
+                continue;
+            }
+            generator.writeArrayFieldStart(table.getKey());
+            for (ForeignKey foreignKey : tableKeys.foreignKeys()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", foreignKey.name());
+                writeStrings(generator, "columns", foreignKey.columns());
+                generator.writeStringField("references_table", foreignKey.referencedTable());
+                writeStrings(generator, "references_columns", foreignKey.referencedColumns());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+
+        generator.writeObjectFieldStart("indexes");
+        for (var table : tables.entrySet()) {
+            var tableKeys = keys.get(table.getValue());
+            if (tableKeys == null) {
+                copyPrevious(generator, table.getKey(), previous.indexes());
+                continue;
+            }
+            if (tableKeys.indexes().isEmpty()) {
+                continue;
+            }
+            generator.writeArrayFieldStart(table.getKey());
+            for (Index index : tableKeys.indexes()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", index.name());
+                generator.writeBooleanField("unique", index.unique());
+                writeStrings(generator, "columns", index.columns());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private static void copyPrevious(JsonGenerator generator, String fieldName, Map<String, JsonNode> previous)
+            throws IOException {
+        JsonNode node = previous.get(fieldName);
+        if (node != null) {
+            generator.writeFieldName(fieldName);
+            generator.writeTree(node);
+        }
+    }
+
+    private static void writeStrings(JsonGenerator generator, String fieldName, List<String> values)
+            throws IOException {
+        generator.writeArrayFieldStart(fieldName);
+        for (String value : values) {
+            generator.writeString(value);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * @param changedTables the number of tables whose fingerprint differs from the previous snapshot, all tables if
+     *                      there is none
+     */
+    public record HarvestSummary(int tables, int changedTables) {
+    }
+
+    private record TableName(String catalog, String schema, String name) {
+    }
+
+    /**
+     * The parts of a previous snapshot an incremental harvest reuses, keys by table name. Its columns are skipped
+     * while it is read.
+     */
+    record Snapshot(Map<String, String> fingerprints, boolean keysIncluded, Map<String, JsonNode> primaryKeys,
+                    Map<String, JsonNode> foreignKeys, Map<String, JsonNode> indexes) {
+
+        static final Snapshot EMPTY = new Snapshot(Map.of(), false, Map.of(), Map.of(), Map.of());
+
+        static Snapshot read(Path file) {
+            if (!Files.exists(file)) {
+                return EMPTY;
+            }
+            Map<String, String> fingerprints = new HashMap<>();
+            Map<String, Map<String, JsonNode>> keySections = new HashMap<>();
+            try (JsonParser parser = YAML_MAPPER.getFactory().createParser(file.toFile())) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return EMPTY;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String section = parser.currentName();
+                    parser.nextToken();
+                    switch (section) {
+                        case "fingerprints" -> {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String table = parser.currentName();
+                                fingerprints.put(table, parser.nextTextValue());
+                            }
+                        }
+                        case "primary_keys", "foreign_keys", "indexes" -> {
+                            Map<String, JsonNode> tables = new HashMap<>();
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String table = parser.currentName();
+                                parser.nextToken();
+                                tables.put(table, YAML_MAPPER.readTree(parser));
+                            }
+                            keySections.put(section, tables);
+                        }
+                        default -> parser.skipChildren();
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Unable to read previous snapshot {}, harvesting every table", file, e);
+                return EMPTY;
+            }
+            return new Snapshot(fingerprints, keySections.size() == 3,
+                    keySections.getOrDefault("primary_keys", Map.of()),
+                    keySections.getOrDefault("foreign_keys", Map.of()),
+                    keySections.getOrDefault("indexes", Map.of()));
+        }
+    }
+
+    private record TableKeys(List<String> primaryKey, List<ForeignKey> foreignKeys, List<Index> indexes) {
+    }
+
+    private record ForeignKey(String name, List<String> columns, String referencedTable,
+                              List<String> referencedColumns) {
+    }
+
+    private record Index(String name, boolean unique, List<String> columns) {
+    }
+}
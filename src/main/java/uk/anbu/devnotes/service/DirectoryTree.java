@@ -0,0 +1,211 @@
+package uk.anbu.devnotes.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The entries of the directories under the docs directory with their size and modification time, directories first
+ * and then by name. The {@code .output} files of code blocks are left out.
+ * <p>
+ * A directory is listed the first time it is asked for and kept. Changes reported by {@link DocsWatcher} update the
+ * entries they concern, so a listing is not read again as long as the watcher covers the whole docs directory.
+ * Otherwise a listing is read again when the modification time of its directory has changed, which does not catch a
+ * file that changed size. Hidden directories, which the watcher leaves out, are read on every request.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DirectoryTree {
+
+    private static final Comparator<Entry> ORDER = Comparator.comparing((Entry entry) -> !entry.directory())
+            .thenComparing(Entry::name);
+
+    public record Entry(String name, boolean directory, long size, long lastModified) {
+    }
+
+    /**
+     * @param path  the directory relative to the docs directory
+     * @param total the number of entries of the directory, of which {@code entries} start at {@code offset}
+     */
+    public record Listing(String path, List<Entry> entries, int offset, int total) {
+    }
+
+    private final ConfigService configService;
+    private final DocsWatcher docsWatcher;
+    private final Map<Path, CachedDirectory> directories = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * All entries of a directory.
+     *
+     * @throws IllegalArgumentException if the directory is outside the docs directory
+     */
+    public List<Entry> entries(String directoryName) throws IOException {
+        return directory(resolve(directoryName)).entries();
+    }
+
+    /**
+     * Up to {@code limit} entries of a directory starting at {@code offset}.
+     */
+    public Listing list(String directoryName, int offset, int limit) throws IOException {
+        Path directory = resolve(directoryName);
+        List<Entry> entries = directory(directory).entries();
+        int from = Math.min(Math.max(0, offset), entries.size());
+        int to = Math.min(entries.size(), from + Math.max(0, limit));
+        String path = root().relativize(directory).toString().replace('\\', '/');
+        return new Listing(path.isEmpty() ? "." : path, entries.subList(from, to), from, entries.size());
+    }
+
+    @EventListener
+    public void onDocsChanged(DocsChangedEvent event) {
+        if (event.overflow()) {
+            generation.incrementAndGet();
+            directories.clear();
+            return;
+        }
+        refresh(event.paths());
+    }
+
+    /**
+     * Updates the entries of changed files without waiting for the watcher, e.g. after a file was uploaded.
+     */
+    public void refresh(Collection<Path> paths) {
+        generation.incrementAndGet();
+        Map<Path, List<Path>> changesByDirectory = new HashMap<>();
+        for (Path path : paths) {
+            path = path.toAbsolutePath().normalize();
+            if (path.getParent() != null) {
+                changesByDirectory.computeIfAbsent(path.getParent(), directory -> new ArrayList<>()).add(path);
+            }
+            if (!Files.isDirectory(path)) {
+                // a deleted or replaced directory takes the listings below it along
+                Path removed = path;
+                directories.keySet().removeIf(directory -> directory.startsWith(removed));
+            }
+        }
+        changesByDirectory.forEach(this::update);
+    }
+
+    private void update(Path directory, List<Path> changes) {
+        CachedDirectory cached = directories.get(directory);
+        if (cached == null) {
+            return;
+        }
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        cached.entries().forEach(entry -> entries.put(entry.name(), entry));
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(directory).toMillis();
+            for (Path path : changes) {
+                String name = path.getFileName().toString();
+                Entry entry = entry(path);
+                if (entry == null) {
+                    entries.remove(name);
+                } else {
+                    entries.put(name, entry);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Unable to update the listing of {}", directory, e);
+            directories.remove(directory);
+            return;
+        }
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(ORDER);
+        if (!directories.replace(directory, cached, new CachedDirectory(List.copyOf(sorted), lastModified))) {
+            // changed again at the same time, it is read again when next asked for
+            directories.remove(directory);
+        }
+    }
+
+    private CachedDirectory directory(Path directory) throws IOException {
+        CachedDirectory cached = directories.get(directory);
+        if (cached != null && (docsWatcher.isWatchingAll()
+                || cached.lastModified() == Files.getLastModifiedTime(directory).toMillis())) {
+            return cached;
+        }
+        long generationBeforeRead = generation.get();
+        CachedDirectory read = read(directory);
+        if (!isHiddenBelowRoot(directory)) {
+            // a change reported while the directory was read may be missing from it, it is not kept then
+            directories.compute(directory, (key, current) -> generation.get() == generationBeforeRead ? read : null);
+        }
+        return read;
+    }
+
+    private static CachedDirectory read(Path directory) throws IOException {
+        long lastModified = Files.getLastModifiedTime(directory).toMillis();
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                Entry entry = entry(path);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        entries.sort(ORDER);
+        return new CachedDirectory(List.copyOf(entries), lastModified);
+    }
+
+    /**
+     * The entry of a file, null if it does not exist or is an output file.
+     */
+    private static Entry entry(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        if (name.endsWith(".output")) {
+            return null;
+        }
+        try {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Entry(name, attributes.isDirectory(), attributes.isDirectory() ? 0 : attributes.size(),
+                    attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private Path resolve(String directoryName) {
+        Path root = root();
+        Path directory = root.resolve(directoryName.replaceFirst("^/+", "")).normalize();
+        if (!directory.startsWith(root)) {
+            throw new IllegalArgumentException("Not in the docs directory: " + directoryName);
+        }
+        return directory;
+    }
+
+    private Path root() {
+        return Paths.get(configService.getDocsDirectory()).toAbsolutePath().normalize();
+    }
+
+    private boolean isHiddenBelowRoot(Path directory) {
+        for (Path name : root().relativize(directory)) {
+            if (name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record CachedDirectory(List<Entry> entries, long lastModified) {
+    }
+}
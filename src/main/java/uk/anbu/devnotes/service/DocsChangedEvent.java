@@ -0,0 +1,16 @@
+package uk.anbu.devnotes.service;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Files and directories under the docs directory that were created, modified or deleted, as absolute normalized
+ * paths, published by {@link DocsWatcher}. After an overflow of the watch service the changes are not known and
+ * anything may have changed.
+ */
+public record DocsChangedEvent(Set<Path> paths, boolean overflow) {
+
+    public boolean affects(Path path) {
+        return overflow || paths.contains(path.toAbsolutePath().normalize());
+    }
+}
@@ -0,0 +1,279 @@
+package uk.anbu.devnotes.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the docs directory and publishes a {@link DocsChangedEvent} with the files that changed.
+ * <p>
+ * Directories are registered with a {@link WatchService} when the watcher starts and as they are created, hidden
+ * directories such as {@code .git} are left out. Changes that follow each other within
+ * {@code devnotes.watch.coalesceMillis}, like the files of a {@code git pull}, are published as one event. A
+ * directory that cannot be registered, for example once the inotify watch limit is reached, is polled every
+ * {@code devnotes.watch.pollSeconds} instead.
+ */
+@Service
+@Slf4j
+public class DocsWatcher {
+
+    private static final long MAX_COALESCE_MILLIS = 1000;
+
+    private final ConfigService configService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean useWatchService;
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Map<Path, Map<Path, FileTime>> polledDirectories = new ConcurrentHashMap<>();
+    private Path root;
+    private WatchService watchService;
+    private Thread watchThread;
+    private volatile boolean running;
+
+    @Autowired
+    public DocsWatcher(ConfigService configService, ApplicationEventPublisher eventPublisher) {
+        this(configService, eventPublisher, true);
+    }
+
+    DocsWatcher(ConfigService configService, ApplicationEventPublisher eventPublisher, boolean useWatchService) {
+        this.configService = configService;
+        this.eventPublisher = eventPublisher;
+        this.useWatchService = useWatchService;
+    }
+
+    @PostConstruct
+    public void start() {
+        root = Paths.get(configService.getDocsDirectory()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            log.warn("Docs directory {} does not exist, changes are not watched", root);
+            return;
+        }
+        if (useWatchService) {
+            try {
+                watchService = root.getFileSystem().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                log.warn("Unable to watch {}, polling it instead", root, e);
+            }
+        }
+        register(root, null);
+        running = true;
+        watchThread = new Thread(this::watch, "docs-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("Watching {} directories under {}, polling {}", watchedDirectories.size(), root,
+                polledDirectories.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("Unable to close the watch service", e);
+            }
+        }
+    }
+
+    /**
+     * Whether a change anywhere in the docs directory is published within the coalesce delay. While some
+     * directories are polled, or nothing is watched at all, caches have to check their files themselves.
+     */
+    public boolean isWatchingAll() {
+        return running && watchService != null && polledDirectories.isEmpty();
+    }
+
+    private void watch() {
+        long pollMillis = TimeUnit.SECONDS.toMillis(Math.max(1, configService.getWatchPollSeconds()));
+        long nextPoll = System.currentTimeMillis() + pollMillis;
+        while (running) {
+            var changes = new Changes();
+            try {
+                long wait = Math.max(1, nextPoll - System.currentTimeMillis());
+                if (watchService != null) {
+                    WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                    long coalesceUntil = System.currentTimeMillis() + MAX_COALESCE_MILLIS;
+                    while (key != null) {
+                        collect(key, changes);
+                        key = System.currentTimeMillis() < coalesceUntil
+                                ? watchService.poll(configService.getWatchCoalesceMillis(), TimeUnit.MILLISECONDS)
+                                : null;
+                    }
+                } else {
+                    Thread.sleep(wait);
+                }
+                if (System.currentTimeMillis() >= nextPoll) {
+                    poll(changes);
+                    nextPoll = System.currentTimeMillis() + pollMillis;
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (!changes.paths.isEmpty() || changes.overflow) {
+                publish(new DocsChangedEvent(Set.copyOf(changes.paths), changes.overflow));
+            }
+        }
+    }
+
+    private void publish(DocsChangedEvent event) {
+        log.debug("{} files changed, overflow {}", event.paths().size(), event.overflow());
+        try {
+            eventPublisher.publishEvent(event);
+        } catch (RuntimeException e) {
+            log.error("Error handling changes of {}", event.paths(), e);
+        }
+    }
+
+    private void collect(WatchKey key, Changes changes) {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changes.overflow = true;
+            } else if (directory != null) {
+                Path path = directory.resolve((Path) event.context());
+                changes.paths.add(path);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                        && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    // files created before the directory was registered are reported here
+                    register(path, changes.paths);
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    /**
+     * Watches a directory and the directories below it, adding the files found to {@code found} unless it is null.
+     */
+    private void register(Path start, Set<Path> found) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    if (!directory.equals(root) && isHidden(directory)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    watchOrPoll(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (found != null) {
+                        found.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    log.debug("Unable to visit {}", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to watch {}", start, e);
+        }
+    }
+
+    private void watchOrPoll(Path directory) {
+        if (watchService != null) {
+            try {
+                watchedDirectories.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), directory);
+                return;
+            } catch (IOException e) {
+                if (polledDirectories.isEmpty()) {
+                    log.warn("Unable to watch {}, polling it and any other directory that cannot be watched: {}",
+                            directory, e.getMessage());
+                }
+            }
+        }
+        polledDirectories.put(directory, listModificationTimes(directory));
+    }
+
+    private void poll(Changes changes) {
+        for (Path directory : List.copyOf(polledDirectories.keySet())) {
+            Map<Path, FileTime> previous = polledDirectories.get(directory);
+            if (!Files.isDirectory(directory)) {
+                polledDirectories.remove(directory);
+                changes.paths.add(directory);
+                changes.paths.addAll(previous.keySet());
+                continue;
+            }
+            Map<Path, FileTime> current = listModificationTimes(directory);
+            polledDirectories.put(directory, current);
+            for (var entry : current.entrySet()) {
+                Path path = entry.getKey();
+                if (!entry.getValue().equals(previous.get(path))) {
+                    changes.paths.add(path);
+                    if (!previous.containsKey(path) && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)
+                            && !isHidden(path)) {
+                        register(path, changes.paths);
+                    }
+                }
+            }
+            for (Path path : previous.keySet()) {
+                if (!current.containsKey(path)) {
+                    changes.paths.add(path);
+                }
+            }
+        }
+    }
+
+    private static Map<Path, FileTime> listModificationTimes(Path directory) {
+        Map<Path, FileTime> modificationTimes = new HashMap<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                try {
+                    modificationTimes.put(path, Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS));
+                } catch (IOException e) {
+                    log.debug("Unable to read the modification time of {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to list {}", directory, e);
+        }
+        return modificationTimes;
+    }
+
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    private static final class Changes {
+        private final Set<Path> paths = new HashSet<>();
+        private boolean overflow;
+    }
+}
@@ -0,0 +1,450 @@
+package uk.anbu.devnotes.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import uk.anbu.devnotes.module.MarkdownRenderer;
+import uk.anbu.devnotes.module.MarkdownRenderer.PageLink;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The links between the files of the docs directory: the links and images of every markdown page, the pages linking
+ * to each file, links to files that do not exist and pages that nothing links to.
+ * <p>
+ * Links are read with {@link MarkdownRenderer#links}, which parses a page without running its code blocks. The graph
+ * is saved under the cache directory with the size and modification time of every page, so on start only the pages
+ * changed since then are read again. Changes reported by {@link DocsWatcher} are applied on one thread and a page
+ * that is rendered updates its links straight away.
+ */
+@Service
+@Slf4j
+public class LinkGraph {
+
+    private static final int MAGIC = 0x444E4C47;
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    /**
+     * @param source the page the link is on
+     */
+    public record BrokenLink(String source, String destination, boolean image) {
+    }
+
+    private final ConfigService configService;
+    private final CoalescingUpdater updater;
+    private final Map<String, Page> pages = new HashMap<>();
+    private final Map<String, Set<String>> backlinks = new HashMap<>();
+    private final Set<String> files = new HashSet<>();
+    private final Set<String> directories = new HashSet<>();
+    private Path root;
+    private boolean loaded;
+    private boolean changed;
+
+    @Autowired
+    public LinkGraph(ConfigService configService) {
+        this.configService = configService;
+        this.updater = new CoalescingUpdater("link-graph-", this::applyChanges);
+    }
+
+    @PostConstruct
+    public void start() {
+        updater.execute(this::load);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updater.shutdown();
+        save();
+    }
+
+    @EventListener
+    public void onDocsChanged(DocsChangedEvent event) {
+        if (event.overflow()) {
+            updater.execute(this::load);
+            return;
+        }
+        updater.changed(event.paths());
+    }
+
+    @Scheduled(fixedDelay = 1000 * 60)
+    public void saveChanges() {
+        save();
+    }
+
+    /**
+     * The links and images of a page in document order.
+     */
+    public synchronized List<PageLink> outgoing(String page) {
+        Page entry = pages.get(key(page));
+        return entry == null ? List.of() : entry.links();
+    }
+
+    /**
+     * The pages linking to a file or directory, in alphabetical order.
+     */
+    public synchronized List<String> backlinks(String file) {
+        String key = key(file);
+        Set<String> sources = backlinks.get(key);
+        return sources == null ? List.of() : sources.stream().filter(source -> !source.equals(key)).toList();
+    }
+
+    /**
+     * The links to files that do not exist, or are outside the docs directory, by page.
+     */
+    public synchronized List<BrokenLink> brokenLinks() {
+        List<BrokenLink> broken = new ArrayList<>();
+        pages.forEach((source, page) -> {
+            for (PageLink link : page.links()) {
+                if (link.target() == null || !files.contains(link.target())) {
+                    broken.add(new BrokenLink(source, link.destination(), link.image()));
+                }
+            }
+        });
+        // a page keeps its links in document order
+        broken.sort(Comparator.comparing(BrokenLink::source));
+        return broken;
+    }
+
+    /**
+     * Pages no other page links to. Pages named {@code index.md} are where reading starts and are left out.
+     */
+    public synchronized List<String> orphans() {
+        return pages.keySet().stream()
+                .filter(page -> !page.equals("index.md") && !page.endsWith("/index.md"))
+                .filter(page -> backlinks(page).isEmpty())
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * Records the links of a page that was just rendered, before the change of its file is reported.
+     */
+    public synchronized void pageRendered(String page, List<PageLink> links) {
+        if (!loaded) {
+            return;
+        }
+        String key = key(page);
+        try {
+            var attributes = Files.readAttributes(root.resolve(key), BasicFileAttributes.class);
+            addWithParents(key, false);
+            setPage(key, new Page(attributes.size(), attributes.lastModifiedTime().toMillis(), List.copyOf(links)));
+        } catch (IOException e) {
+            log.debug("Unable to read the attributes of {}", key, e);
+        }
+    }
+
+    /**
+     * Reads the saved graph and the pages changed since it was saved.
+     */
+    void load() {
+        Path docsDirectory = Paths.get(configService.getDocsDirectory()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(docsDirectory)) {
+            log.warn("Docs directory {} does not exist, no links to follow", docsDirectory);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Page> saved = read(graphFile(), docsDirectory);
+        Map<String, Page> current = new HashMap<>();
+        Set<String> foundFiles = new HashSet<>();
+        Set<String> foundDirectories = new HashSet<>();
+        int[] read = new int[1];
+        try {
+            Files.walkFileTree(docsDirectory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    if (!directory.equals(docsDirectory) && isHidden(directory)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    String key = key(docsDirectory, directory);
+                    foundFiles.add(key);
+                    foundDirectories.add(key);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    String key = key(docsDirectory, file);
+                    foundFiles.add(key);
+                    if (attributes.isRegularFile() && key.endsWith(".md")) {
+                        Page page = saved.get(key);
+                        if (page == null || !page.hasStamp(attributes)) {
+                            page = readPage(file, key, attributes);
+                            read[0]++;
+                        }
+                        current.put(key, page);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    log.debug("Unable to visit {}", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Unable to read the links under {}", docsDirectory, e);
+            return;
+        }
+        synchronized (this) {
+            root = docsDirectory;
+            files.clear();
+            files.addAll(foundFiles);
+            directories.clear();
+            directories.addAll(foundDirectories);
+            pages.clear();
+            backlinks.clear();
+            current.forEach(this::setPage);
+            changed = read[0] > 0 || saved.size() != current.size();
+            loaded = true;
+        }
+        save();
+        log.info("Loaded the links of {} pages under {} in {} ms, {} pages read again", current.size(), docsDirectory,
+                System.currentTimeMillis() - start, read[0]);
+    }
+
+    synchronized void applyChanges(Collection<Path> paths) {
+        if (!loaded) {
+            return;
+        }
+        for (Path path : paths) {
+            path = path.toAbsolutePath().normalize();
+            if (!path.startsWith(root) || path.equals(root) || isHiddenBelowRoot(path)) {
+                continue;
+            }
+            String key = key(root, path);
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                remove(key);
+                continue;
+            }
+            addWithParents(key, attributes.isDirectory());
+            if (attributes.isRegularFile() && key.endsWith(".md")) {
+                Page page = pages.get(key);
+                if (page == null || !page.hasStamp(attributes)) {
+                    setPage(key, readPage(path, key, attributes));
+                }
+            }
+        }
+    }
+
+    private void addWithParents(String key, boolean directory) {
+        files.add(key);
+        if (directory) {
+            directories.add(key);
+        }
+        for (int slash = key.lastIndexOf('/'); slash > 0; slash = key.lastIndexOf('/', slash - 1)) {
+            files.add(key.substring(0, slash));
+            directories.add(key.substring(0, slash));
+        }
+    }
+
+    private void remove(String key) {
+        files.remove(key);
+        if (pages.containsKey(key)) {
+            setPage(key, null);
+        }
+        if (directories.remove(key)) {
+            String prefix = key + "/";
+            files.removeIf(file -> file.startsWith(prefix));
+            directories.removeIf(directory -> directory.startsWith(prefix));
+            pages.keySet().stream().filter(page -> page.startsWith(prefix)).toList()
+                    .forEach(page -> setPage(page, null));
+        }
+    }
+
+    /**
+     * Replaces the links of a page, null removes the page.
+     */
+    private void setPage(String key, Page page) {
+        Page previous = page == null ? pages.remove(key) : pages.put(key, page);
+        if (previous != null) {
+            for (PageLink link : previous.links()) {
+                Set<String> sources = link.target() == null ? null : backlinks.get(link.target());
+                if (sources != null && sources.remove(key) && sources.isEmpty()) {
+                    backlinks.remove(link.target());
+                }
+            }
+        }
+        if (page != null) {
+            for (PageLink link : page.links()) {
+                if (link.target() != null) {
+                    backlinks.computeIfAbsent(link.target(), target -> new TreeSet<>()).add(key);
+                }
+            }
+        }
+        changed = true;
+    }
+
+    private static Page readPage(Path file, String key, BasicFileAttributes attributes) {
+        List<PageLink> links;
+        try {
+            links = MarkdownRenderer.links(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), key);
+        } catch (IOException e) {
+            log.debug("Unable to read the links of {}", file, e);
+            links = List.of();
+        }
+        return new Page(attributes.size(), attributes.lastModifiedTime().toMillis(), List.copyOf(links));
+    }
+
+    private String key(String file) {
+        if (root == null) {
+            return file;
+        }
+        try {
+            Path path = root.resolve(file.replaceFirst("^/+", "")).normalize();
+            return path.startsWith(root) ? key(root, path) : file;
+        } catch (InvalidPathException e) {
+            return file;
+        }
+    }
+
+    private static String key(Path root, Path path) {
+        String key = root.relativize(path).toString().replace(File.separatorChar, '/');
+        return key.isEmpty() ? "." : key;
+    }
+
+    private boolean isHiddenBelowRoot(Path path) {
+        for (Path name : root.relativize(path)) {
+            if (isHidden(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    private Path graphFile() {
+        return Paths.get(configService.getCacheDirectory(), "links", "graph.bin");
+    }
+
+    /**
+     * Writes the graph if it changed since it was last written. Layout, strings are an int byte length (-1 for
+     * null) followed by utf-8 bytes:
+     * <pre>
+     * int    magic "DNLG"
+     * string docs directory
+     * int    page count
+     * per page: string path, long size, long last modified, int link count,
+     *           per link: string destination, string target, byte image
+     * </pre>
+     */
+    synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        Path file = graphFile();
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempPath = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                out.writeInt(MAGIC);
+                writeString(out, root.toString());
+                out.writeInt(pages.size());
+                for (var entry : pages.entrySet()) {
+                    Page page = entry.getValue();
+                    writeString(out, entry.getKey());
+                    out.writeLong(page.size());
+                    out.writeLong(page.lastModified());
+                    out.writeInt(page.links().size());
+                    for (PageLink link : page.links()) {
+                        writeString(out, link.destination());
+                        writeString(out, link.target());
+                        out.writeBoolean(link.image());
+                    }
+                }
+            }
+            Files.move(tempPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        } catch (IOException e) {
+            log.warn("Unable to save the link graph to {}", file, e);
+        }
+    }
+
+    /**
+     * The saved pages, none if the graph was saved for another docs directory or cannot be read.
+     */
+    private static Map<String, Page> read(Path file, Path docsDirectory) {
+        Map<String, Page> saved = new HashMap<>();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || !docsDirectory.toString().equals(readString(in))) {
+                return saved;
+            }
+            for (int pageCount = in.readInt(); pageCount > 0; pageCount--) {
+                String path = readString(in);
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                List<PageLink> links = new ArrayList<>();
+                for (int linkCount = in.readInt(); linkCount > 0; linkCount--) {
+                    links.add(new PageLink(readString(in), readString(in), in.readBoolean()));
+                }
+                saved.put(path, new Page(size, lastModified, List.copyOf(links)));
+            }
+        } catch (NoSuchFileException e) {
+            return saved;
+        } catch (IOException e) {
+            log.warn("Unable to read the saved link graph {}, reading all pages", file, e);
+            saved.clear();
+        }
+        return saved;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("String of " + length + " bytes in the link graph");
+        }
+        return length < 0 ? null : new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private record Page(long size, long lastModified, List<PageLink> links) {
+
+        boolean hasStamp(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package uk.anbu.devnotes.service;
+
+import java.nio.file.Path;
+
+/**
+ * An output file of a code block in the {@link OutputStore} that was written or deleted.
+ *
+ * @param page   the markdown file the output belongs to, relative to the docs directory, null if it no longer exists
+ * @param output the absolute normalized path of the output file
+ */
+public record OutputChangedEvent(String page, Path output) {
+
+    public boolean affects(Path path) {
+        return output.equals(path.toAbsolutePath().normalize());
+    }
+}
@@ -0,0 +1,488 @@
+package uk.anbu.devnotes.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import uk.anbu.devnotes.module.MarkdownRenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the output files of the code blocks under the cache directory instead of next to their markdown files, so
+ * they neither show up in the docs directory nor get committed with it.
+ * <p>
+ * The outputs of a page are kept in a directory named by the hash of the page path, below a shard directory named by
+ * the first two characters of that hash: {@code outputs/3f/3f0c9a0e1b2d4c5f/notes.0123456789abcdef.output}. Outputs
+ * written next to the markdown files by earlier versions are moved into the store when the store starts and as they
+ * appear.
+ * <p>
+ * The store knows which outputs the current code blocks of every page read, from parsing the pages with
+ * {@link MarkdownRenderer#outputHashes} and from the changes reported by {@link DocsWatcher}. Every hour the outputs
+ * that no code block reads are deleted once they have been neither written nor read by a code block for
+ * {@code devnotes.outputs.graceHours}, so undoing an edit within that time finds the previous output again. Pages in
+ * hidden directories are not watched, their outputs are written again when such a page is shown after a sweep.
+ */
+@Service
+@Slf4j
+public class OutputStore {
+
+    private static final Pattern OUTPUT_FILE_NAME = Pattern.compile("(.*)\\.([0-9a-f]{16})\\.output");
+
+    /**
+     * @param freedBytes   the size of the unreferenced outputs that the sweep deleted
+     * @param keptFiles    the outputs left, including the unreferenced ones still within the grace period
+     * @param pendingFiles the unreferenced outputs left because they are still within the grace period
+     */
+    public record Sweep(int deletedFiles, long freedBytes, int keptFiles, long keptBytes, int pendingFiles,
+                        long finishedAt) {
+    }
+
+    private final ConfigService configService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CoalescingUpdater updater;
+    /**
+     * The output hashes of every page by page path, guarded by this.
+     */
+    private final Map<String, Set<String>> references = new HashMap<>();
+    /**
+     * When outputs stopped being read by a code block, guarded by this.
+     */
+    private final Map<Path, Long> released = new HashMap<>();
+    private volatile boolean loaded;
+    private volatile Sweep lastSweep;
+    private Path root;
+
+    @Autowired
+    public OutputStore(ConfigService configService, ApplicationEventPublisher eventPublisher) {
+        this.configService = configService;
+        this.eventPublisher = eventPublisher;
+        this.updater = new CoalescingUpdater("output-store-", this::applyChanges);
+    }
+
+    @PostConstruct
+    public void start() {
+        updater.execute(this::load);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updater.shutdown();
+    }
+
+    @EventListener
+    public void onDocsChanged(DocsChangedEvent event) {
+        if (event.overflow()) {
+            updater.execute(this::load);
+            return;
+        }
+        updater.changed(event.paths());
+    }
+
+    /**
+     * The output file of a code block of a page, named by the hash of its code. An output that an earlier version
+     * wrote next to the markdown file is moved here first.
+     *
+     * @param markdownFileName the page, relative to the docs directory
+     */
+    public Path path(String markdownFileName, String hash) {
+        String page = page(markdownFileName);
+        Path output = directory(page).resolve(stem(page) + "." + hash + ".output");
+        if (!loaded) {
+            moveIntoStore(Paths.get(MarkdownRenderer.outputFileName(configService.getDocsDirectory(), page, hash)),
+                    output);
+        }
+        return output;
+    }
+
+    /**
+     * The output file of a page by its file name, as handed to the browser to fetch more rows of a result.
+     *
+     * @throws IllegalArgumentException if the name is not the name of an output file
+     */
+    public Path resolve(String markdownFileName, String outputFileName) {
+        Matcher matcher = OUTPUT_FILE_NAME.matcher(outputFileName);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not an output file: " + outputFileName);
+        }
+        return path(markdownFileName, matcher.group(2));
+    }
+
+    /**
+     * Whether a file is named like the output of a code block, {@code <page>.<hash>.output}.
+     */
+    public static boolean isOutput(String fileName) {
+        return OUTPUT_FILE_NAME.matcher(fileName).matches();
+    }
+
+    /**
+     * The output files of a page, without the partial outputs of queries that are running.
+     */
+    public List<Path> outputs(String markdownFileName) {
+        List<Path> outputs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory(page(markdownFileName)))) {
+            for (Path file : files) {
+                if (isOutput(file.getFileName().toString())) {
+                    outputs.add(file);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing written yet
+        } catch (IOException e) {
+            log.warn("Unable to list the outputs of {}", markdownFileName, e);
+        }
+        outputs.sort(null);
+        return outputs;
+    }
+
+    /**
+     * Tells the listeners of {@link OutputChangedEvent} that a code block wrote its output.
+     */
+    public void written(String markdownFileName, Path output) {
+        publish(new OutputChangedEvent(page(markdownFileName), output.toAbsolutePath().normalize()));
+    }
+
+    public Sweep lastSweep() {
+        return lastSweep;
+    }
+
+    @Scheduled(initialDelay = 1000 * 60 * 5, fixedDelay = 1000 * 60 * 60)
+    public void sweepUnreferenced() {
+        sweep();
+    }
+
+    /**
+     * Deletes the outputs that no code block reads and that have neither been written nor read for the grace
+     * period, and the directories left empty. Nothing is deleted until the pages have been read.
+     */
+    public Sweep sweep() {
+        if (!loaded) {
+            return lastSweep;
+        }
+        long start = System.currentTimeMillis();
+        long graceMillis = TimeUnit.HOURS.toMillis(Math.max(0, configService.getOutputsGraceHours()));
+        Map<String, Set<String>> referencedByKey = new HashMap<>();
+        Map<String, String> pagesByKey = new HashMap<>();
+        Map<Path, Long> releasedAt;
+        synchronized (this) {
+            references.forEach((page, hashes) -> {
+                String key = MarkdownRenderer.generateHash(page);
+                referencedByKey.put(key, hashes);
+                pagesByKey.put(key, page);
+            });
+            releasedAt = new HashMap<>(released);
+        }
+        long deleteBefore = start - graceMillis;
+        var counts = new SweepCounts();
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(outputsDirectory())) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> pageDirectories = Files.newDirectoryStream(shard)) {
+                    for (Path pageDirectory : pageDirectories) {
+                        String key = pageDirectory.getFileName().toString();
+                        sweepPage(pageDirectory, referencedByKey.getOrDefault(key, Set.of()), pagesByKey.get(key),
+                                releasedAt, deleteBefore, counts);
+                    }
+                }
+                deleteIfEmpty(shard);
+            }
+        } catch (NoSuchFileException e) {
+            // nothing written yet
+        } catch (IOException e) {
+            log.warn("Unable to sweep the outputs under {}", outputsDirectory(), e);
+        }
+        synchronized (this) {
+            // an output released before the grace period is as old as its modification time
+            released.values().removeIf(at -> at < deleteBefore);
+        }
+        var sweep = new Sweep(counts.deletedFiles, counts.freedBytes, counts.keptFiles, counts.keptBytes,
+                counts.pendingFiles, System.currentTimeMillis());
+        lastSweep = sweep;
+        log.info("Deleted {} unreferenced outputs in {} ms, freeing {} bytes, kept {} outputs of {} bytes, {} of them "
+                        + "unreferenced within the grace period", sweep.deletedFiles(),
+                System.currentTimeMillis() - start, sweep.freedBytes(), sweep.keptFiles(), sweep.keptBytes(),
+                sweep.pendingFiles());
+        return sweep;
+    }
+
+    private void sweepPage(Path pageDirectory, Set<String> hashes, String page, Map<Path, Long> releasedAt,
+                           long deleteBefore, SweepCounts counts) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(pageDirectory)) {
+            for (Path file : files) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                // the partial outputs of queries that were running when the application stopped are never read
+                Matcher matcher = OUTPUT_FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && hashes.contains(matcher.group(2))) {
+                    counts.keptFiles++;
+                    counts.keptBytes += attributes.size();
+                    continue;
+                }
+                long lastUsed = Math.max(attributes.lastModifiedTime().toMillis(), releasedAt.getOrDefault(file, 0L));
+                if (lastUsed >= deleteBefore) {
+                    counts.keptFiles++;
+                    counts.keptBytes += attributes.size();
+                    counts.pendingFiles++;
+                    continue;
+                }
+                if (Files.deleteIfExists(file)) {
+                    counts.deletedFiles++;
+                    counts.freedBytes += attributes.size();
+                    publish(new OutputChangedEvent(page, file.toAbsolutePath().normalize()));
+                }
+            }
+        }
+        deleteIfEmpty(pageDirectory);
+    }
+
+    private static void deleteIfEmpty(Path directory) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            if (entries.iterator().hasNext()) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            // an output was written into it at the same time
+            log.debug("Unable to delete {}", directory, e);
+        }
+    }
+
+    /**
+     * Reads the output hashes of all pages and moves the outputs written next to the pages into the store.
+     */
+    void load() {
+        Path docsDirectory = Paths.get(configService.getDocsDirectory()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(docsDirectory)) {
+            log.warn("Docs directory {} does not exist, no outputs are kept", docsDirectory);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Set<String>> found = new HashMap<>();
+        int[] moved = {0};
+        try {
+            Files.walkFileTree(docsDirectory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    return directory.equals(docsDirectory) || !isHidden(directory)
+                            ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    String name = file.getFileName().toString();
+                    if (attributes.isRegularFile() && name.endsWith(".md")) {
+                        String page = key(docsDirectory, file);
+                        found.put(page, readHashes(file));
+                    } else if (attributes.isRegularFile() && moveLegacyOutput(docsDirectory, file)) {
+                        moved[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    log.debug("Unable to visit {}", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Unable to read the code blocks under {}", docsDirectory, e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (String page : references.keySet()) {
+                if (!found.containsKey(page)) {
+                    release(page, references.get(page), now);
+                }
+            }
+            found.forEach((page, hashes) -> setReferences(page, hashes, now));
+            root = docsDirectory;
+        }
+        loaded = true;
+        log.info("Read the code blocks of {} pages under {} in {} ms, moved {} outputs into {}", found.size(),
+                docsDirectory, System.currentTimeMillis() - start, moved[0], outputsDirectory());
+    }
+
+    void applyChanges(Collection<Path> paths) {
+        Path docsDirectory;
+        synchronized (this) {
+            docsDirectory = root;
+        }
+        if (!loaded || docsDirectory == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Path path : paths) {
+            path = path.toAbsolutePath().normalize();
+            if (!path.startsWith(docsDirectory) || path.equals(docsDirectory)
+                    || isHiddenBelow(docsDirectory, path)) {
+                continue;
+            }
+            String key = key(docsDirectory, path);
+            if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (key.endsWith(".md")) {
+                    Set<String> hashes = readHashes(path);
+                    synchronized (this) {
+                        setReferences(key, hashes, now);
+                    }
+                } else {
+                    // an output written by an earlier version, e.g. pulled from another machine
+                    moveLegacyOutput(docsDirectory, path);
+                }
+            } else if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                // a deleted page, or a deleted directory taking its pages along
+                synchronized (this) {
+                    for (String page : List.copyOf(references.keySet())) {
+                        if (page.equals(key) || page.startsWith(key + "/")) {
+                            release(page, references.remove(page), now);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void setReferences(String page, Set<String> hashes, long now) {
+        Set<String> previous = references.put(page, hashes);
+        if (previous != null) {
+            Set<String> dropped = new HashSet<>(previous);
+            dropped.removeAll(hashes);
+            release(page, dropped, now);
+        }
+    }
+
+    private void release(String page, Set<String> hashes, long now) {
+        for (String hash : hashes) {
+            released.put(directory(page).resolve(stem(page) + "." + hash + ".output"), now);
+        }
+    }
+
+    private static Set<String> readHashes(Path markdownFile) {
+        try {
+            return MarkdownRenderer.outputHashes(Files.readString(markdownFile));
+        } catch (IOException e) {
+            // the outputs of a page that cannot be read are kept
+            log.warn("Unable to read the code blocks of {}", markdownFile, e);
+            return Set.of();
+        }
+    }
+
+    /**
+     * Moves an output written next to a markdown file into the store.
+     */
+    private boolean moveLegacyOutput(Path docsDirectory, Path file) {
+        Matcher matcher = OUTPUT_FILE_NAME.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            return false;
+        }
+        String page = key(docsDirectory, file.resolveSibling(matcher.group(1) + ".md"));
+        return moveIntoStore(file, directory(page).resolve(stem(page) + "." + matcher.group(2) + ".output"));
+    }
+
+    private static boolean moveIntoStore(Path legacyOutput, Path output) {
+        if (!Files.exists(legacyOutput) || Files.exists(output)) {
+            return false;
+        }
+        try {
+            Files.createDirectories(output.getParent());
+            Files.move(legacyOutput, output);
+            return true;
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            // moved by another thread at the same time
+            return false;
+        } catch (IOException e) {
+            log.warn("Unable to move {} to {}", legacyOutput, output, e);
+            return false;
+        }
+    }
+
+    private void publish(OutputChangedEvent event) {
+        try {
+            eventPublisher.publishEvent(event);
+        } catch (RuntimeException e) {
+            log.error("Error handling the change of {}", event.output(), e);
+        }
+    }
+
+    private Path directory(String page) {
+        String key = MarkdownRenderer.generateHash(page);
+        return outputsDirectory().resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private Path outputsDirectory() {
+        return Paths.get(configService.getCacheDirectory(), "outputs").toAbsolutePath().normalize();
+    }
+
+    /**
+     * The page path the outputs are kept by, {@code notes/page.md} also for {@code ./notes/page.md}.
+     */
+    private static String page(String markdownFileName) {
+        return Paths.get(markdownFileName.replace('\\', '/').replaceFirst("^/+", "")).normalize().toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    private static String stem(String page) {
+        return page.substring(page.lastIndexOf('/') + 1).replaceFirst("[.][^.]+$", "");
+    }
+
+    private static String key(Path docsDirectory, Path file) {
+        return docsDirectory.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    private static boolean isHiddenBelow(Path docsDirectory, Path path) {
+        for (Path name : docsDirectory.relativize(path)) {
+            if (isHidden(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class SweepCounts {
+        private int deletedFiles;
+        private long freedBytes;
+        private int keptFiles;
+        private long keptBytes;
+        private int pendingFiles;
+    }
+}
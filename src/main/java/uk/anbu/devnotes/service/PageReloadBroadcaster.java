@@ -0,0 +1,129 @@
+package uk.anbu.devnotes.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tells open pages over server-sent events to reload once a file they show changes. A markdown page is reloaded for
+ * its markdown file and the outputs of its code blocks, a directory listing for the entries of its directory. Only
+ * files modified after the page was rendered count, so the outputs written while rendering a page do not reload it.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PageReloadBroadcaster {
+
+    private static final long EMITTER_TIMEOUT_MILLIS = 1000 * 60 * 30;
+
+    private final ConfigService configService;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param path       a markdown file or a directory, relative to the docs directory
+     * @param renderedAt when the page was rendered, in epoch millis
+     */
+    public SseEmitter subscribe(String path, long renderedAt) {
+        Path shownPath = Paths.get(configService.getDocsDirectory()).resolve(path).toAbsolutePath().normalize();
+        var emitter = new SseEmitter(EMITTER_TIMEOUT_MILLIS);
+        var subscription = new Subscription(shownPath, Files.isDirectory(shownPath), renderedAt, emitter);
+        subscriptions.add(subscription);
+        emitter.onCompletion(() -> subscriptions.remove(subscription));
+        emitter.onError(e -> subscriptions.remove(subscription));
+        // the browser connects again with the same time of rendering
+        emitter.onTimeout(emitter::complete);
+        return emitter;
+    }
+
+    @EventListener
+    public void onDocsChanged(DocsChangedEvent event) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.isAffectedBy(event)) {
+                reload(subscription);
+            }
+        }
+    }
+
+    /**
+     * Reloads the page of an output that was written, the outputs the sweep deletes are not shown by any page.
+     */
+    @EventListener
+    public void onOutputChanged(OutputChangedEvent event) {
+        if (event.page() == null || !Files.exists(event.output())) {
+            return;
+        }
+        Path page = Paths.get(configService.getDocsDirectory()).resolve(event.page()).toAbsolutePath().normalize();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.path().equals(page) && subscription.modifiedAfterRendering(event.output())) {
+                reload(subscription);
+            }
+        }
+    }
+
+    private void reload(Subscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+        try {
+            subscription.emitter().send(SseEmitter.event().name("reload").data(subscription.path()
+                    .getFileName().toString()));
+            subscription.emitter().complete();
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Unable to tell the page of {} to reload", subscription.path(), e);
+        }
+    }
+
+    int subscriptionCount() {
+        return subscriptions.size();
+    }
+
+    private record Subscription(Path path, boolean directory, long renderedAt, SseEmitter emitter) {
+
+        boolean isAffectedBy(DocsChangedEvent event) {
+            if (event.overflow()) {
+                return true;
+            }
+            for (Path changed : event.paths()) {
+                if (shows(changed) && modifiedAfterRendering(changed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean shows(Path changed) {
+            if (!changed.getParent().equals(directory ? path : path.getParent())) {
+                return false;
+            }
+            String name = changed.getFileName().toString();
+            // a query writes a partial output first, the page changes once it replaces the output
+            if (name.endsWith(".partial.output")) {
+                return false;
+            }
+            if (directory) {
+                // output files are not listed
+                return !name.endsWith(".output");
+            }
+            String stem = path.getFileName().toString().replaceFirst("[.][^.]+$", "");
+            return changed.equals(path) || name.startsWith(stem + ".") && name.endsWith(".output");
+        }
+
+        private boolean modifiedAfterRendering(Path changed) {
+            try {
+                return Files.getLastModifiedTime(changed).toMillis() > renderedAt;
+            } catch (IOException e) {
+                // deleted
+                return true;
+            }
+        }
+    }
+}
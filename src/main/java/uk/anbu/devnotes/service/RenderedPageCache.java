@@ -0,0 +1,226 @@
+package uk.anbu.devnotes.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the rendered html of markdown pages.
+ * <p>
+ * An entry is only served while the markdown content hash is unchanged and every output file the page read still
+ * has the size and modification time it had when the page was rendered. Entries are evicted in least-recently-used
+ * order once there are more than {@code devnotes.render.cache.maxEntries} pages or more than
+ * {@code devnotes.render.cache.maxSizeMb} of html.
+ * <p>
+ * Entries are dropped as soon as {@link DocsWatcher} reports a change of their markdown file or the
+ * {@link OutputStore} one of their output files. While the watcher covers the whole docs directory,
+ * {@link #getWatched} serves a page without reading any of its files. Pages in hidden directories, which the
+ * watcher leaves out, are always checked against their files.
+ * <p>
+ * A page is not cached when one of its output files is missing. A code block that failed for a reason that may pass,
+ * such as a groovy script that timed out or could not be queued, writes no output and runs again the next time the
+ * page is shown. Saving the config clears the cache, pages rendered with the old datasources are rendered again.
+ */
+@Service
+@Slf4j
+public class RenderedPageCache {
+
+    private final ConfigService configService;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long cachedChars;
+    private long generation;
+
+    @Autowired
+    public RenderedPageCache(ConfigService configService) {
+        this.configService = configService;
+    }
+
+    public Optional<String> get(String markdownFileName, boolean editMode, String contentHash) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(markdownFileName, editMode));
+        }
+        if (entry != null && entry.contentHash().equals(contentHash) && outputsUnchanged(entry)) {
+            hits.incrementAndGet();
+            return Optional.of(entry.html());
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * The page as it was rendered, unless the watcher reported a change of its files since. Only to be used while
+     * {@link DocsWatcher#isWatchingAll()}, a change is then reported within the coalesce delay of the watcher.
+     */
+    public Optional<String> getWatched(String markdownFileName, boolean editMode) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(markdownFileName, editMode));
+        }
+        if (entry != null && entry.watched()) {
+            hits.incrementAndGet();
+            return Optional.of(entry.html());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Counts the changes reported by the watcher, taken before a page is read so a change reported while it is
+     * rendered keeps it from being served by {@link #getWatched}.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public void put(String markdownFileName, boolean editMode, String contentHash, Collection<Path> outputFiles,
+                    String html, long generationBeforeRead) {
+        Map<Path, FileStamp> outputStamps = new HashMap<>();
+        for (Path outputFile : outputFiles) {
+            FileStamp stamp = FileStamp.of(outputFile);
+            if (stamp == null || stamp == FileStamp.MISSING) {
+                return;
+            }
+            outputStamps.put(outputFile, stamp);
+        }
+        long maxChars = configService.getRenderCacheMaxSizeMb() * 1024L * 1024L / 2;
+        if (html.length() > maxChars) {
+            return;
+        }
+        Path root = Paths.get(configService.getDocsDirectory()).toAbsolutePath().normalize();
+        Path markdownPath = root.resolve(markdownFileName).normalize();
+        boolean inWatchedDirectory = !isInHiddenDirectory(root, markdownPath);
+        synchronized (this) {
+            Entry previous = entries.put(new Key(markdownFileName, editMode), new Entry(markdownPath, contentHash,
+                    outputStamps, html, inWatchedDirectory && generationBeforeRead == generation));
+            if (previous != null) {
+                cachedChars -= previous.html().length();
+            }
+            cachedChars += html.length();
+            evict(configService.getRenderCacheMaxEntries(), maxChars);
+        }
+    }
+
+    public synchronized void invalidate(String markdownFileName) {
+        for (boolean editMode : new boolean[]{false, true}) {
+            Entry removed = entries.remove(new Key(markdownFileName, editMode));
+            if (removed != null) {
+                cachedChars -= removed.html().length();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        cachedChars = 0;
+    }
+
+    @EventListener
+    public synchronized void onDocsChanged(DocsChangedEvent event) {
+        generation++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (event.affects(entry.markdownPath())
+                    || entry.outputStamps().keySet().stream().anyMatch(event::affects)) {
+                cachedChars -= entry.html().length();
+                iterator.remove();
+            }
+        }
+    }
+
+    @EventListener
+    public synchronized void onOutputChanged(OutputChangedEvent event) {
+        generation++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.outputStamps().keySet().stream().anyMatch(event::affects)) {
+                cachedChars -= entry.html().length();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.get(), misses.get(), entries.size(), cachedChars);
+    }
+
+    private void evict(int maxEntries, long maxChars) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || cachedChars > maxChars) && iterator.hasNext()) {
+            cachedChars -= iterator.next().html().length();
+            iterator.remove();
+        }
+    }
+
+    private static boolean isInHiddenDirectory(Path root, Path markdownPath) {
+        Path directory = root.relativize(markdownPath).getParent();
+        if (directory == null) {
+            return false;
+        }
+        for (Path name : directory) {
+            if (name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean outputsUnchanged(Entry entry) {
+        for (var output : entry.outputStamps().entrySet()) {
+            FileStamp current = FileStamp.of(output.getKey());
+            if (current == null || !current.equals(output.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public record Stats(long hits, long misses, int entries, long cachedChars) {
+    }
+
+    private record Key(String markdownFileName, boolean editMode) {
+    }
+
+    /**
+     * @param watched whether the page is in a watched directory and no change was reported while it was rendered
+     */
+    private record Entry(Path markdownPath, String contentHash, Map<Path, FileStamp> outputStamps, String html,
+                         boolean watched) {
+    }
+
+    private record FileStamp(long size, FileTime lastModified) {
+        private static final FileStamp MISSING = new FileStamp(-1, null);
+
+        static FileStamp of(Path path) {
+            try {
+                var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new FileStamp(attributes.size(), attributes.lastModifiedTime());
+            } catch (NoSuchFileException e) {
+                return MISSING;
+            } catch (IOException e) {
+                log.warn("Unable to read attributes of {}", path, e);
+                return null;
+            }
+        }
+    }
+}
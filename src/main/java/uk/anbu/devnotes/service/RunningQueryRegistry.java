@@ -0,0 +1,136 @@
+package uk.anbu.devnotes.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sql statements that are executing right now, so a runaway query can be seen and cancelled instead of holding
+ * a request thread and a pooled connection until the database gives up.
+ * <p>
+ * A query is registered before its statement is created and removed when it is closed. The statement is attached
+ * once the JDBC driver has created it, a cancel that arrives before that fails the statement as soon as it is
+ * attached.
+ */
+@Service
+@Slf4j
+public class RunningQueryRegistry {
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, RunningQuery> queries = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a query, close the returned query when it has finished.
+     *
+     * @param sqlHash the hash that names the output file of the query
+     */
+    public RunningQuery start(String sqlHash, String datasourceName) {
+        var query = new RunningQuery(nextId.incrementAndGet(), sqlHash, datasourceName, Instant.now());
+        queries.put(query.id, query);
+        return query;
+    }
+
+    /**
+     * The running queries, oldest first.
+     */
+    public List<RunningQuery> runningQueries() {
+        return queries.values().stream()
+                .sorted(Comparator.comparingLong(RunningQuery::id))
+                .toList();
+    }
+
+    /**
+     * Cancels a running query, returns false if there is no query with this id.
+     */
+    public boolean cancel(long id) {
+        RunningQuery query = queries.get(id);
+        if (query == null) {
+            return false;
+        }
+        query.cancel();
+        return true;
+    }
+
+    public final class RunningQuery implements AutoCloseable {
+        private final long id;
+        private final String sqlHash;
+        private final String datasourceName;
+        private final Instant startTime;
+        private final AtomicLong rowsStreamed = new AtomicLong();
+        private Statement statement;
+        private boolean cancelled;
+
+        private RunningQuery(long id, String sqlHash, String datasourceName, Instant startTime) {
+            this.id = id;
+            this.sqlHash = sqlHash;
+            this.datasourceName = datasourceName;
+            this.startTime = startTime;
+        }
+
+        public long id() {
+            return id;
+        }
+
+        public String sqlHash() {
+            return sqlHash;
+        }
+
+        public String datasourceName() {
+            return datasourceName;
+        }
+
+        public Instant startTime() {
+            return startTime;
+        }
+
+        public long rowsStreamed() {
+            return rowsStreamed.get();
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void rowStreamed() {
+            rowsStreamed.incrementAndGet();
+        }
+
+        /**
+         * Called with the statement of the query before it is executed.
+         */
+        public synchronized void attach(Statement statement) throws SQLException {
+            if (cancelled) {
+                throw new SQLException("Query cancelled");
+            }
+            this.statement = statement;
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            if (statement != null) {
+                log.info("Cancelling query {} against {}", sqlHash, datasourceName);
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    log.warn("Unable to cancel query {} against {}", sqlHash, datasourceName, e);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                statement = null;
+            }
+            queries.remove(id);
+        }
+    }
+}
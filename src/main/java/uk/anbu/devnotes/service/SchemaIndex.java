@@ -0,0 +1,201 @@
+package uk.anbu.devnotes.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Table and column names of the schema snapshots under {@code database/}, written by
+ * {@link DatabaseMetadataHarvester}, kept in memory so the sql editors can complete names without asking the
+ * database. Snapshots are matched to datasources by the datasource they were harvested from, older snapshots by their
+ * file name.
+ * <p>
+ * Changed snapshots are loaded again when {@link DocsWatcher} reports them and straight away after a harvest. The
+ * snapshot directory is only checked on a schedule while the watcher does not cover the whole docs directory.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SchemaIndex {
+
+    private static final YAMLFactory YAML_FACTORY = new YAMLFactory();
+
+    public enum Kind {
+        TABLE, COLUMN
+    }
+
+    /**
+     * @param table the table of a column completed after a table name, e.g. {@code ORDERS.am}, otherwise null
+     */
+    public record Suggestion(String name, Kind kind, String table) {
+    }
+
+    private final ConfigService configService;
+    private final DocsWatcher docsWatcher;
+    private final Map<Path, LoadedSnapshot> snapshots = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    /**
+     * Up to {@code limit} table and column names of a datasource that start with {@code prefix}.
+     */
+    public List<Suggestion> suggest(String dataSourceName, String prefix, int limit) {
+        if (!loaded) {
+            refresh();
+        }
+        List<Suggestion> suggestions = new ArrayList<>();
+        Set<Suggestion> seen = new HashSet<>();
+        int matchingSnapshots = 0;
+        for (LoadedSnapshot snapshot : snapshots.values()) {
+            if (!snapshot.dataSourceName().equals(dataSourceName)) {
+                continue;
+            }
+            matchingSnapshots++;
+            for (Suggestion suggestion : snapshot.trie().find(prefix, limit)) {
+                if (seen.add(suggestion)) {
+                    suggestions.add(suggestion);
+                }
+            }
+        }
+        if (matchingSnapshots > 1) {
+            // several snapshots of a datasource, e.g. one per schema, are merged
+            suggestions.sort(Comparator.comparing((Suggestion suggestion) -> suggestion.name().toUpperCase(Locale.ROOT))
+                    .thenComparing(Suggestion::kind));
+        }
+        return suggestions.size() > limit ? suggestions.subList(0, limit) : suggestions;
+    }
+
+    @Scheduled(fixedDelay = 1000 * 10)
+    public void refreshUnlessWatched() {
+        if (!loaded || !docsWatcher.isWatchingAll()) {
+            refresh();
+        }
+    }
+
+    public synchronized void refresh() {
+        Path directory = snapshotDirectory();
+        Set<Path> current = new HashSet<>();
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(".yaml")).forEach(file -> {
+                    current.add(file);
+                    reload(file);
+                });
+            } catch (IOException e) {
+                log.warn("Unable to list schema snapshots in {}", directory, e);
+            }
+        }
+        snapshots.keySet().retainAll(current);
+        loaded = true;
+    }
+
+    @EventListener
+    public void onDocsChanged(DocsChangedEvent event) {
+        if (event.overflow()) {
+            refresh();
+            return;
+        }
+        Path directory = snapshotDirectory();
+        for (Path path : event.paths()) {
+            if (directory.equals(path.getParent()) && path.getFileName().toString().endsWith(".yaml")) {
+                reload(path);
+            }
+        }
+    }
+
+    /**
+     * Loads a snapshot if it is new or has changed since it was loaded.
+     */
+    public void reload(Path file) {
+        file = file.toAbsolutePath().normalize();
+        try {
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            LoadedSnapshot snapshot = snapshots.get(file);
+            if (snapshot != null && snapshot.size() == attributes.size()
+                    && snapshot.lastModified() == attributes.lastModifiedTime().toMillis()) {
+                return;
+            }
+            snapshots.put(file, load(file, attributes));
+        } catch (NoSuchFileException e) {
+            snapshots.remove(file);
+        } catch (IOException e) {
+            log.warn("Unable to load schema snapshot {}", file, e);
+        }
+    }
+
+    private Path snapshotDirectory() {
+        return Paths.get(configService.getDocsDirectory(), "database").toAbsolutePath().normalize();
+    }
+
+    private static LoadedSnapshot load(Path file, BasicFileAttributes attributes) throws IOException {
+        String fileName = file.getFileName().toString();
+        String dataSourceName = fileName.substring(0, fileName.length() - ".yaml".length());
+        var trie = new SchemaTrie();
+        int tables = 0;
+        try (JsonParser parser = YAML_FACTORY.createParser(file.toFile())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a schema snapshot");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.currentName();
+                parser.nextToken();
+                if ("datasource".equals(section)) {
+                    dataSourceName = parser.getText();
+                } else if ("tables".equals(section)) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String table = parser.currentName();
+                        trie.addTable(table, readColumnNames(parser));
+                        tables++;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        log.info("Loaded {} tables of {} from {}", tables, dataSourceName, file);
+        return new LoadedSnapshot(dataSourceName, trie, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    private static List<String> readColumnNames(JsonParser parser) throws IOException {
+        List<String> columns = new ArrayList<>();
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return columns;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                boolean isName = "name".equals(parser.currentName());
+                parser.nextToken();
+                if (isName) {
+                    columns.add(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return columns;
+    }
+
+    private record LoadedSnapshot(String dataSourceName, SchemaTrie trie, long size, long lastModified) {
+    }
+}
@@ -0,0 +1,93 @@
+package uk.anbu.devnotes.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Table and column names of a schema snapshot in a prefix trie, names match case-insensitively. A prefix of the form
+ * {@code TABLE.col} completes the columns of that table. Not modified once built, so it can be read by any thread.
+ */
+final class SchemaTrie {
+
+    private final Node root = new Node();
+    private final Map<String, List<SchemaIndex.Suggestion>> columnsByTable = new HashMap<>();
+
+    void addTable(String table, List<String> columns) {
+        add(new SchemaIndex.Suggestion(table, SchemaIndex.Kind.TABLE, null));
+        List<SchemaIndex.Suggestion> tableColumns = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            tableColumns.add(new SchemaIndex.Suggestion(column, SchemaIndex.Kind.COLUMN, table));
+            // columns like ID are in most tables, the trie keeps each column name once
+            Node node = node(column);
+            if (node.entries.stream().noneMatch(entry -> entry.kind() == SchemaIndex.Kind.COLUMN)) {
+                node.entries.add(new SchemaIndex.Suggestion(column, SchemaIndex.Kind.COLUMN, null));
+            }
+        }
+        columnsByTable.put(table.toUpperCase(Locale.ROOT), tableColumns);
+    }
+
+    /**
+     * Up to {@code limit} names starting with {@code prefix} in alphabetical order, tables before columns of the
+     * same name.
+     */
+    List<SchemaIndex.Suggestion> find(String prefix, int limit) {
+        String key = prefix.toUpperCase(Locale.ROOT);
+        int dot = key.lastIndexOf('.');
+        if (dot > 0) {
+            List<SchemaIndex.Suggestion> columns = columnsByTable.get(key.substring(0, dot));
+            if (columns != null) {
+                String columnPrefix = key.substring(dot + 1);
+                return columns.stream()
+                        .filter(column -> column.name().toUpperCase(Locale.ROOT).startsWith(columnPrefix))
+                        .limit(limit)
+                        .toList();
+            }
+        }
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.children.get(key.charAt(i));
+        }
+        List<SchemaIndex.Suggestion> suggestions = new ArrayList<>();
+        if (node != null) {
+            collect(node, suggestions, limit);
+        }
+        return suggestions;
+    }
+
+    private void add(SchemaIndex.Suggestion suggestion) {
+        node(suggestion.name()).entries.add(0, suggestion);
+    }
+
+    private Node node(String name) {
+        Node node = root;
+        String key = name.toUpperCase(Locale.ROOT);
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+        }
+        return node;
+    }
+
+    private static void collect(Node node, List<SchemaIndex.Suggestion> suggestions, int limit) {
+        for (SchemaIndex.Suggestion entry : node.entries) {
+            if (suggestions.size() >= limit) {
+                return;
+            }
+            suggestions.add(entry);
+        }
+        for (Node child : node.children.values()) {
+            if (suggestions.size() >= limit) {
+                return;
+            }
+            collect(child, suggestions, limit);
+        }
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new TreeMap<>();
+        private final List<SchemaIndex.Suggestion> entries = new ArrayList<>(1);
+    }
+}
@@ -0,0 +1,574 @@
+package uk.anbu.devnotes.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+import uk.anbu.devnotes.module.ColumnarResultFile;
+import uk.anbu.devnotes.module.SqlOutputFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Full-text index of the markdown files under the docs directory and, with {@code devnotes.search.includeOutputs},
+ * of the text in the {@code .output} files of their code blocks. Outputs are indexed as if they were next to their
+ * page, {@code notes.0123456789abcdef.output} for {@code notes.md}, and read from the {@link OutputStore}.
+ * <p>
+ * The index is built when the application starts, reading files on {@code devnotes.search.threads} threads, and
+ * kept up to date from the changes {@link DocsWatcher} reports. Files are written to a {@link SearchSegment} under
+ * the cache directory. A changed file is indexed in memory and its old version in the segment is marked as deleted,
+ * once enough files have changed they are merged into a new segment. All updates are made on one thread and
+ * searches read an immutable {@link State}, so they never wait for an update.
+ * <p>
+ * Results are ranked with BM25, snippets are cut from the files of the best results when they are asked for.
+ */
+@Service
+@Slf4j
+public class SearchIndex {
+
+    private static final int MERGE_THRESHOLD = 256;
+    private static final int MAX_INDEXED_BYTES = 4 * 1024 * 1024;
+    private static final int SNIPPET_CHARS = 200;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * @param path    the file the text was found in, relative to the docs directory
+     * @param page    the markdown file to open, the file itself or the page an output belongs to
+     * @param snippet html, the matching terms in {@code <mark>} elements
+     */
+    public record Hit(String path, String page, double score, String snippet) {
+    }
+
+    /**
+     * @param matches    the number of files matching any of the terms, of which the best are in {@code hits}
+     * @param tookMicros time spent searching, including the snippets
+     * @param indexing   true while the index is built for the first time, there are no hits until it is
+     */
+    public record Results(String query, List<Hit> hits, int matches, long tookMicros, boolean indexing) {
+    }
+
+    private final ConfigService configService;
+    private final OutputStore outputStore;
+    private final CoalescingUpdater updater;
+    private volatile State state;
+    private Path root;
+    private int segmentNumber;
+
+    @Autowired
+    public SearchIndex(ConfigService configService, OutputStore outputStore) {
+        this.configService = configService;
+        this.outputStore = outputStore;
+        this.updater = new CoalescingUpdater("search-index-", this::applyChanges);
+    }
+
+    @PostConstruct
+    public void start() {
+        updater.execute(this::rebuild);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updater.shutdown();
+    }
+
+    @EventListener
+    public void onDocsChanged(DocsChangedEvent event) {
+        if (event.overflow()) {
+            updater.execute(this::rebuild);
+            return;
+        }
+        updater.changed(event.paths());
+    }
+
+    @EventListener
+    public void onOutputChanged(OutputChangedEvent event) {
+        if (configService.isSearchIncludeOutputs() && event.page() != null) {
+            updater.changed(List.of(Paths.get(configService.getDocsDirectory()).resolve(event.page()).toAbsolutePath()
+                    .normalize().resolveSibling(event.output().getFileName())));
+        }
+    }
+
+    /**
+     * The {@code limit} files that match the terms of {@code query} best. A file matches if it contains any of the
+     * terms, files containing more of them, or rarer ones, rank higher.
+     */
+    public Results search(String query, int limit) {
+        long start = System.nanoTime();
+        State current = state;
+        List<String> terms = SearchTerms.distinct(query);
+        if (current == null || terms.isEmpty()) {
+            return new Results(query, List.of(), 0, 0, current == null);
+        }
+        SearchSegment segment = current.segment();
+        BitSet deleted = current.deleted();
+        double averageLength = Math.max(1.0, (double) current.totalLength() / Math.max(1, current.documentCount()));
+        float[] scores = new float[segment.documentCount()];
+        Map<String, Double> recentScores = new HashMap<>();
+        for (String term : terms) {
+            int termNumber = segment.find(term);
+            List<RecentDocument> recentMatches = current.recent().values().stream()
+                    .filter(document -> document.frequencies().containsKey(term))
+                    .toList();
+            // deleted documents still count here until the next merge, a small skew in favour of changed files
+            int documentFrequency = (termNumber < 0 ? 0 : segment.documentFrequency(termNumber))
+                    + recentMatches.size();
+            if (documentFrequency == 0) {
+                continue;
+            }
+            double idf = Math.log(1 + Math.max(0, current.documentCount() - documentFrequency + 0.5)
+                    / (documentFrequency + 0.5));
+            if (termNumber >= 0) {
+                segment.forEachPosting(termNumber, (id, frequency) -> {
+                    if (!deleted.get(id)) {
+                        scores[id] += (float) score(idf, frequency, segment.length(id), averageLength);
+                    }
+                });
+            }
+            for (RecentDocument document : recentMatches) {
+                recentScores.merge(document.path(), score(idf, document.frequencies().get(term), document.length(),
+                        averageLength), Double::sum);
+            }
+        }
+
+        Comparator<Candidate> ranking = Comparator.comparingDouble(Candidate::score)
+                .thenComparing(Candidate::path, Comparator.reverseOrder());
+        PriorityQueue<Candidate> best = new PriorityQueue<>(ranking);
+        int matches = 0;
+        for (int id = 0; id < scores.length; id++) {
+            if (scores[id] > 0) {
+                matches++;
+                keepBest(best, new Candidate(segment.path(id), scores[id]), limit, ranking);
+            }
+        }
+        for (var entry : recentScores.entrySet()) {
+            matches++;
+            keepBest(best, new Candidate(entry.getKey(), entry.getValue()), limit, ranking);
+        }
+        List<Candidate> ranked = new ArrayList<>(best);
+        ranked.sort(ranking.reversed());
+        Set<String> wanted = Set.copyOf(terms);
+        List<Hit> hits = ranked.stream()
+                .map(candidate -> new Hit(candidate.path(), page(candidate.path()), candidate.score(),
+                        snippet(candidate.path(), wanted)))
+                .toList();
+        return new Results(query, hits, matches, (System.nanoTime() - start) / 1000, false);
+    }
+
+    private static double score(double idf, int frequency, int length, double averageLength) {
+        return idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+    }
+
+    private static void keepBest(PriorityQueue<Candidate> best, Candidate candidate, int limit,
+                                 Comparator<Candidate> ranking) {
+        if (best.size() < limit) {
+            best.add(candidate);
+        } else if (limit > 0 && ranking.compare(candidate, best.peek()) > 0) {
+            best.poll();
+            best.add(candidate);
+        }
+    }
+
+    /**
+     * Indexes all files again, replacing the segment.
+     */
+    void rebuild() {
+        root = Paths.get(configService.getDocsDirectory()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            log.warn("Docs directory {} does not exist, nothing to search", root);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<Path> files = listIndexedFiles();
+        var builder = new SearchSegment.Builder();
+        int threads = Math.max(1, configService.getSearchThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // files are counted as they come back, only a few per thread are in memory at a time
+            CompletionService<IndexedFile> completion = new ExecutorCompletionService<>(executor);
+            int submitted = 0;
+            for (int completed = 0; completed < files.size(); completed++) {
+                while (submitted < files.size() && submitted - completed < threads * 4) {
+                    Path file = files.get(submitted++);
+                    completion.submit(() -> read(file));
+                }
+                IndexedFile indexed = completion.take().get();
+                if (indexed != null) {
+                    builder.addDocument(indexed.path(), indexed.counts().length(), indexed.counts().frequencies());
+                }
+            }
+            install(builder, Map.of());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException | IOException e) {
+            log.error("Unable to build the search index of {}", root, e);
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Indexed {} files under {} in {} ms", builder.documentCount(), root,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Indexes changed files in memory, merging them into a new segment once there are more than
+     * {@value #MERGE_THRESHOLD}. A path that no longer exists removes the file, or all files below it.
+     */
+    void applyChanges(Collection<Path> paths) {
+        State current = state;
+        if (current == null) {
+            return;
+        }
+        SearchSegment segment = current.segment();
+        BitSet deleted = (BitSet) current.deleted().clone();
+        Map<String, RecentDocument> recent = new HashMap<>(current.recent());
+        for (Path path : paths) {
+            path = path.toAbsolutePath().normalize();
+            if (!path.startsWith(root) || path.equals(root) || Files.isDirectory(path)) {
+                // the files of a new directory are reported on their own
+                continue;
+            }
+            String key = key(path);
+            int id = segment.id(key);
+            boolean removed = recent.remove(key) != null;
+            Path source = source(path);
+            if (id >= 0) {
+                deleted.set(id);
+            } else if (!removed && !Files.exists(source)) {
+                removeDirectory(key + "/", segment, deleted, recent);
+            }
+            if (isIndexed(path) && Files.isRegularFile(source)) {
+                IndexedFile indexed = read(path);
+                if (indexed != null) {
+                    recent.put(key, new RecentDocument(key, indexed.counts().frequencies(),
+                            indexed.counts().length()));
+                }
+            }
+        }
+        state = State.of(segment, deleted, recent);
+        if (recent.size() > MERGE_THRESHOLD) {
+            merge();
+        }
+    }
+
+    private static void removeDirectory(String prefix, SearchSegment segment, BitSet deleted,
+                                        Map<String, RecentDocument> recent) {
+        for (int id = 0; id < segment.documentCount(); id++) {
+            if (segment.path(id).startsWith(prefix)) {
+                deleted.set(id);
+            }
+        }
+        recent.keySet().removeIf(path -> path.startsWith(prefix));
+    }
+
+    /**
+     * Writes the files of the segment that have not changed and the changed ones into a new segment.
+     */
+    void merge() {
+        State current = state;
+        SearchSegment segment = current.segment();
+        var builder = new SearchSegment.Builder();
+        int[] ids = new int[segment.documentCount()];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = current.deleted().get(id) ? -1 : builder.addDocument(segment.path(id), segment.length(id));
+        }
+        segment.forEachTerm((term, termNumber) -> segment.forEachPosting(termNumber, (id, frequency) -> {
+            if (ids[id] >= 0) {
+                builder.addPosting(term, ids[id], frequency);
+            }
+        }));
+        // the changed files get the highest ids, so their postings come after those of the old segment
+        for (RecentDocument document : current.recent().values()) {
+            builder.addDocument(document.path(), document.length(), document.frequencies());
+        }
+        try {
+            install(builder, Map.of());
+            log.info("Merged {} changed files into a search segment of {} files", current.recent().size(),
+                    builder.documentCount());
+        } catch (IOException e) {
+            log.error("Unable to merge changes into the search index", e);
+        }
+    }
+
+    private void install(SearchSegment.Builder builder, Map<String, RecentDocument> recent) throws IOException {
+        Path directory = Paths.get(configService.getCacheDirectory(), "search");
+        if (segmentNumber == 0) {
+            deleteSegments(directory);
+        }
+        Path file = directory.resolve("segment-" + ProcessHandle.current().pid() + "-" + (++segmentNumber) + ".idx");
+        builder.write(file);
+        State previous = state;
+        state = State.of(SearchSegment.open(file), new BitSet(), recent);
+        if (previous != null) {
+            // searches still reading the old segment keep their mapping, on Windows the file stays until then
+            deleteQuietly(previous.segment().file());
+        }
+    }
+
+    private static void deleteSegments(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().startsWith("segment-"))
+                    .forEach(SearchIndex::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("Unable to list old search segments in {}", directory, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Unable to delete {}", file, e);
+        }
+    }
+
+    private List<Path> listIndexedFiles() {
+        List<Path> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    return directory.equals(root) || !isHidden(directory)
+                            ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && file.getFileName().toString().endsWith(".md")
+                            && isIndexed(file)) {
+                        files.add(file);
+                        if (configService.isSearchIncludeOutputs()) {
+                            for (Path output : outputStore.outputs(key(file))) {
+                                files.add(file.resolveSibling(output.getFileName()));
+                            }
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    log.debug("Unable to visit {}", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to list the files under {}", root, e);
+        }
+        return files;
+    }
+
+    private boolean isIndexed(Path file) {
+        for (Path name : root.relativize(file)) {
+            if (isHidden(name)) {
+                return false;
+            }
+        }
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(".md") || configService.isSearchIncludeOutputs() && OutputStore.isOutput(fileName);
+    }
+
+    /**
+     * The file an indexed path is read from, the outputs are kept in the {@link OutputStore}.
+     */
+    private Path source(Path file) {
+        String fileName = file.getFileName().toString();
+        return OutputStore.isOutput(fileName) ? outputStore.resolve(page(key(file)), fileName) : file;
+    }
+
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    private String key(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private IndexedFile read(Path file) {
+        try {
+            return new IndexedFile(key(file), SearchTerms.count(text(source(file))));
+        } catch (IOException e) {
+            log.debug("Unable to index {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * The markdown of a page, or the sql and string values of an output, up to {@value #MAX_INDEXED_BYTES} bytes.
+     */
+    private static String text(Path file) throws IOException {
+        if (!file.getFileName().toString().endsWith(".output")) {
+            return readText(file);
+        }
+        if (SqlOutputFormat.of(file) == SqlOutputFormat.COLUMNAR) {
+            return columnarText(file);
+        }
+        String text = readText(file);
+        return text.startsWith("{") ? jsonText(text) : text;
+    }
+
+    private static String readText(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return new String(in.readNBytes(MAX_INDEXED_BYTES), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String jsonText(String json) {
+        var text = new StringBuilder();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.VALUE_STRING) {
+                    text.append(parser.getText()).append('\n');
+                }
+            }
+        } catch (IOException e) {
+            // a file cut at the size limit ends in the middle of a value, the text before it is kept
+            log.trace("Json output ends early", e);
+        }
+        return text.toString();
+    }
+
+    private static String columnarText(Path file) throws IOException {
+        ColumnarResultFile result = ColumnarResultFile.open(file);
+        var text = new StringBuilder(result.header().sqlText() == null ? "" : result.header().sqlText()).append('\n');
+        List<ColumnarResultFile.Column> columns = result.columns();
+        for (int column = 0; column < columns.size(); column++) {
+            text.append(columns.get(column).name()).append('\n');
+        }
+        for (int row = 0; row < result.rowCount() && text.length() < MAX_INDEXED_BYTES; row++) {
+            for (int column = 0; column < columns.size(); column++) {
+                if (columns.get(column).encoding() == ColumnarResultFile.Encoding.STRING
+                        && !result.isNull(column, row)) {
+                    text.append(result.getString(column, row)).append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * The markdown file a result belongs to, {@code notes.md} for {@code notes.0123456789abcdef.output}.
+     */
+    private static String page(String path) {
+        if (!path.endsWith(".output")) {
+            return path;
+        }
+        String withoutExtension = path.substring(0, path.length() - ".output".length());
+        int hashStart = withoutExtension.lastIndexOf('.');
+        return (hashStart > withoutExtension.lastIndexOf('/') ? withoutExtension.substring(0, hashStart)
+                : withoutExtension) + ".md";
+    }
+
+    /**
+     * Up to {@value #SNIPPET_CHARS} characters around the first term of the query found in a file.
+     */
+    private String snippet(String path, Set<String> terms) {
+        String text;
+        try {
+            text = text(source(root.resolve(path)));
+        } catch (IOException e) {
+            return "";
+        }
+        int[] first = {-1};
+        SearchTerms.forEach(text, (term, start, end) -> {
+            if (first[0] < 0 && terms.contains(term)) {
+                first[0] = start;
+            }
+        });
+        int start = Math.max(0, first[0] - SNIPPET_CHARS / 4);
+        while (start > 0 && start < first[0] && !Character.isWhitespace(text.charAt(start - 1))) {
+            start++;
+        }
+        int end = Math.min(text.length(), start + SNIPPET_CHARS);
+        int wordEnd = end;
+        while (wordEnd < text.length() && wordEnd > Math.max(start, first[0]) + 1
+                && !Character.isWhitespace(text.charAt(wordEnd))) {
+            wordEnd--;
+        }
+        if (wordEnd > Math.max(start, first[0]) + 1) {
+            end = wordEnd;
+        }
+        String window = text.substring(start, end);
+
+        var html = new StringBuilder(start > 0 ? "&hellip;" : "");
+        int[] written = {0};
+        SearchTerms.forEach(window, (term, termStart, termEnd) -> {
+            if (terms.contains(term)) {
+                html.append(escape(window.substring(written[0], termStart)))
+                        .append("<mark>").append(escape(window.substring(termStart, termEnd))).append("</mark>");
+                written[0] = termEnd;
+            }
+        });
+        html.append(escape(window.substring(written[0])));
+        return html.append(end < text.length() ? "&hellip;" : "").toString();
+    }
+
+    private static String escape(String text) {
+        return HtmlUtils.htmlEscape(text.replaceAll("\\s+", " "));
+    }
+
+    private record IndexedFile(String path, SearchTerms.Counts counts) {
+    }
+
+    private record RecentDocument(String path, Map<String, Integer> frequencies, int length) {
+    }
+
+    private record Candidate(String path, double score) {
+    }
+
+    /**
+     * What a search reads: the segment, the ids of its files that have changed since it was written, and the files
+     * indexed since then.
+     */
+    private record State(SearchSegment segment, BitSet deleted, Map<String, RecentDocument> recent,
+                         int documentCount, long totalLength) {
+
+        static State of(SearchSegment segment, BitSet deleted, Map<String, RecentDocument> recent) {
+            long totalLength = segment.totalLength();
+            for (int id = deleted.nextSetBit(0); id >= 0; id = deleted.nextSetBit(id + 1)) {
+                totalLength -= segment.length(id);
+            }
+            for (RecentDocument document : recent.values()) {
+                totalLength += document.length();
+            }
+            return new State(segment, deleted, Map.copyOf(recent),
+                    segment.documentCount() - deleted.cardinality() + recent.size(), totalLength);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package uk.anbu.devnotes.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable part of the search index, written by {@link Builder} and read by any thread.
+ * <p>
+ * The file is memory-mapped, only the documents are read into memory when it is opened. Terms are found with a
+ * binary search over the term table and their postings are decoded while they are scored. Layout, all numbers
+ * big-endian and all strings an int byte length followed by utf-8 bytes:
+ * <pre>
+ * int    magic "DNSX"
+ * int    document count
+ * per document: int length in terms, path relative to the docs directory
+ * int    term count
+ * per term, sorted by their utf-8 bytes: int offset in terms, int document frequency, int offset in postings
+ * int    terms length
+ * terms     per term: byte utf-8 length, utf-8 bytes
+ * postings  per term, per document in id order: varint id gap, varint term frequency
+ * </pre>
+ * Offsets are ints, so a segment is limited to 2 GB.
+ */
+final class SearchSegment {
+
+    static final int MAGIC = 0x444E5358;
+
+    private static final int TERM_ENTRY_BYTES = 12;
+
+    interface PostingConsumer {
+        void accept(int id, int frequency);
+    }
+
+    interface TermConsumer {
+        void accept(String term, int termNumber);
+    }
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final String[] paths;
+    private final int[] lengths;
+    private final Map<String, Integer> idsByPath;
+    private final long totalLength;
+    private final int termCount;
+    private final int termTableStart;
+    private final int termsStart;
+    private final int postingsStart;
+
+    private SearchSegment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a search segment: " + file);
+        }
+        int documentCount = in.getInt();
+        paths = new String[documentCount];
+        lengths = new int[documentCount];
+        idsByPath = new HashMap<>(documentCount * 2);
+        long total = 0;
+        for (int id = 0; id < documentCount; id++) {
+            lengths[id] = in.getInt();
+            byte[] path = new byte[in.getInt()];
+            in.get(path);
+            paths[id] = new String(path, StandardCharsets.UTF_8);
+            idsByPath.put(paths[id], id);
+            total += lengths[id];
+        }
+        totalLength = total;
+        termCount = in.getInt();
+        termTableStart = in.position();
+        in.position(termTableStart + termCount * TERM_ENTRY_BYTES);
+        int termsLength = in.getInt();
+        termsStart = in.position();
+        postingsStart = termsStart + termsLength;
+    }
+
+    static SearchSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Search segment too large: " + file);
+            }
+            return new SearchSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    int documentCount() {
+        return paths.length;
+    }
+
+    String path(int id) {
+        return paths[id];
+    }
+
+    int length(int id) {
+        return lengths[id];
+    }
+
+    /**
+     * The id of a document, -1 if the segment does not hold it.
+     */
+    int id(String path) {
+        return idsByPath.getOrDefault(path, -1);
+    }
+
+    long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * The number of a term in the term table, -1 if no document contains it.
+     */
+    int find(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareTerm(middle, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    int documentFrequency(int termNumber) {
+        return buffer.getInt(termTableStart + termNumber * TERM_ENTRY_BYTES + 4);
+    }
+
+    void forEachPosting(int termNumber, PostingConsumer consumer) {
+        int position = postingsStart + postingsOffset(termNumber);
+        int id = 0;
+        for (int i = documentFrequency(termNumber); i > 0; i--) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int frequency = 0;
+            shift = 0;
+            do {
+                b = buffer.get(position++);
+                frequency |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += gap;
+            consumer.accept(id, frequency);
+        }
+    }
+
+    void forEachTerm(TermConsumer consumer) {
+        for (int termNumber = 0; termNumber < termCount; termNumber++) {
+            int position = termsStart + buffer.getInt(termTableStart + termNumber * TERM_ENTRY_BYTES);
+            byte[] term = new byte[buffer.get(position) & 0xFF];
+            buffer.get(position + 1, term);
+            consumer.accept(new String(term, StandardCharsets.UTF_8), termNumber);
+        }
+    }
+
+    private int postingsOffset(int termNumber) {
+        return buffer.getInt(termTableStart + termNumber * TERM_ENTRY_BYTES + 8);
+    }
+
+    private int compareTerm(int termNumber, byte[] key) {
+        int position = termsStart + buffer.getInt(termTableStart + termNumber * TERM_ENTRY_BYTES);
+        int length = buffer.get(position++) & 0xFF;
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int comparison = Integer.compare(buffer.get(position + i) & 0xFF, key[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * Collects documents and their postings in memory, already varint encoded, and writes them as a segment.
+     * Postings of a term have to be added in increasing id order.
+     */
+    static final class Builder {
+
+        private final List<String> paths = new ArrayList<>();
+        private int[] lengths = new int[1024];
+        private final Map<String, PostingList> postings = new HashMap<>();
+
+        int addDocument(String path, int length) {
+            int id = paths.size();
+            if (id == lengths.length) {
+                lengths = Arrays.copyOf(lengths, id * 2);
+            }
+            paths.add(path);
+            lengths[id] = length;
+            return id;
+        }
+
+        int addDocument(String path, int length, Map<String, Integer> frequencies) {
+            int id = addDocument(path, length);
+            frequencies.forEach((term, frequency) -> addPosting(term, id, frequency));
+            return id;
+        }
+
+        void addPosting(String term, int id, int frequency) {
+            postings.computeIfAbsent(term, key -> new PostingList()).add(id, frequency);
+        }
+
+        int documentCount() {
+            return paths.size();
+        }
+
+        void write(Path file) throws IOException {
+            byte[][] terms = new byte[postings.size()][];
+            int termNumber = 0;
+            for (String term : postings.keySet()) {
+                terms[termNumber++] = term.getBytes(StandardCharsets.UTF_8);
+            }
+            Arrays.sort(terms, Arrays::compareUnsigned);
+
+            Files.createDirectories(file.getParent());
+            Path tempPath = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(paths.size());
+                for (int id = 0; id < paths.size(); id++) {
+                    out.writeInt(lengths[id]);
+                    byte[] path = paths.get(id).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(path.length);
+                    out.write(path);
+                }
+                out.writeInt(terms.length);
+                int termsOffset = 0;
+                int postingsOffset = 0;
+                for (byte[] term : terms) {
+                    PostingList list = postings.get(new String(term, StandardCharsets.UTF_8));
+                    out.writeInt(termsOffset);
+                    out.writeInt(list.documentFrequency);
+                    out.writeInt(postingsOffset);
+                    termsOffset += 1 + term.length;
+                    postingsOffset = Math.addExact(postingsOffset, list.size);
+                }
+                out.writeInt(termsOffset);
+                for (byte[] term : terms) {
+                    out.writeByte(term.length);
+                    out.write(term);
+                }
+                for (byte[] term : terms) {
+                    PostingList list = postings.get(new String(term, StandardCharsets.UTF_8));
+                    out.write(list.bytes, 0, list.size);
+                }
+            }
+            Files.move(tempPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static final class PostingList {
+        private byte[] bytes = new byte[8];
+        private int size;
+        private int lastId;
+        private int documentFrequency;
+
+        void add(int id, int frequency) {
+            writeVarint(id - lastId);
+            writeVarint(frequency);
+            lastId = id;
+            documentFrequency++;
+        }
+
+        private void writeVarint(int value) {
+            if (size + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+    }
+}
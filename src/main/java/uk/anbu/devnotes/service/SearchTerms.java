@@ -0,0 +1,67 @@
+package uk.anbu.devnotes.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits text into the terms of the search index: runs of letters and digits, lower-cased. Terms shorter than two
+ * or longer than 64 characters are left out, the latter are mostly hashes and encoded data.
+ */
+final class SearchTerms {
+
+    static final int MIN_LENGTH = 2;
+    static final int MAX_LENGTH = 64;
+
+    interface TermConsumer {
+        void accept(String term, int start, int end);
+    }
+
+    private SearchTerms() {
+    }
+
+    static void forEach(CharSequence text, TermConsumer consumer) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int termLength = i - start;
+            if (termLength >= MIN_LENGTH && termLength <= MAX_LENGTH) {
+                consumer.accept(text.subSequence(start, i).toString().toLowerCase(Locale.ROOT), start, i);
+            }
+        }
+    }
+
+    /**
+     * @param frequencies how often each term occurs
+     * @param length      the number of terms, counting repeated ones
+     */
+    record Counts(Map<String, Integer> frequencies, int length) {
+    }
+
+    static Counts count(CharSequence text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        int[] length = new int[1];
+        forEach(text, (term, start, end) -> {
+            frequencies.merge(term, 1, Integer::sum);
+            length[0]++;
+        });
+        return new Counts(frequencies, length[0]);
+    }
+
+    static List<String> distinct(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        forEach(text, (term, start, end) -> terms.add(term));
+        return new ArrayList<>(terms);
+    }
+}
@@ -0,0 +1,37 @@
+package uk.anbu.devnotes.util;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Builds the thread pools that services keep for their own background work.
+ * <p>
+ * The pools are created by the services that use them rather than exposed as beans, an Executor bean would replace
+ * the application task executor of Spring Boot. A service that creates a pool shuts it down itself.
+ */
+public class TaskExecutors {
+
+    private TaskExecutors() {
+    }
+
+    /**
+     * A pool of {@code threads} daemon threads, at least one, with an unbounded queue.
+     */
+    public static ThreadPoolTaskExecutor daemonExecutor(String threadNamePrefix, int threads) {
+        return daemonExecutor(threadNamePrefix, threads, Integer.MAX_VALUE);
+    }
+
+    /**
+     * A pool of {@code threads} daemon threads, at least one, that rejects tasks once {@code queueCapacity} are
+     * waiting.
+     */
+    public static ThreadPoolTaskExecutor daemonExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, threads));
+        executor.setMaxPoolSize(Math.max(1, threads));
+        executor.setQueueCapacity(Math.max(0, queueCapacity));
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setDaemon(true);
+        executor.initialize();
+        return executor;
+    }
+}
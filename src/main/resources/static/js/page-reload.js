@@ -0,0 +1,16 @@
+// Reloads the page once a file it shows changes on disk, reported by the server over server-sent events.
+// The script tag names the shown file or directory in data-reload-path and the time of rendering in data-rendered-at.
+(function () {
+    const script = document.currentScript;
+    const source = new EventSource('/pageEvents?path=' + encodeURIComponent(script.dataset.reloadPath)
+        + '&renderedAt=' + script.dataset.renderedAt);
+    source.addEventListener('reload', () => {
+        source.close();
+        // a page being edited is left alone, saving it loads the page again anyway
+        const page = document.querySelector('[x-data]');
+        if (page && window.Alpine && Alpine.$data(page).editMode) {
+            return;
+        }
+        window.location.reload();
+    });
+})();
@@ -0,0 +1,126 @@
+// Completes table and column names in textareas marked with data-sql-autocomplete. The attribute holds the
+// datasource name, when it is empty the datasource is taken from the #datasourceName select.
+const sqlAutocomplete = {
+    list: null,
+    textarea: null,
+    suggestions: [],
+    selected: 0,
+    request: 0,
+    inserting: false
+};
+
+function sqlAutocompleteDatasource(textarea) {
+    if (textarea.dataset.sqlAutocomplete) {
+        return textarea.dataset.sqlAutocomplete;
+    }
+    const select = document.getElementById('datasourceName');
+    return select ? select.value : '';
+}
+
+function sqlAutocompleteWord(textarea) {
+    const before = textarea.value.substring(0, textarea.selectionStart);
+    const match = before.match(/[\w.]+$/);
+    return match ? match[0] : '';
+}
+
+function hideSqlAutocomplete() {
+    if (sqlAutocomplete.list) {
+        sqlAutocomplete.list.remove();
+    }
+    sqlAutocomplete.list = null;
+    sqlAutocomplete.textarea = null;
+    sqlAutocomplete.suggestions = [];
+}
+
+function showSqlAutocomplete(textarea, suggestions) {
+    hideSqlAutocomplete();
+    if (suggestions.length === 0) {
+        return;
+    }
+    const list = document.createElement('ul');
+    list.className = 'sql-autocomplete';
+    suggestions.forEach((suggestion, index) => {
+        const item = document.createElement('li');
+        item.textContent = suggestion.name;
+        item.title = suggestion.table ? suggestion.table + '.' + suggestion.name : suggestion.kind.toLowerCase();
+        item.classList.add(suggestion.kind === 'TABLE' ? 'sql-autocomplete-table' : 'sql-autocomplete-column');
+        item.addEventListener('mousedown', (e) => {
+            e.preventDefault();
+            insertSqlAutocomplete(index);
+        });
+        list.appendChild(item);
+    });
+    const rect = textarea.getBoundingClientRect();
+    list.style.left = `${rect.left + window.scrollX}px`;
+    list.style.top = `${rect.bottom + window.scrollY}px`;
+    document.body.appendChild(list);
+    sqlAutocomplete.list = list;
+    sqlAutocomplete.textarea = textarea;
+    sqlAutocomplete.suggestions = suggestions;
+    selectSqlAutocomplete(0);
+}
+
+function selectSqlAutocomplete(index) {
+    const items = sqlAutocomplete.list.children;
+    sqlAutocomplete.selected = (index + items.length) % items.length;
+    Array.from(items).forEach((item, i) => item.classList.toggle('selected', i === sqlAutocomplete.selected));
+    items[sqlAutocomplete.selected].scrollIntoView({block: 'nearest'});
+}
+
+function insertSqlAutocomplete(index) {
+    const textarea = sqlAutocomplete.textarea;
+    const name = sqlAutocomplete.suggestions[index].name;
+    const word = sqlAutocompleteWord(textarea);
+    const start = textarea.selectionStart - (word.length - word.lastIndexOf('.') - 1);
+    textarea.setRangeText(name, start, textarea.selectionStart, 'end');
+    hideSqlAutocomplete();
+    // let x-model and other listeners see the new value without asking for suggestions again
+    sqlAutocomplete.inserting = true;
+    textarea.dispatchEvent(new Event('input', {bubbles: true}));
+    sqlAutocomplete.inserting = false;
+}
+
+document.addEventListener('input', (e) => {
+    const textarea = e.target;
+    if (sqlAutocomplete.inserting || !textarea.matches('textarea[data-sql-autocomplete]')) {
+        return;
+    }
+    const word = sqlAutocompleteWord(textarea);
+    const datasource = sqlAutocompleteDatasource(textarea);
+    if (word.length === 0 || word.endsWith('..') || !datasource) {
+        hideSqlAutocomplete();
+        return;
+    }
+    const request = ++sqlAutocomplete.request;
+    const params = new URLSearchParams({datasourceName: datasource, prefix: word});
+    fetch('/sql/autocomplete?' + params)
+        .then(response => response.ok ? response.json() : [])
+        .then(suggestions => {
+            // an answer to an older word arriving late is dropped
+            if (request === sqlAutocomplete.request) {
+                showSqlAutocomplete(textarea, suggestions);
+            }
+        })
+        .catch(() => hideSqlAutocomplete());
+});
+
+document.addEventListener('keydown', (e) => {
+    if (!sqlAutocomplete.list || e.target !== sqlAutocomplete.textarea) {
+        return;
+    }
+    if (e.key === 'ArrowDown' || e.key === 'ArrowUp') {
+        e.preventDefault();
+        selectSqlAutocomplete(sqlAutocomplete.selected + (e.key === 'ArrowDown' ? 1 : -1));
+    } else if (e.key === 'Enter' || e.key === 'Tab') {
+        e.preventDefault();
+        insertSqlAutocomplete(sqlAutocomplete.selected);
+    } else if (e.key === 'Escape') {
+        hideSqlAutocomplete();
+    }
+});
+
+document.addEventListener('focusout', (e) => {
+    if (e.target === sqlAutocomplete.textarea) {
+        hideSqlAutocomplete();
+    }
+});
@@ -11,8 +11,14 @@ import spock.lang.Specification
 import uk.anbu.devnotes.module.MarkdownRenderer
 import uk.anbu.devnotes.service.ConfigService
 import uk.anbu.devnotes.service.DataSourceConfig
+import uk.anbu.devnotes.service.DocsChangedEvent
+import uk.anbu.devnotes.service.DocsWatcher
+import uk.anbu.devnotes.service.LinkGraph
+import uk.anbu.devnotes.service.OutputStore
+import uk.anbu.devnotes.service.RenderedPageCache
 
 import java.nio.file.Files
+import java.nio.file.Path
 import java.nio.file.Paths
 
 class MarkdownControllerSpec extends Specification {
@@ -21,12 +27,22 @@ class MarkdownControllerSpec extends Specification {
     MarkdownRenderer markdownRenderer
     TemplateEngine templateEngine
     ConfigService configService
+    RenderedPageCache renderedPageCache
+    DocsWatcher docsWatcher
+    LinkGraph linkGraph
+    OutputStore outputStore
+    int groovyExecutions
+    Path outputFile
+    boolean outputsWritten = true
     def sqlToJsonFileResolver, sqlToHtmlTableResolver, groovyCodeBlockResolver, dataSourceConfigResolver
 
     def setup() {
         sqlToJsonFileResolver = x -> Paths.get("src/test/resources/sql-result.json")
         sqlToHtmlTableResolver = x -> "html-table"
-        groovyCodeBlockResolver = x -> new Text("groovy-code-block")
+        groovyCodeBlockResolver = x -> {
+            groovyExecutions++
+            new Text("groovy-code-block")
+        }
         dataSourceConfigResolver = x -> new DataSourceConfig("testDB", "jdbc:test:url", "testUser", "testPass", "org.test.Driver")
         markdownRenderer = new MarkdownRenderer(sqlToJsonFileResolver,
                 sqlToHtmlTableResolver,
@@ -35,7 +51,23 @@ class MarkdownControllerSpec extends Specification {
         var codeResolver = new DirectoryCodeResolver(Paths.get("src/main/jte"))
         templateEngine =  TemplateEngine.create(codeResolver, Paths.get("src/main/jte"), ContentType.Html)
         configService = Mock(ConfigService)
-        controller = new MarkdownController(markdownRenderer, templateEngine, configService)
+        configService.getRenderCacheMaxEntries() >> 256
+        configService.getRenderCacheMaxSizeMb() >> 64
+        renderedPageCache = new RenderedPageCache(configService)
+        docsWatcher = Mock(DocsWatcher)
+        linkGraph = Mock(LinkGraph)
+        outputStore = Mock(OutputStore)
+        // every code block shares one output file, or has none once the blocks are to fail
+        outputFile = Files.createTempFile("test", ".output")
+        outputStore.path(_, _) >> { String page, String hash ->
+            outputsWritten ? outputFile : outputFile.resolveSibling(page + "." + hash + ".output")
+        }
+        controller = new MarkdownController(markdownRenderer, templateEngine, configService, renderedPageCache,
+                docsWatcher, linkGraph, outputStore)
+    }
+
+    def cleanup() {
+        Files.deleteIfExists(outputFile)
     }
 
     def "markdown() should redirect to index.md when filename is null"() {
@@ -119,6 +151,26 @@ class MarkdownControllerSpec extends Specification {
         tempDirectory.deleteDir()
     }
 
+    def "markdown() should record the links of a rendered page"() {
+        given:
+        def tempDirectory = Files.createTempDirectory("test").toFile()
+        new File(tempDirectory, "team").mkdirs()
+        Files.write(new File(tempDirectory, "team/page.md").toPath(),
+                "[runbook](team/runbook.md) and ![diagram](diagram.png) on [the wiki](https://wiki.example.com)".bytes)
+        configService.getDocsDirectory() >> tempDirectory.absolutePath
+
+        when:
+        controller.markdown("team/page.md", false)
+
+        then:
+        1 * linkGraph.pageRendered("team/page.md", [
+                new MarkdownRenderer.PageLink("team/runbook.md", "team/runbook.md", false),
+                new MarkdownRenderer.PageLink("diagram.png", "team/diagram.png", true)])
+
+        cleanup:
+        tempDirectory.deleteDir()
+    }
+
     def "createNewMarkdown() should create a new markdown file"() {
         given:
         def tempDir = Files.createTempDirectory("test")
@@ -176,4 +228,109 @@ class MarkdownControllerSpec extends Specification {
         cleanup:
         Files.deleteIfExists(tempFile)
     }
-}
\ No newline at end of file
+
+    def "markdown() should serve an unchanged page from the render cache"() {
+        given:
+        def tempFile = Files.createTempFile("test", ".md")
+        configService.getDocsDirectory() >> tempFile.toFile().parentFile.absolutePath
+        Files.write(tempFile, "# Test\n```groovy:text\n1 + 1\n```".getBytes())
+
+        when:
+        def first = controller.markdown(tempFile.fileName.toString(), false)
+        def second = controller.markdown(tempFile.fileName.toString(), false)
+        Files.write(tempFile, "# Changed".getBytes())
+        def third = controller.markdown(tempFile.fileName.toString(), false)
+
+        then:
+        groovyExecutions == 1
+        first.body == second.body
+        Jsoup.parse(third.body.toString()).select("h1").text() == "Changed"
+        renderedPageCache.stats().hits() == 1
+        renderedPageCache.stats().misses() == 2
+
+        cleanup:
+        Files.deleteIfExists(tempFile)
+    }
+
+    def "markdown() should render a page again while the output of one of its code blocks is missing"() {
+        given:
+        def tempFile = Files.createTempFile("test", ".md")
+        configService.getDocsDirectory() >> tempFile.toFile().parentFile.absolutePath
+        docsWatcher.isWatchingAll() >> true
+        Files.write(tempFile, "# Test\n```groovy:text\n1 + 1\n```".getBytes())
+        outputsWritten = false
+
+        when:
+        controller.markdown(tempFile.fileName.toString(), false)
+        controller.markdown(tempFile.fileName.toString(), false)
+
+        then:
+        groovyExecutions == 2
+        renderedPageCache.stats().entries() == 0
+
+        cleanup:
+        Files.deleteIfExists(tempFile)
+    }
+
+    def "markdown() should serve a watched page without reading it until its file is reported changed"() {
+        given:
+        def tempFile = Files.createTempFile("test", ".md")
+        configService.getDocsDirectory() >> tempFile.toFile().parentFile.absolutePath
+        docsWatcher.isWatchingAll() >> true
+        Files.write(tempFile, "# Test".getBytes())
+
+        when:
+        controller.markdown(tempFile.fileName.toString(), false)
+        Files.write(tempFile, "# Changed".getBytes())
+        def beforeEvent = controller.markdown(tempFile.fileName.toString(), false)
+        renderedPageCache.onDocsChanged(new DocsChangedEvent(Set.of(tempFile.toAbsolutePath().normalize()), false))
+        def afterEvent = controller.markdown(tempFile.fileName.toString(), false)
+
+        then:
+        Jsoup.parse(beforeEvent.body.toString()).select("h1").text() == "Test"
+        Jsoup.parse(afterEvent.body.toString()).select("h1").text() == "Changed"
+
+        cleanup:
+        Files.deleteIfExists(tempFile)
+    }
+
+    def "markdown() should read a page in a hidden directory even while the watcher covers the docs directory"() {
+        given:
+        def docsDirectory = Files.createTempDirectory("docs")
+        def hiddenDirectory = Files.createDirectory(docsDirectory.resolve(".drafts"))
+        def markdownFile = hiddenDirectory.resolve("draft.md")
+        configService.getDocsDirectory() >> docsDirectory.toString()
+        docsWatcher.isWatchingAll() >> true
+        Files.write(markdownFile, "# Test".getBytes())
+
+        when:
+        controller.markdown(".drafts/draft.md", false)
+        Files.write(markdownFile, "# Changed".getBytes())
+        def afterChange = controller.markdown(".drafts/draft.md", false)
+
+        then:
+        Jsoup.parse(afterChange.body.toString()).select("h1").text() == "Changed"
+
+        cleanup:
+        docsDirectory.toFile().deleteDir()
+    }
+
+    def "saveMarkdown() should drop the page from the render cache"() {
+        given:
+        def tempFile = Files.createTempFile("test", ".md")
+        configService.getDocsDirectory() >> tempFile.toFile().parentFile.absolutePath
+        docsWatcher.isWatchingAll() >> true
+        Files.write(tempFile, "# Test".getBytes())
+
+        when:
+        controller.markdown(tempFile.fileName.toString(), false)
+        controller.saveMarkdown(tempFile.fileName.toString(), false, "# Saved")
+        def afterSave = controller.markdown(tempFile.fileName.toString(), false)
+
+        then:
+        Jsoup.parse(afterSave.body.toString()).select("h1").text() == "Saved"
+
+        cleanup:
+        Files.deleteIfExists(tempFile)
+    }
+}
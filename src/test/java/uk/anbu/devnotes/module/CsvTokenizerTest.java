@@ -0,0 +1,64 @@
+package uk.anbu.devnotes.module;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvTokenizerTest {
+
+    @Test
+    void testPlainRecords() throws IOException {
+        assertEquals(List.of(List.of("a", "b", "c"), List.of("1", "", "3")), records("a,b,c\n1,,3\n"));
+        assertEquals(List.of(List.of("a", "b"), List.of("1", "2")), records("a,b\r\n1,2"));
+        assertEquals(List.of(List.of("a", ""), List.of(""), List.of("b")), records("a,\n\nb\n"));
+        assertEquals(List.of(), records(""));
+    }
+
+    @Test
+    void testQuotedFields() throws IOException {
+        assertEquals(List.of(List.of("Smith, John", "said \"hi\"", ""), List.of("x")),
+                records("\"Smith, John\",\"said \"\"hi\"\"\",\"\"\nx"));
+        assertEquals(List.of(List.of("line 1\r\nline 2", "b")), records("\"line 1\r\nline 2\",b\r\n"));
+        assertEquals(List.of(List.of("unclosed,\n")), records("\"unclosed,\n"));
+        assertEquals(List.of(List.of("5\" disk", "b")), records("5\" disk,b"));
+    }
+
+    @Test
+    void testFieldsLongerThanTheBuffer() throws IOException {
+        String longField = "x".repeat(20000);
+
+        assertEquals(List.of(List.of(longField, "\"" + longField), List.of("end")),
+                records(longField + ",\"\"\"" + longField + "\"\r\nend"));
+    }
+
+    @Test
+    void testByteOffsetsOfRecords() throws IOException {
+        String csv = "ä,\"€\r\n\"\r\n\uD83D\uDE00,b\nlast";
+        var tokenizer = new CsvTokenizer(new StringReader(csv), 10);
+
+        tokenizer.nextRecord();
+        long second = tokenizer.byteOffset();
+        tokenizer.nextRecord();
+        long third = tokenizer.byteOffset();
+        tokenizer.nextRecord();
+
+        assertEquals(10 + "ä,\"€\r\n\"\r\n".getBytes(UTF_8).length, second);
+        assertEquals(second + "\uD83D\uDE00,b\n".getBytes(UTF_8).length, third);
+        assertEquals(10 + csv.getBytes(UTF_8).length, tokenizer.byteOffset());
+    }
+
+    private static List<List<String>> records(String csv) throws IOException {
+        var tokenizer = new CsvTokenizer(new StringReader(csv));
+        List<List<String>> records = new ArrayList<>();
+        for (List<String> record; (record = tokenizer.nextRecord()) != null; ) {
+            records.add(record);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,161 @@
+package uk.anbu.devnotes.module;
+
+import org.commonmark.node.HtmlBlock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.OutputStore;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroovyExecutorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private GroovyExecutor groovyExecutor;
+
+    @AfterEach
+    void tearDown() {
+        groovyExecutor.shutdown();
+    }
+
+    @Test
+    void testScriptIsCompiledOnce() {
+        groovyExecutor = groovyExecutor(new ConfigService());
+
+        assertEquals("6", groovyExecutor.executeGroovyScript("[1, 2, 3].sum()"));
+        assertSame(groovyExecutor.compile("[1, 2, 3].sum()"), groovyExecutor.compile("[1, 2, 3].sum()"));
+    }
+
+    @Test
+    void testEachRunHasItsOwnBinding() {
+        groovyExecutor = groovyExecutor(new ConfigService());
+        String script = "count = binding.hasVariable('count') ? count + 1 : 1";
+
+        assertEquals("1", groovyExecutor.executeGroovyScript(script));
+        assertEquals("1", groovyExecutor.executeGroovyScript(script));
+    }
+
+    @Test
+    void testLeastRecentlyUsedScriptIsEvicted() {
+        var configService = new ConfigService();
+        configService.setGroovyCacheMaxEntries(2);
+        groovyExecutor = groovyExecutor(configService);
+
+        var first = groovyExecutor.compile("1");
+        var second = groovyExecutor.compile("2");
+        assertSame(first, groovyExecutor.compile("1"));
+        groovyExecutor.compile("3");
+
+        assertSame(first, groovyExecutor.compile("1"));
+        assertNotSame(second, groovyExecutor.compile("2"));
+    }
+
+    @Test
+    void testFailedScriptIsRenderedAsErrorBlockAndNotSaved() {
+        var configService = new ConfigService();
+        configService.setDocsDirectory(tempDir.toString());
+        groovyExecutor = groovyExecutor(configService);
+
+        var block = (HtmlBlock) groovyExecutor.processGroovyCodeBlock(new GroovyExecutor.GroovyCodeBlockRequest(
+                "throw new IllegalStateException('<broken>')", "text", "page.md"));
+
+        assertEquals("<div class=\"groovy-error\"><strong>Groovy script failed</strong>"
+                + "<pre>&lt;broken&gt;</pre></div>", block.getLiteral());
+        assertEquals(0, tempDir.toFile().list().length);
+        var compileError = assertThrows(GroovyExecutor.GroovyScriptException.class,
+                () -> groovyExecutor.executeGroovyScript("def x = "));
+        assertTrue(compileError.getCause().getMessage().startsWith("startup failed"));
+    }
+
+    @Test
+    void testCsvTableIsRenderedAPageAtATime() throws Exception {
+        var configService = new ConfigService();
+        configService.setDocsDirectory(tempDir.toString());
+        configService.setSqlPageSize(2);
+        configService.setGroovyCsvMaxRows(5);
+        groovyExecutor = groovyExecutor(configService);
+        String script = "'name,note\\n' + (1..7).collect { \"row $it,\\\"<$it>, quoted\\\"\" }.join('\\n')";
+
+        var block = (HtmlBlock) groovyExecutor.processGroovyCodeBlock(new GroovyExecutor.GroovyCodeBlockRequest(
+                script, "csv-table-with-header", "notes/page.md"));
+
+        String outputFileName = Path.of(MarkdownRenderer.generateOutputFileName(tempDir.toString(), "notes/page.md",
+                script)).getFileName().toString();
+        assertEquals("<table class=\"groovy-csv\"><tr><th>name</th><th>note</th></tr>"
+                + "<tr><td>row 1</td><td>&lt;1&gt;, quoted</td></tr><tr><td>row 2</td><td>&lt;2&gt;, quoted</td></tr>"
+                + "<tr class=\"groovy-csv-more\" hx-get=\"/groovyResult/page?markdownFileName=notes%2Fpage.md&amp;"
+                + "outputFileName=" + outputFileName + "&amp;header=true&amp;offset=2&amp;byteOffset=50&amp;"
+                + "columns=2\" hx-trigger=\"revealed\" hx-swap=\"outerHTML\">"
+                + "<td colspan=\"2\">more rows...</td></tr></table>",
+                block.getLiteral());
+        assertEquals("<tr><td>row 3</td><td>&lt;3&gt;, quoted</td></tr><tr><td>row 4</td><td>&lt;4&gt;, quoted</td></tr>"
+                        + "<tr class=\"groovy-csv-more\" hx-get=\"/groovyResult/page?markdownFileName=notes%2Fpage.md&amp;"
+                        + "outputFileName=" + outputFileName + "&amp;header=true&amp;offset=4&amp;byteOffset=90&amp;"
+                        + "columns=2\" hx-trigger=\"revealed\" hx-swap=\"outerHTML\">"
+                        + "<td colspan=\"2\">more rows...</td></tr>",
+                groovyExecutor.renderCsvPage("notes/page.md", outputFileName, true, 2, 50, 2));
+        String lastPage = "<tr><td>row 5</td><td>&lt;5&gt;, quoted</td></tr>"
+                + "<tr class=\"groovy-csv-more\"><td colspan=\"2\">Only the first 5 rows are shown</td></tr>";
+        assertEquals(lastPage, groovyExecutor.renderCsvPage("notes/page.md", outputFileName, true, 4, 90, 2));
+        // without a byte offset the records before the page are read again
+        assertEquals(lastPage, groovyExecutor.renderCsvPage("notes/page.md", outputFileName, true, 4, 0, 1));
+        // a page that starts at the limit has no row to take the width from
+        assertEquals("<tr class=\"groovy-csv-more\"><td colspan=\"2\">Only the first 5 rows are shown</td></tr>",
+                groovyExecutor.renderCsvPage("notes/page.md", outputFileName, true, 5, 110, 2));
+    }
+
+    @Test
+    void testSleepingScriptIsCancelled() {
+        groovyExecutor = groovyExecutor(withLimits(1, 0));
+
+        assertCancelled("Groovy script timed out after 1 seconds", "Thread.sleep(30000)");
+    }
+
+    @Test
+    void testEndlessLoopIsInterrupted() {
+        groovyExecutor = groovyExecutor(withLimits(1, 0));
+
+        assertCancelled("Groovy script timed out after 1 seconds", "long n = 0; while (true) { n++ }");
+    }
+
+    @Test
+    void testScriptBeyondAllocationBudgetIsCancelled() {
+        groovyExecutor = groovyExecutor(withLimits(30, 16));
+
+        assertCancelled("Groovy script allocated more than 16 MB",
+                "def list = []; while (true) { list << new byte[1024]; if (list.size() > 1000) list = [] }");
+    }
+
+    private GroovyExecutor groovyExecutor(ConfigService configService) {
+        configService.setCacheDirectory(tempDir.resolve("cache").toString());
+        return new GroovyExecutor(configService, new OutputStore(configService, event -> {
+        }));
+    }
+
+    private static ConfigService withLimits(int timeoutSeconds, int allocationBudgetMb) {
+        var configService = new ConfigService();
+        configService.setGroovyThreads(1);
+        configService.setGroovyTimeoutSeconds(timeoutSeconds);
+        configService.setGroovyAllocationBudgetMb(allocationBudgetMb);
+        return configService;
+    }
+
+    private void assertCancelled(String expectedMessage, String script) {
+        long start = System.currentTimeMillis();
+        var e = assertThrows(GroovyExecutor.GroovyScriptException.class,
+                () -> groovyExecutor.executeGroovyScript(script));
+        assertEquals(expectedMessage, e.getMessage());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        // the cancelled script stopped and gave its only thread back
+        assertEquals("ok", groovyExecutor.executeGroovyScript("'ok'"));
+    }
+}
@@ -0,0 +1,101 @@
+package uk.anbu.devnotes.module;
+
+import org.commonmark.node.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.anbu.devnotes.service.DataSourceConfig;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time and allocation per render of large markdown documents. The code block resolvers are stubs, so only
+ * the parsing, the tree processing and the html rendering are measured.
+ * <p>
+ * Run {@link #main} after {@code mvn test-compile}, it reports {@code gc.alloc.rate.norm} in bytes per render.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkdownRendererBenchmark {
+
+    private static final int CORPUS_SIZE = 4;
+
+    @Param({"50", "250", "2500"})
+    private int sectionsPerDocument;
+
+    private MarkdownRenderer renderer;
+    private List<String> corpus;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        var dataSourceConfig = new DataSourceConfig("db", "jdbc:test:url", "user", "pass", "org.test.Driver");
+        renderer = new MarkdownRenderer(
+                request -> Path.of("notes.0123456789abcdef.output"),
+                request -> "<table><tr><td>result</td></tr></table>",
+                request -> new Text("groovy result"),
+                name -> dataSourceConfig);
+        corpus = new ArrayList<>();
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            corpus.add(generateDocument(i, sectionsPerDocument));
+        }
+    }
+
+    @Benchmark
+    public String render() {
+        String markdown = corpus.get(next++ % CORPUS_SIZE);
+        return renderer.convertMarkdown(markdown, "team/runbooks/notes.md");
+    }
+
+    static String generateDocument(int seed, int sections) {
+        StringBuilder markdown = new StringBuilder();
+        markdown.append("# Runbook ").append(seed).append("\n\n");
+        for (int i = 0; i < sections; i++) {
+            markdown.append("## Section ").append(i).append("\n\n")
+                    .append("Settlement breaks for *desk ").append(i % 7).append("* are listed in ")
+                    .append("[the breaks page](breaks/desk-").append(i % 7).append(".md) and on ")
+                    .append("[the dashboard](https://dashboard.example.com/").append(i).append(").\n\n")
+                    .append("![diagram](images/diagram-").append(i).append(".png)\n\n")
+                    .append("- check the feed\n- check the `RECON_").append(i).append("` job\n\n")
+                    .append("| column | value |\n|---|---|\n| id | ").append(i).append(" |\n\n");
+            if (i % 5 == 0) {
+                markdown.append("```sql(db)\nselect * from trades where book = :book and id > ")
+                        .append(i).append("\n```\n\n");
+            }
+            if (i % 10 == 0) {
+                markdown.append("```groovy:text\n\"section ").append(i).append("\"\n```\n\n");
+            }
+            if (i % 3 == 0) {
+                markdown.append("```bash\ntail -f /var/log/recon-").append(i).append(".log\n```\n\n");
+            }
+        }
+        return markdown.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MarkdownRendererBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,228 @@
+package uk.anbu.devnotes.module;
+
+import org.commonmark.node.Text;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.DataSourceConfig;
+import uk.anbu.devnotes.service.DataSourcePermits;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MarkdownRendererTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final DataSourcePermits dataSourcePermits = dataSourcePermits(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testCodeBlocksOfDifferentDataSourcesRunConcurrently() {
+        var bothStarted = new CountDownLatch(2);
+        var ranConcurrently = new AtomicBoolean(true);
+        var renderer = new MarkdownRenderer(
+                request -> {
+                    bothStarted.countDown();
+                    try {
+                        if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                            ranConcurrently.set(false);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return Path.of(request.dataSourceConfig().name());
+                },
+                request -> "<p>result of " + request.outputPath() + "</p>",
+                request -> new Text("groovy"),
+                MarkdownRendererTest::dataSourceConfig,
+                executor, dataSourcePermits::permits);
+
+        String html = renderer.convertMarkdown("""
+                ```sql(db1)
+                select 1
+                ```
+                ```sql(db2)
+                select 2
+                ```
+                """, "test.md");
+
+        assertTrue(ranConcurrently.get(), "queries did not run concurrently");
+        assertTrue(html.indexOf("result of db1") < html.indexOf("result of db2"), html);
+    }
+
+    @Test
+    void testCodeBlocksOfOneDataSourceAreLimited() {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var renderer = new MarkdownRenderer(
+                request -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return Path.of(request.sql().trim());
+                },
+                request -> "<p>" + request.outputPath() + "</p>",
+                request -> new Text("groovy"),
+                MarkdownRendererTest::dataSourceConfig,
+                executor, dataSourcePermits::permits);
+
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            markdown.append("```sql(db1)\nselect ").append(i).append("\n```\n");
+        }
+        String html = renderer.convertMarkdown(markdown.toString(), "test.md");
+
+        assertTrue(maxRunning.get() <= 2, "max concurrent queries was " + maxRunning.get());
+        for (int i = 1; i < 8; i++) {
+            assertTrue(html.indexOf("select " + (i - 1)) < html.indexOf("select " + i), html);
+        }
+    }
+
+    @Test
+    void testConcurrentRendersShareTheLimitOfADataSource() {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var renderer = new MarkdownRenderer(
+                request -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return Path.of(request.sql().trim());
+                },
+                request -> "<p>" + request.outputPath() + "</p>",
+                request -> new Text("groovy"),
+                MarkdownRendererTest::dataSourceConfig,
+                executor, dataSourcePermits::permits);
+
+        String markdown = "```sql(db1)\nselect 1\n```\n```sql(db1)\nselect 2\n```\n";
+        var renders = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 3; i++) {
+            renders.add(CompletableFuture.supplyAsync(() -> renderer.convertMarkdown(markdown, "test.md")));
+        }
+        renders.forEach(render -> assertTrue(render.join().contains("select 2")));
+
+        assertTrue(maxRunning.get() <= 2, "max concurrent queries was " + maxRunning.get());
+    }
+
+    @Test
+    void testCodeBlocksAreNumberedInDocumentOrder() {
+        List<Integer> counters = new CopyOnWriteArrayList<>();
+        var renderer = new MarkdownRenderer(
+                request -> Path.of(request.sql().trim()),
+                request -> {
+                    counters.add(request.codeBlockCounter());
+                    return "<p>" + request.outputPath() + "</p>";
+                },
+                request -> new Text("groovy"),
+                MarkdownRendererTest::dataSourceConfig);
+
+        renderer.convertMarkdown("""
+                ```sql(db1)
+                select 1
+                ```
+                - item
+
+                  ```sql(db1)
+                  select 2
+                  ```
+                > ```text
+                > not executed
+                > ```
+
+                ```sql(db1)
+                select 4
+                ```
+                """, "test.md");
+
+        assertEquals(List.of(1, 2, 4), counters.stream().sorted().toList());
+    }
+
+    @Test
+    void testHugeDocumentRendersInConstantStack() {
+        var executedBlocks = new AtomicInteger();
+        var renderer = new MarkdownRenderer(
+                request -> Path.of("result.output"),
+                request -> {
+                    executedBlocks.incrementAndGet();
+                    return "<p>result " + request.codeBlockCounter() + "</p>";
+                },
+                request -> new Text("groovy"),
+                MarkdownRendererTest::dataSourceConfig);
+
+        // Every paragraph is a Paragraph and a Text node, every code block is followed by its result node
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < 25_000; i++) {
+            markdown.append("paragraph ").append(i).append("\n\n");
+            if (i % 1000 == 0) {
+                markdown.append("```sql(db1)\nselect ").append(i).append("\n```\n\n");
+            }
+        }
+
+        String html = renderer.convertMarkdown(markdown.toString(), "test.md");
+
+        assertEquals(25, executedBlocks.get());
+        assertTrue(html.contains("<p>paragraph 24999</p>"));
+        assertTrue(html.contains("<p>result 25</p>"));
+    }
+
+    @Test
+    void testSqlBlocksAreRegisteredWithTheirTtl() {
+        var registered = new CopyOnWriteArrayList<String>();
+        var renderer = new MarkdownRenderer(
+                request -> Path.of(request.dataSourceConfig().name()),
+                request -> "<p>result of " + request.outputPath() + "</p>",
+                request -> new Text("groovy"),
+                MarkdownRendererTest::dataSourceConfig,
+                executor, dataSourcePermits::permits,
+                (request, ttl) -> registered.add(request.sql().strip() + " " + ttl));
+
+        String html = renderer.convertMarkdown("""
+                ```sql(db1, ttl=10m)
+                select 1
+                ```
+                ```sql(db2)
+                select 2
+                ```
+                ```sql(db1, ttl=10x)
+                select 3
+                ```
+                """, "test.md");
+
+        assertEquals(List.of("select 1 PT10M", "select 2 null"), registered.stream().sorted().toList());
+        assertTrue(html.contains("result of db1"), html);
+        assertTrue(html.contains("Error: Invalid ttl '10x'"), html);
+    }
+
+    private static DataSourcePermits dataSourcePermits(int maxConcurrentPerDataSource) {
+        var configService = new ConfigService();
+        configService.setSqlMaxConcurrentPerDataSource(maxConcurrentPerDataSource);
+        return new DataSourcePermits(configService);
+    }
+
+    private static DataSourceConfig dataSourceConfig(String name) {
+        return new DataSourceConfig(name, "jdbc:test:url", "user", "pass", "org.test.Driver");
+    }
+}
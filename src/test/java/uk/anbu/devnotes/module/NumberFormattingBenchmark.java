@@ -0,0 +1,74 @@
+package uk.anbu.devnotes.module;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time and allocation of formatting the numeric cells of a result table, one invocation formats a column
+ * of {@link #CELLS} values.
+ * <p>
+ * Run {@link #main} after {@code mvn test-compile}, it reports {@code gc.alloc.rate.norm} in bytes per column.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NumberFormattingBenchmark {
+
+    private static final int CELLS = 1000;
+
+    @Param({"integer", "long", "bigDecimal", "extremeExponent"})
+    private String input;
+
+    private Number[] values;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        values = new Number[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            values[i] = switch (input) {
+                case "integer" -> random.nextInt();
+                case "long" -> random.nextLong() / 1000;
+                case "bigDecimal" -> BigDecimal.valueOf(random.nextLong() / 1000, 4);
+                default -> new BigDecimal(BigDecimal.valueOf(random.nextInt(1000) + 1).unscaledValue(),
+                        (i % 2 == 0 ? 1 : -1) * (20 + random.nextInt(40)));
+            };
+        }
+    }
+
+    @Benchmark
+    public void formatColumn(Blackhole blackhole) {
+        for (Number value : values) {
+            blackhole.consume(SqlExecutor.humanReadableNumber(value));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NumberFormattingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,93 @@
+package uk.anbu.devnotes.module;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResultColumnTest {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    @Test
+    void testSortIntegers() {
+        var column = column("java.lang.Integer", 3, 1, 2);
+
+        assertArrayEquals(new int[]{1, 2, 0}, column.ascendingOrder());
+    }
+
+    @Test
+    void testSortStringsDescending() {
+        var column = column("java.lang.String", "Charlie", "Alice", "Bob");
+
+        assertArrayEquals(new int[]{0, 2, 1}, SqlExecutor.pageRows(3, 0, 3, column.ascendingOrder(), true));
+    }
+
+    @Test
+    void testSortDoubles() {
+        var column = column("java.lang.Double", 3.5, 1.2, 2.8);
+
+        assertArrayEquals(new int[]{1, 2, 0}, column.ascendingOrder());
+    }
+
+    @Test
+    void testSortNullValuesFirst() {
+        var column = column("java.lang.String", "Alice", null, "Bob");
+
+        assertArrayEquals(new int[]{1, 0, 2}, column.ascendingOrder());
+        assertArrayEquals(new int[]{2, 0, 1}, SqlExecutor.pageRows(3, 0, 3, column.ascendingOrder(), true));
+    }
+
+    @Test
+    void testSortTimestamps() {
+        var column = column("java.sql.Timestamp", "2023-05-01 10:00:00", "2023-05-01 09:00:00",
+                "2023-05-01 11:00:00");
+        // as written by the json format, epoch millis or ISO-8601 depending on the ObjectMapper
+        var jsonColumn = column("java.sql.Timestamp", "2023-05-01T08:00:00.000+00:00", 1682910000000L,
+                "2023-05-01T09:30:00.000+01:00");
+
+        assertArrayEquals(new int[]{1, 0, 2}, column.ascendingOrder());
+        assertArrayEquals(new int[]{1, 0, 2}, jsonColumn.ascendingOrder());
+    }
+
+    @Test
+    void testSortDecimalsNumerically() {
+        var column = column("java.math.BigDecimal", new BigDecimal("10.5"), new BigDecimal("9.75"),
+                new BigDecimal("-1"));
+
+        assertArrayEquals(new int[]{2, 1, 0}, column.ascendingOrder());
+    }
+
+    @Test
+    void testEqualValuesKeepFileOrder() {
+        var column = column("java.lang.Long", 2, 1, 2, 1, 2);
+
+        assertArrayEquals(new int[]{1, 3, 0, 2, 4}, column.ascendingOrder());
+    }
+
+    @Test
+    void testPageRowsOfSortedOrder() {
+        var column = column("java.lang.Integer", 5, 4, 3, 2, 1, 0);
+
+        assertEquals(List.of(3, 2), Arrays.stream(SqlExecutor.pageRows(6, 2, 2, column.ascendingOrder(), false))
+                .boxed().toList());
+        assertEquals(List.of(2, 3), Arrays.stream(SqlExecutor.pageRows(6, 2, 2, column.ascendingOrder(), true))
+                .boxed().toList());
+        assertEquals(0, SqlExecutor.pageRows(6, 10, 2, null, false).length);
+    }
+
+    private static ResultColumn column(String javaClass, Object... values) {
+        var objectMapper = new ObjectMapper();
+        var column = new ResultColumn(javaClass, values.length);
+        for (int row = 0; row < values.length; row++) {
+            column.set(row, values[row] == null ? NODES.nullNode() : objectMapper.valueToTree(values[row]));
+        }
+        return column;
+    }
+}
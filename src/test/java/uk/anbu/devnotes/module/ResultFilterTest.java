@@ -0,0 +1,93 @@
+package uk.anbu.devnotes.module;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultFilterTest {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+    private static final List<String> COLUMNS = List.of("NAME", "AMOUNT", "CREATED");
+    private static final Map<String, ResultColumn> VALUES = Map.of(
+            "NAME", column("java.lang.String", "Alice Smith", "Bob", null, "alice"),
+            "AMOUNT", column("java.lang.Integer", 10, 25, 5, null),
+            "CREATED", column("java.sql.Timestamp", "2024-02-28 10:00:00", "2024-03-01 00:00:00",
+                    "2024-03-02 09:30:00", "2024-01-15 12:00:00"));
+
+    @Test
+    void testEmptyFilterMatchesEverything() {
+        assertTrue(ResultFilter.parse("  ").isEmpty());
+        assertTrue(ResultFilter.parse(null).isEmpty());
+    }
+
+    @Test
+    void testBareWordsSearchAllColumnsIgnoringCase() {
+        assertEquals(List.of(0, 3), matches("ALICE"));
+        assertEquals(List.of(1), matches("25"));
+        assertEquals(List.of(0), matches("alice smith"));
+    }
+
+    @Test
+    void testEqualsAndContains() {
+        assertEquals(List.of(0, 3), matches("name~ALICE"));
+        assertEquals(List.of(3), matches("NAME=Alice"));
+        assertEquals(List.of(0), matches("NAME=\"alice smith\""));
+        assertEquals(List.of(0, 1, 3), matches("NAME!=(null)"));
+        assertEquals(List.of(0, 1), matches("NAME!=alice"));
+    }
+
+    @Test
+    void testRangesCompareTypedValues() {
+        // compared as numbers, "5" would sort after "25" as text
+        assertEquals(List.of(0, 1), matches("AMOUNT>5"));
+        assertEquals(List.of(0, 2), matches("AMOUNT<=10"));
+        assertEquals(List.of(1, 2), matches("CREATED>=2024-03-01"));
+        assertEquals(List.of(0), matches("CREATED>2024-02-01 CREATED<\"2024-03-01 00:00:00\""));
+    }
+
+    @Test
+    void testIsNull() {
+        assertEquals(List.of(2), matches("NAME=(null)"));
+        assertEquals(List.of(3), matches("AMOUNT=(null)"));
+    }
+
+    @Test
+    void testFilteredPageRowsFollowSortOrder() {
+        BitSet matching = ResultFilter.parse("AMOUNT!=(null)").matchingRows(4, COLUMNS, VALUES::get);
+        int[] ascendingOrder = VALUES.get("AMOUNT").ascendingOrder();
+
+        assertEquals(List.of(1, 0), Arrays.stream(SqlExecutor.pageRows(4, 0, 2, ascendingOrder, true, matching))
+                .boxed().toList());
+        assertEquals(List.of(2), Arrays.stream(SqlExecutor.pageRows(4, 2, 2, ascendingOrder, true, matching))
+                .boxed().toList());
+    }
+
+    @Test
+    void testInvalidFilters() {
+        assertThrows(ResultFilter.InvalidFilterException.class, () -> matches("PRICE>10"));
+        assertThrows(ResultFilter.InvalidFilterException.class, () -> matches("AMOUNT>ten"));
+        assertThrows(ResultFilter.InvalidFilterException.class, () -> matches("CREATED<yesterday"));
+    }
+
+    private static List<Integer> matches(String filter) {
+        return ResultFilter.parse(filter).matchingRows(4, COLUMNS, VALUES::get).stream().boxed().toList();
+    }
+
+    private static ResultColumn column(String javaClass, Object... values) {
+        var objectMapper = new ObjectMapper();
+        var column = new ResultColumn(javaClass, values.length);
+        for (int row = 0; row < values.length; row++) {
+            column.set(row, values[row] == null ? NODES.nullNode() : objectMapper.valueToTree(values[row]));
+        }
+        return column;
+    }
+}
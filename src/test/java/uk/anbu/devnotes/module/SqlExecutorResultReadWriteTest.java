@@ -3,7 +3,7 @@ package uk.anbu.devnotes.module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import gg.jte.ContentType;
 import gg.jte.TemplateEngine;
-import gg.jte.resolve.ResourceCodeResolver;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.h2.tools.RunScript;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -12,13 +12,23 @@ import org.junit.jupiter.api.io.TempDir;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import uk.anbu.devnotes.service.ConfigService;
 import uk.anbu.devnotes.service.DataSourceConfig;
+import uk.anbu.devnotes.service.DataSourceRegistry;
+import uk.anbu.devnotes.service.OutputStore;
+import uk.anbu.devnotes.service.RunningQueryRegistry;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,6 +36,8 @@ public class SqlExecutorResultReadWriteTest {
     private ConfigService configService;
     private TemplateEngine templateEngine;
     private SqlExecutor sqlExecutor;
+    private DataSourceRegistry dataSourceRegistry;
+    private RunningQueryRegistry runningQueryRegistry;
 
     @TempDir
     Path tempDir;
@@ -38,13 +50,18 @@ public class SqlExecutorResultReadWriteTest {
         configService = new ConfigService();
         configService.setDocsDirectory(tempDir.toString());
         configService.setSqlMaxRows(1000);
+        configService.setCacheDirectory(tempDir.resolve("cache").toString());
 
         // Set up TemplateEngine
-        templateEngine = TemplateEngine.create(new ResourceCodeResolver("jte"), ContentType.Html);
+        templateEngine = TemplateEngine.createPrecompiled(ContentType.Html);
 
         // Set up SqlExecutor
         ObjectMapper objectMapper = new ObjectMapper();
-        sqlExecutor = new SqlExecutor(objectMapper, templateEngine, configService);
+        dataSourceRegistry = new DataSourceRegistry(configService);
+        runningQueryRegistry = new RunningQueryRegistry();
+        sqlExecutor = new SqlExecutor(objectMapper, templateEngine, configService, dataSourceRegistry,
+                runningQueryRegistry, new OutputStore(configService, event -> {
+                }));
 
         // Set up H2 in-memory database
         dataSource = new DriverManagerDataSource();
@@ -66,6 +83,7 @@ public class SqlExecutorResultReadWriteTest {
 
     @AfterEach
     void tearDown() throws SQLException {
+        dataSourceRegistry.closeAll();
         // Drop the test table
         try (Connection conn = dataSource.getConnection()) {
             RunScript.execute(conn, new StringReader("DROP TABLE IF EXISTS test_table;"));
@@ -120,4 +138,355 @@ public class SqlExecutorResultReadWriteTest {
         assertEquals("Test3", secondRow.get("NAME"));
         assertEquals(new SqlExecutor.HumanReadableNumber("30.9"), secondRow.get("AMOUNT"));
     }
+
+    @Test
+    void testWriteAndReadBackColumnar() throws Exception {
+        configService.setSqlOutputFormat("columnar");
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        try (Connection conn = dataSource.getConnection()) {
+            RunScript.execute(conn, new StringReader(
+                    "INSERT INTO test_table VALUES (4, NULL, NULL);" +
+                            "INSERT INTO test_table VALUES (5, 'Test2', 1234567.25);"));
+        }
+
+        String sql = "SELECT t.*, TIMESTAMP '2024-03-01 10:15:30.123456' AS created FROM test_table t " +
+                "WHERE id > :minId ORDER BY id";
+        Map<String, String> parameterValues = Map.of("minId", "1");
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, parameterValues, "test.md", false));
+
+        assertEquals(SqlOutputFormat.COLUMNAR, SqlOutputFormat.of(outputPath));
+        SqlResult result = sqlExecutor.getResult(new SqlExecutor.HtmlTableRequest(sql, outputPath, parameterValues,
+                dataSourceConfig.name(), "test.md", 1));
+
+        assertEquals(sql, result.getSql().sqlText());
+        assertEquals("1", result.getSql().parameters().get("minId"));
+        assertEquals("testDB", result.getDatasourceName());
+        assertEquals(4, result.getRowCount());
+        assertEquals("CREATED", result.getData().metadata().get(3).name());
+        assertEquals("java.sql.Timestamp", result.getData().metadata().get(3).javaClass());
+
+        var rows = result.getData().rowData();
+        assertEquals(new SqlExecutor.HumanReadableNumber("2"), rows.get(0).get("ID"));
+        assertEquals("Test2", rows.get(0).get("NAME"));
+        assertEquals(new SqlExecutor.HumanReadableNumber("20.7"), rows.get(0).get("AMOUNT"));
+        assertEquals("2024-03-01 10:15:30.123456", rows.get(0).get("CREATED"));
+        assertEquals("(null)", rows.get(2).get("NAME"));
+        assertEquals("(null)", rows.get(2).get("AMOUNT"));
+        assertEquals(new SqlExecutor.HumanReadableNumber("1,234,567.25"), rows.get(3).get("AMOUNT"));
+    }
+
+    @Test
+    void testColumnarWindowDecodesOnlyRequestedRows() throws Exception {
+        configService.setSqlOutputFormat("columnar");
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        String sql = "SELECT X AS N, 'row ' || MOD(X, 3) AS LABEL FROM SYSTEM_RANGE(1, 500)";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+
+        var file = ColumnarResultFile.open(outputPath);
+        SqlResult page = SqlExecutor.getColumnarResult(file, 100, 50);
+
+        assertEquals(500, file.rowCount());
+        assertEquals(50, page.getRowCount());
+        assertEquals(new SqlExecutor.HumanReadableNumber("101"), page.getData().rowData().get(0).get("N"));
+        assertEquals("row 2", page.getData().rowData().get(0).get("LABEL"));
+        assertEquals(ColumnarResultFile.Encoding.STRING, file.columns().get(1).encoding());
+    }
+
+    @Test
+    void testColumnarStringsPastTheDictionaryLookupAreReadBack() throws Exception {
+        configService.setSqlOutputFormat("columnar");
+        configService.setSqlMaxRows(ColumnarResultWriter.MAX_DICTIONARY_LOOKUP + 100);
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        int rowCount = ColumnarResultWriter.MAX_DICTIONARY_LOOKUP + 10;
+        // every value is distinct up to the lookup limit, the rows after it repeat values seen past the limit
+        String sql = "SELECT X AS N, 'value ' || LEAST(X, " + (rowCount - 5) + ") AS LABEL FROM SYSTEM_RANGE(1, "
+                + rowCount + ")";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+
+        var file = ColumnarResultFile.open(outputPath);
+        var rows = SqlExecutor.getColumnarResult(file, rowCount - 10, 10).getData().rowData();
+
+        assertEquals(rowCount, file.rowCount());
+        assertEquals("value " + (rowCount - 9), rows.get(0).get("LABEL"));
+        assertEquals("value " + (rowCount - 5), rows.get(9).get("LABEL"));
+    }
+
+    @Test
+    void testSortedColumnarPageLeavesOutputUntouched() throws Exception {
+        configService.setSqlOutputFormat("columnar");
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        try (Connection conn = dataSource.getConnection()) {
+            RunScript.execute(conn, new StringReader("INSERT INTO test_table VALUES (4, 'Test4', NULL);"));
+        }
+        String sql = "SELECT * FROM test_table";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+        byte[] output = Files.readAllBytes(outputPath);
+
+        var rows = sqlExecutor.getResultPage(outputPath, 0, 10, "AMOUNT", "desc").getData().rowData();
+
+        assertEquals(List.of("Test3", "Test2", "Test1", "Test4"), rows.stream().map(row -> row.get("NAME")).toList());
+        assertArrayEquals(output, Files.readAllBytes(outputPath));
+    }
+
+    @Test
+    void testFilterComposesWithSortAndPages() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        String sql = "SELECT X AS N, 'row ' || X AS LABEL FROM SYSTEM_RANGE(1, 500)";
+        for (String format : List.of("json", "columnar")) {
+            configService.setSqlOutputFormat(format);
+            Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(
+                    dataSourceConfig, sql, Map.of(), format + ".md", false));
+
+            SqlResult page = sqlExecutor.getResultPage(outputPath, 2, 3, "N", "desc", "N<=100 label~5");
+
+            // rows 5, 15, 25, ..., 95 and 50 to 59
+            assertEquals(19, page.getTotalRowCount(), format);
+            assertEquals(500, page.getUnfilteredRowCount(), format);
+            assertEquals(List.of("row 75", "row 65", "row 59"),
+                    page.getData().rowData().stream().map(row -> row.get("LABEL")).toList(), format);
+            assertNull(sqlExecutor.getResultPage(outputPath, 0, 3, "N", "desc").getUnfilteredRowCount());
+        }
+    }
+
+    @Test
+    void testInvalidFilterIsShownInsteadOfRows() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                "SELECT * FROM test_table", Map.of(), "test.md", false));
+        String outputFileName = outputPath.getFileName().toString();
+
+        String rows = sqlExecutor.renderResultPage("test.md", outputFileName, 0, 10, null, null, "AMOUNT>ten");
+        String matching = sqlExecutor.renderResultPage("test.md", outputFileName, 0, 10, null, null, "amount>15");
+
+        assertTrue(rows.contains("Invalid value 'ten' for column AMOUNT") && !rows.contains("Test1"), rows);
+        assertTrue(matching.contains("2 of 3 rows match") && !matching.contains("Test1"), matching);
+    }
+
+    @Test
+    void testSortOrderIsStoredAndDroppedWhenOutputIsWrittenAgain() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        String sql = "SELECT * FROM test_table";
+        var request = new SqlExecutor.JsonGenerationRequest(dataSourceConfig, sql, Map.of(), "test.md", false);
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(request);
+        Path sortDirectory = tempDir.resolve("cache").resolve("sort");
+
+        var page = sqlExecutor.getResultPage(outputPath, 1, 1, "NAME", "desc");
+
+        assertEquals("Test2", page.getData().rowData().get(0).get("NAME"));
+        try (var sortOrders = Files.walk(sortDirectory)) {
+            assertEquals(1, sortOrders.filter(path -> path.toString().endsWith(".sort")).count());
+        }
+
+        try (Connection conn = dataSource.getConnection()) {
+            RunScript.execute(conn, new StringReader("INSERT INTO test_table VALUES (4, 'Test4', 1.0);"));
+        }
+        sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig, sql, Map.of(),
+                "test.md", true));
+
+        assertEquals("Test3", sqlExecutor.getResultPage(outputPath, 1, 1, "NAME", "desc")
+                .getData().rowData().get(0).get("NAME"));
+    }
+
+    @Test
+    void testJsonOutputIsReadAfterSwitchingToColumnar() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        String sql = "SELECT * FROM test_table";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+
+        configService.setSqlOutputFormat("columnar");
+        SqlResult result = sqlExecutor.getResult(new SqlExecutor.HtmlTableRequest(sql, outputPath, Map.of(),
+                dataSourceConfig.name(), "test.md", 1));
+
+        assertEquals(SqlOutputFormat.JSON, SqlOutputFormat.of(outputPath));
+        assertEquals(3, result.getRowCount());
+    }
+
+    @Test
+    void testJsonResultPageIsReadThroughRowIndex() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        String sql = "SELECT X AS N, 'row \"' || X || '\", ' AS LABEL FROM SYSTEM_RANGE(1, 500)";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+
+        SqlResult page = sqlExecutor.getResultPage(outputPath, 495, 10);
+
+        assertEquals(500, page.getTotalRowCount());
+        assertEquals(5, page.getRowCount());
+        assertEquals(new SqlExecutor.HumanReadableNumber("496"), page.getData().rowData().get(0).get("N"));
+        assertEquals("row \"500\", ", page.getData().rowData().get(4).get("LABEL"));
+        assertEquals(sql, page.getSql().sqlText());
+        assertEquals("testDB", page.getDatasourceName());
+        assertEquals(0, sqlExecutor.getResultPage(outputPath, 600, 10).getRowCount());
+    }
+
+    @Test
+    void testRowIndexIsRebuiltWhenOutputChanges() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        String sql = "SELECT * FROM test_table";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+        assertEquals("Test1", sqlExecutor.getResultPage(outputPath, 0, 1).getData().rowData().get(0).get("NAME"));
+
+        // an edit outside of devnotes, the index is only checked against the size and modification time
+        Files.writeString(outputPath, Files.readString(outputPath).replace("Test1", "Edited"));
+        Files.setLastModifiedTime(outputPath, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+        assertEquals("Edited", sqlExecutor.getResultPage(outputPath, 0, 1).getData().rowData().get(0).get("NAME"));
+    }
+
+    @Test
+    void testResultPageEndsWithPlaceholderForNextPage() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        String sql = "SELECT * FROM test_table";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+        String outputFileName = outputPath.getFileName().toString();
+
+        String firstPage = sqlExecutor.renderResultPage("test.md", outputFileName, 0, 2, null, null, null);
+        String lastPage = sqlExecutor.renderResultPage("test.md", outputFileName, 2, 2, null, null, null);
+
+        assertTrue(firstPage.contains("Test2") && !firstPage.contains("Test3"), firstPage);
+        assertTrue(firstPage.contains("hx-trigger=\"revealed\""), firstPage);
+        assertTrue(firstPage.contains("\"offset\": 2"), firstPage);
+        assertTrue(lastPage.contains("Test3"), lastPage);
+        assertFalse(lastPage.contains("revealed"), lastPage);
+    }
+
+    @Test
+    void testCsvExportStreamsEveryRowOfTheQuery() throws Exception {
+        configService.setSqlMaxRows(10);
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        configService.getDataSources().put("testDB", dataSourceConfig);
+        String sql = "SELECT X AS N, 'row \"' || X || '\", ' AS LABEL FROM SYSTEM_RANGE(1, 50)";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of(), "test.md", false));
+
+        var out = new ByteArrayOutputStream();
+        sqlExecutor.exportResult(outputPath.getFileName().toString(), "test.md", ResultExport.Format.CSV, out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(51, lines.length);
+        assertEquals("N,LABEL", lines[0]);
+        assertEquals("1,\"row \"\"1\"\", \"", lines[1]);
+        assertEquals("50,\"row \"\"50\"\", \"", lines[50]);
+    }
+
+    @Test
+    void testExcelExportHasHeaderAndRows() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        configService.getDataSources().put("testDB", dataSourceConfig);
+        String sql = "SELECT * FROM test_table WHERE amount > :minValue";
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                sql, Map.of("minValue", "15.0"), "test.md", false));
+
+        var out = new ByteArrayOutputStream();
+        sqlExecutor.exportResult(outputPath.getFileName().toString(), "test.md", ResultExport.Format.EXCEL, out);
+
+        try (var workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            var sheet = workbook.getSheet("SQL Results");
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals("NAME", sheet.getRow(0).getCell(1).getStringCellValue());
+            assertEquals("Test2", sheet.getRow(1).getCell(1).getStringCellValue());
+            assertEquals("30.9", sheet.getRow(2).getCell(2).getStringCellValue());
+        }
+    }
+
+    @Test
+    void testQueryTimeoutOfDataSourceStopsLongQuery() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver", 1);
+
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(new SqlExecutor.JsonGenerationRequest(dataSourceConfig,
+                LONG_RUNNING_SQL, Map.of(), "test.md", false));
+
+        var result = sqlExecutor.getResultPage(outputPath, 0, 1);
+        assertEquals("Error", result.getData().metadata().get(0).name());
+        assertTrue(runningQueryRegistry.runningQueries().isEmpty());
+    }
+
+    @Test
+    void testRunningQueryIsListedAndCancelled() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        var outputPath = new AtomicReference<Path>();
+        var thread = new Thread(() -> outputPath.set(sqlExecutor.renderResultAsJsonFile(
+                new SqlExecutor.JsonGenerationRequest(dataSourceConfig, LONG_RUNNING_SQL, Map.of(), "test.md",
+                        false))));
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (thread.isAlive() && System.currentTimeMillis() < deadline) {
+            for (var query : runningQueryRegistry.runningQueries()) {
+                assertEquals("testDB", query.datasourceName());
+                assertTrue(outputPathHash(query.sqlHash()));
+                runningQueryRegistry.cancel(query.id());
+            }
+            thread.join(100);
+        }
+
+        assertFalse(thread.isAlive());
+        assertEquals("Error", sqlExecutor.getResultPage(outputPath.get(), 0, 1).getData().metadata().get(0).name());
+        assertTrue(runningQueryRegistry.runningQueries().isEmpty());
+    }
+
+    @Test
+    void testConcurrentIdenticalExecutionsRunOnce() throws Exception {
+        var dataSourceConfig = new DataSourceConfig("testDB", dataSource.getUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), "org.h2.Driver");
+        var request = new SqlExecutor.JsonGenerationRequest(dataSourceConfig, LONG_RUNNING_SQL, Map.of(), "test.md",
+                true);
+        var firstPath = new AtomicReference<Path>();
+        var secondPath = new AtomicReference<Path>();
+        var first = new Thread(() -> firstPath.set(sqlExecutor.renderResultAsJsonFile(request)));
+        first.start();
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (runningQueryRegistry.runningQueries().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        var second = new Thread(() -> secondPath.set(sqlExecutor.renderResultAsJsonFile(request)));
+        second.start();
+        while (second.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, runningQueryRegistry.runningQueries().size());
+        runningQueryRegistry.runningQueries().forEach(query -> runningQueryRegistry.cancel(query.id()));
+        first.join(30_000);
+        second.join(30_000);
+
+        assertEquals(firstPath.get(), secondPath.get());
+        assertEquals("Error", sqlExecutor.getResultPage(firstPath.get(), 0, 1).getData().metadata().get(0).name());
+        try (var files = Files.list(firstPath.get().getParent())) {
+            assertEquals(List.of(firstPath.get().getFileName().toString()), files
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".output"))
+                    .toList());
+        }
+    }
+
+    private static boolean outputPathHash(String sqlHash) {
+        return sqlHash.equals(MarkdownRenderer.generateHash(SqlExecutor.outputKey(LONG_RUNNING_SQL, Map.of())));
+    }
+
+    private static final String LONG_RUNNING_SQL =
+            "SELECT SUM(A.X * B.X) AS TOTAL FROM SYSTEM_RANGE(1, 1000000) A, SYSTEM_RANGE(1, 1000000) B";
 }
@@ -0,0 +1,31 @@
+package uk.anbu.devnotes.module;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlFenceInfoTest {
+
+    @Test
+    void testDataSourceOnly() {
+        assertEquals(new SqlFenceInfo("prod", null), SqlFenceInfo.parse("prod"));
+    }
+
+    @Test
+    void testTtlUnits() {
+        assertEquals(Duration.ofSeconds(30), SqlFenceInfo.parse("prod, ttl=30s").ttl());
+        assertEquals(Duration.ofMinutes(10), SqlFenceInfo.parse("prod,ttl=10m").ttl());
+        assertEquals(Duration.ofHours(2), SqlFenceInfo.parse(" prod , ttl = 2h ").ttl());
+        assertEquals(Duration.ofDays(1), SqlFenceInfo.parse("prod, ttl=1d").ttl());
+        assertEquals("prod", SqlFenceInfo.parse(" prod , ttl = 2h ").dataSourceName());
+    }
+
+    @Test
+    void testInvalidOptions() {
+        assertThrows(IllegalArgumentException.class, () -> SqlFenceInfo.parse("prod, ttl=10"));
+        assertThrows(IllegalArgumentException.class, () -> SqlFenceInfo.parse("prod, ttl=0m"));
+        assertThrows(IllegalArgumentException.class, () -> SqlFenceInfo.parse("prod, refresh=10m"));
+    }
+}
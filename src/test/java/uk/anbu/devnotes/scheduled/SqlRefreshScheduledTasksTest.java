@@ -0,0 +1,134 @@
+package uk.anbu.devnotes.scheduled;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gg.jte.ContentType;
+import gg.jte.TemplateEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.anbu.devnotes.module.SqlExecutor;
+import uk.anbu.devnotes.service.ConfigService;
+import uk.anbu.devnotes.service.DataSourceConfig;
+import uk.anbu.devnotes.service.DataSourcePermits;
+import uk.anbu.devnotes.service.DataSourceRegistry;
+import uk.anbu.devnotes.service.OutputStore;
+import uk.anbu.devnotes.service.RunningQueryRegistry;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlRefreshScheduledTasksTest {
+
+    private static final String SQL = "SELECT COUNT(*) AS N FROM refresh_table";
+
+    @TempDir
+    Path tempDir;
+
+    private ConfigService configService;
+    private DataSourceRegistry dataSourceRegistry;
+    private SqlExecutor sqlExecutor;
+    private SqlRefreshScheduledTasks scheduledTasks;
+    private DataSourceConfig dataSourceConfig;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        configService = new ConfigService();
+        configService.setDocsDirectory(tempDir.toString());
+        configService.setSqlMaxRows(1000);
+        configService.setCacheDirectory(tempDir.resolve("cache").toString());
+        dataSourceConfig = new DataSourceConfig("testDB", "jdbc:h2:mem:refresh;DB_CLOSE_DELAY=-1", "sa", "",
+                "org.h2.Driver");
+        configService.getDataSources().put("testDB", dataSourceConfig);
+        dataSourceRegistry = new DataSourceRegistry(configService);
+        sqlExecutor = new SqlExecutor(new ObjectMapper(), TemplateEngine.createPrecompiled(ContentType.Html),
+                configService, dataSourceRegistry, new RunningQueryRegistry(),
+                new OutputStore(configService, event -> {
+                }));
+        scheduledTasks = new SqlRefreshScheduledTasks(configService, sqlExecutor,
+                new DataSourcePermits(configService), Runnable::run);
+        execute("CREATE TABLE refresh_table (id INT)");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        execute("DROP TABLE IF EXISTS refresh_table");
+        dataSourceRegistry.closeAll();
+    }
+
+    @Test
+    void testExpiringBlockIsRefreshed() throws Exception {
+        var request = request("dashboard.md");
+        Files.writeString(tempDir.resolve("dashboard.md"), "```sql(testDB, ttl=1m)\n" + SQL + "\n```\n");
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(request);
+        scheduledTasks.register(request, Duration.ofMinutes(1));
+
+        execute("INSERT INTO refresh_table VALUES (1)");
+        scheduledTasks.refreshExpiringBlocks();
+        assertEquals("0", count(outputPath), "output is still fresh");
+
+        Files.setLastModifiedTime(outputPath, FileTime.fromMillis(System.currentTimeMillis() - 55_000));
+        scheduledTasks.refreshExpiringBlocks();
+        assertEquals("1", count(outputPath));
+    }
+
+    @Test
+    void testBlockWithoutTtlIsNoLongerRefreshed() throws Exception {
+        var request = request("dashboard.md");
+        Files.writeString(tempDir.resolve("dashboard.md"), "```sql(testDB)\n" + SQL + "\n```\n");
+        scheduledTasks.register(request, Duration.ofSeconds(1));
+        scheduledTasks.register(request, null);
+
+        scheduledTasks.refreshExpiringBlocks();
+
+        assertFalse(Files.exists(sqlExecutor.outputPath(request)));
+    }
+
+    @Test
+    void testBlockRemovedFromMarkdownIsDropped() throws Exception {
+        var request = request("dashboard.md");
+        Files.writeString(tempDir.resolve("dashboard.md"), "no sql blocks any more\n");
+        scheduledTasks.register(request, Duration.ofSeconds(1));
+
+        scheduledTasks.refreshExpiringBlocks();
+        Files.writeString(tempDir.resolve("dashboard.md"), "```sql(testDB, ttl=1s)\n" + SQL + "\n```\n");
+        scheduledTasks.refreshExpiringBlocks();
+
+        assertFalse(Files.exists(sqlExecutor.outputPath(request)));
+    }
+
+    @Test
+    void testFailedRefreshKeepsLastOutput() throws Exception {
+        var request = request("dashboard.md");
+        Files.writeString(tempDir.resolve("dashboard.md"), "```sql(testDB, ttl=1s)\n" + SQL + "\n```\n");
+        Path outputPath = sqlExecutor.renderResultAsJsonFile(request);
+        scheduledTasks.register(request, Duration.ofSeconds(1));
+
+        execute("DROP TABLE refresh_table");
+        scheduledTasks.refreshExpiringBlocks();
+
+        assertEquals("0", count(outputPath));
+    }
+
+    private SqlExecutor.JsonGenerationRequest request(String markdownFilePath) {
+        return new SqlExecutor.JsonGenerationRequest(dataSourceConfig, SQL + "\n", Map.of(), markdownFilePath,
+                false);
+    }
+
+    private String count(Path outputPath) throws Exception {
+        return new ObjectMapper().readTree(outputPath.toFile()).path("data").path(0).path("N").asText();
+    }
+
+    private void execute(String sql) throws Exception {
+        try (var pool = dataSourceRegistry.lease(dataSourceConfig);
+             var connection = pool.dataSource().getConnection();
+             var statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
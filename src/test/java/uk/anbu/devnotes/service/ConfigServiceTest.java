@@ -109,4 +109,24 @@ class ConfigServiceTest {
         assertEquals("jdbc:new:url", updatedTestDB.url());
         assertEquals("anotherUser", updatedAnotherDB.username());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testUpdateQueryTimeout() {
+        Map<String, String> newConfigs = new HashMap<>();
+        newConfigs.put("datasources[testDB].queryTimeoutSeconds", "30");
+
+        configService.updateDataSources(newConfigs);
+        configService.updateDataSources(Map.of("datasources[testDB].url", "jdbc:new:url"));
+
+        DataSourceConfig updatedConfig = configService.getDataSourceConfig("testDB");
+        assertEquals(30, updatedConfig.queryTimeoutSeconds());
+        assertEquals("jdbc:new:url", updatedConfig.url());
+    }
+
+    @Test
+    void testBlankQueryTimeoutMeansNoTimeout() {
+        configService.updateDataSources(Map.of("datasources[testDB].queryTimeoutSeconds", " "));
+
+        assertEquals(0, configService.getDataSourceConfig("testDB").queryTimeoutSeconds());
+    }
+}
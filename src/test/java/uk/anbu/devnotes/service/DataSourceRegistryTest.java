@@ -0,0 +1,122 @@
+package uk.anbu.devnotes.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataSourceRegistryTest {
+
+    private ConfigService configService;
+    private DataSourceRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        configService = new ConfigService();
+        configService.setSqlPoolMaxPools(2);
+        registry = new DataSourceRegistry(configService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.closeAll();
+    }
+
+    @Test
+    void testSameConfigReusesPool() throws Exception {
+        var config = h2Config("db1", "registry1");
+
+        try (var first = registry.lease(config); var second = registry.lease(config);
+             Connection connection = first.dataSource().getConnection()) {
+            assertSame(first.dataSource(), second.dataSource());
+            assertTrue(connection.isValid(1));
+        }
+    }
+
+    @Test
+    void testChangedConfigReplacesPool() {
+        DataSource original = dataSource(h2Config("db1", "registry1"));
+        DataSource changed = dataSource(h2Config("db1", "registry2"));
+
+        assertNotSame(original, changed);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedPoolIsEvicted() {
+        var db1 = h2Config("db1", "registry1");
+        var db2 = h2Config("db2", "registry2");
+        var db3 = h2Config("db3", "registry3");
+
+        DataSource first = dataSource(db1);
+        dataSource(db2);
+        dataSource(db1);
+        dataSource(db3);
+
+        assertEquals(2, registry.size());
+        assertSame(first, dataSource(db1)); // db2 was the least recently used
+    }
+
+    @Test
+    void testLeasedPoolsAreNotEvicted() throws Exception {
+        var db1 = h2Config("db1", "registry1");
+        var db2 = h2Config("db2", "registry2");
+        var db3 = h2Config("db3", "registry3");
+
+        try (var lease = registry.lease(db1)) {
+            dataSource(db2);
+            dataSource(db3);
+
+            assertEquals(2, registry.size()); // db2 was evicted instead
+            assertSame(lease.dataSource(), dataSource(db1));
+            try (Connection connection = lease.dataSource().getConnection()) {
+                assertTrue(connection.isValid(1));
+            }
+        }
+    }
+
+    @Test
+    void testReplacedPoolIsClosedWhenItsLastLeaseIsReleased() throws Exception {
+        var lease = registry.lease(h2Config("db1", "registry1"));
+        var pool = (HikariDataSource) lease.dataSource();
+
+        dataSource(h2Config("db1", "registry2"));
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        assertFalse(pool.isClosed());
+
+        lease.close();
+        assertTrue(pool.isClosed());
+    }
+
+    @Test
+    void testRetainAllClosesRemovedDataSources() {
+        var db1 = h2Config("db1", "registry1");
+        var db2 = h2Config("db2", "registry2");
+        dataSource(db1);
+        var removed = (HikariDataSource) dataSource(db2);
+
+        registry.retainAll(List.of(db1));
+
+        assertEquals(1, registry.size());
+        assertTrue(removed.isClosed());
+    }
+
+    private DataSource dataSource(DataSourceConfig config) {
+        try (var lease = registry.lease(config)) {
+            return lease.dataSource();
+        }
+    }
+
+    private static DataSourceConfig h2Config(String name, String database) {
+        return new DataSourceConfig(name, "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1", "sa", "",
+                "org.h2.Driver");
+    }
+}
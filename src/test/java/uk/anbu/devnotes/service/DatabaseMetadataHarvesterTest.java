@@ -0,0 +1,155 @@
+package uk.anbu.devnotes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseMetadataHarvesterTest {
+
+    private static final DataSourceConfig H2 = new DataSourceConfig("h2", "jdbc:h2:mem:harvester;DB_CLOSE_DELAY=-1",
+            "sa", "", "org.h2.Driver");
+
+    private ConfigService configService;
+    private DataSourceRegistry registry;
+    private DatabaseMetadataHarvester harvester;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        configService = new ConfigService();
+        registry = new DataSourceRegistry(configService);
+        harvester = new DatabaseMetadataHarvester(configService, registry);
+        try (var pool = registry.lease(H2); Connection conn = pool.dataSource().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP ALL OBJECTS");
+            stmt.execute("CREATE TABLE customer (id INT PRIMARY KEY, name VARCHAR(100) NOT NULL)");
+            stmt.execute("CREATE TABLE orders (id INT, line INT, customer_id INT, amount DECIMAL(10, 2), "
+                    + "PRIMARY KEY (id, line), CONSTRAINT fk_customer FOREIGN KEY (customer_id) "
+                    + "REFERENCES customer (id))");
+            stmt.execute("CREATE INDEX idx_amount ON orders (amount)");
+            stmt.execute("CREATE VIEW big_orders AS SELECT * FROM orders WHERE amount > 100");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.closeAll();
+    }
+
+    @Test
+    void testColumnsOfAllTablesFromOneSweep() throws Exception {
+        JsonNode metadata = harvest(false);
+
+        assertEquals("h2", metadata.path("datasource").asText());
+        assertEquals("H2", metadata.path("database_product_name").asText());
+        JsonNode tables = metadata.path("tables");
+        assertEquals(List.of("CUSTOMER", "ORDERS"), fieldNames(tables));
+        assertEquals(List.of("ID", "LINE", "CUSTOMER_ID", "AMOUNT"),
+                tables.path("ORDERS").findValuesAsText("name"));
+        JsonNode name = tables.path("CUSTOMER").get(1);
+        assertEquals("CHARACTER VARYING", name.path("type").asText());
+        assertEquals(100, name.path("size").asInt());
+        assertFalse(name.path("nullable").asBoolean());
+        assertTrue(metadata.path("primary_keys").isMissingNode());
+    }
+
+    @Test
+    void testKeysAreReadInParallel() throws Exception {
+        configService.setDatabaseMetadataThreads(2);
+        configService.setSqlPoolMaxSize(6);
+
+        JsonNode metadata = harvest(true);
+
+        assertEquals(List.of("ID", "LINE"), texts(metadata.path("primary_keys").path("ORDERS")));
+        JsonNode foreignKey = metadata.path("foreign_keys").path("ORDERS").get(0);
+        assertEquals("FK_CUSTOMER", foreignKey.path("name").asText());
+        assertEquals(List.of("CUSTOMER_ID"), texts(foreignKey.path("columns")));
+        assertEquals("CUSTOMER", foreignKey.path("references_table").asText());
+        assertEquals(List.of("ID"), texts(foreignKey.path("references_columns")));
+        JsonNode amountIndex = null;
+        for (JsonNode index : metadata.path("indexes").path("ORDERS")) {
+            if (index.path("name").asText().equals("IDX_AMOUNT")) {
+                amountIndex = index;
+            }
+        }
+        assertNotNull(amountIndex, metadata.path("indexes").toString());
+        assertFalse(amountIndex.path("unique").asBoolean());
+        assertEquals(List.of("AMOUNT"), texts(amountIndex.path("columns")));
+    }
+
+    @Test
+    void testKeysAreReadAfterTheSweepWithAPoolOfOne() throws Exception {
+        configService.setSqlPoolMaxSize(1);
+
+        JsonNode metadata = harvest(true);
+
+        assertEquals(List.of("ID"), texts(metadata.path("primary_keys").path("CUSTOMER")));
+    }
+
+    @Test
+    void testIncrementalHarvestOfUnchangedSchemaWritesSameFile() throws Exception {
+        Path target = tempDir.resolve("database").resolve("h2.yaml");
+        harvester.harvest(H2, "PUBLIC", true, false, target);
+        byte[] full = Files.readAllBytes(target);
+
+        var summary = harvester.harvest(H2, "PUBLIC", true, true, target);
+
+        assertEquals(new DatabaseMetadataHarvester.HarvestSummary(2, 0), summary);
+        assertArrayEquals(full, Files.readAllBytes(target));
+    }
+
+    @Test
+    void testIncrementalHarvestReadsChangedTables() throws Exception {
+        Path target = tempDir.resolve("database").resolve("h2.yaml");
+        harvester.harvest(H2, "PUBLIC", true, false, target);
+        try (var pool = registry.lease(H2); Connection conn = pool.dataSource().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE customer ADD COLUMN email VARCHAR(200)");
+            stmt.execute("CREATE UNIQUE INDEX idx_email ON customer (email)");
+        }
+
+        var summary = harvester.harvest(H2, "PUBLIC", true, true, target);
+        byte[] incremental = Files.readAllBytes(target);
+        harvester.harvest(H2, "PUBLIC", true, false, target);
+
+        assertEquals(new DatabaseMetadataHarvester.HarvestSummary(2, 1), summary);
+        assertArrayEquals(Files.readAllBytes(target), incremental);
+        JsonNode metadata = new ObjectMapper(new YAMLFactory()).readTree(incremental);
+        assertEquals(List.of("ID", "NAME", "EMAIL"), metadata.path("tables").path("CUSTOMER").findValuesAsText("name"));
+        assertTrue(metadata.path("indexes").path("CUSTOMER").findValuesAsText("name").contains("IDX_EMAIL"));
+    }
+
+    private JsonNode harvest(boolean includeKeys) throws Exception {
+        Path target = tempDir.resolve("database").resolve("h2.yaml");
+        harvester.harvest(H2, "PUBLIC", includeKeys, false, target);
+        assertFalse(Files.exists(tempDir.resolve("database").resolve("h2.yaml.partial")));
+        return new ObjectMapper(new YAMLFactory()).readTree(target.toFile());
+    }
+
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+
+    private static List<String> texts(JsonNode node) {
+        List<String> texts = new ArrayList<>();
+        node.forEach(value -> texts.add(value.asText()));
+        return texts;
+    }
+}
@@ -0,0 +1,104 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DirectoryTreeTest {
+
+    @TempDir
+    Path docs;
+
+    private boolean watchingAll;
+    private DirectoryTree directoryTree;
+
+    @BeforeEach
+    void setUp() {
+        var configService = new ConfigService();
+        configService.setDocsDirectory(docs.toString());
+        var docsWatcher = new DocsWatcher(configService, event -> {
+        }, false) {
+            @Override
+            public boolean isWatchingAll() {
+                return watchingAll;
+            }
+        };
+        directoryTree = new DirectoryTree(configService, docsWatcher);
+    }
+
+    @Test
+    void testDirectoriesComeFirstAndOutputsAreLeftOut() throws Exception {
+        Files.writeString(docs.resolve("b.md"), "# B");
+        Files.writeString(docs.resolve("a.md"), "# A!");
+        Files.writeString(docs.resolve("a.0123456789abcdef.output"), "{}");
+        Files.createDirectories(docs.resolve("z-folder"));
+        Files.setLastModifiedTime(docs.resolve("a.md"), FileTime.fromMillis(1_700_000_000_000L));
+
+        List<DirectoryTree.Entry> entries = directoryTree.entries(".");
+
+        assertEquals(List.of("z-folder", "a.md", "b.md"), names(entries));
+        assertEquals(new DirectoryTree.Entry("a.md", false, 4, 1_700_000_000_000L), entries.get(1));
+        assertThrows(IllegalArgumentException.class, () -> directoryTree.entries("../"));
+    }
+
+    @Test
+    void testListingsArePaged() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            Files.writeString(docs.resolve(String.format("note-%02d.md", i)), "");
+        }
+
+        var listing = directoryTree.list("/", 20, 10);
+
+        assertEquals(".", listing.path());
+        assertEquals(20, listing.offset());
+        assertEquals(25, listing.total());
+        assertEquals(List.of("note-20.md", "note-21.md", "note-22.md", "note-23.md", "note-24.md"),
+                names(listing.entries()));
+    }
+
+    @Test
+    void testWatchedListingsAreUpdatedFromReportedChanges() throws Exception {
+        watchingAll = true;
+        Files.createDirectories(docs.resolve("team/old"));
+        Files.writeString(docs.resolve("team/a.md"), "");
+        assertEquals(List.of("old", "a.md"), names(directoryTree.entries("team")));
+        assertEquals(List.of(), names(directoryTree.entries("team/old")));
+
+        // unreported changes are not seen while the watcher covers everything
+        Files.writeString(docs.resolve("team/b.md"), "");
+        assertEquals(List.of("old", "a.md"), names(directoryTree.entries("team")));
+
+        Files.writeString(docs.resolve("team/a.md"), "changed");
+        Files.delete(docs.resolve("team/old"));
+        directoryTree.onDocsChanged(new DocsChangedEvent(
+                Set.of(docs.resolve("team/a.md"), docs.resolve("team/b.md"), docs.resolve("team/old")), false));
+
+        List<DirectoryTree.Entry> entries = directoryTree.entries("team");
+        assertEquals(List.of("a.md", "b.md"), names(entries));
+        assertEquals(7, entries.get(0).size());
+    }
+
+    @Test
+    void testUnwatchedListingsAreReadAgainWhenTheirDirectoryChanges() throws Exception {
+        Files.writeString(docs.resolve("a.md"), "");
+        assertEquals(List.of("a.md"), names(directoryTree.entries(".")));
+
+        Files.writeString(docs.resolve("b.md"), "");
+        Files.setLastModifiedTime(docs, FileTime.fromMillis(Files.getLastModifiedTime(docs).toMillis() + 1000));
+
+        assertEquals(List.of("a.md", "b.md"), names(directoryTree.entries(".")));
+    }
+
+    private static List<String> names(List<DirectoryTree.Entry> entries) {
+        return entries.stream().map(DirectoryTree.Entry::name).toList();
+    }
+}
@@ -0,0 +1,106 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocsWatcherTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final BlockingQueue<DocsChangedEvent> events = new LinkedBlockingQueue<>();
+    private final Set<Path> seen = new HashSet<>();
+    private DocsWatcher docsWatcher;
+
+    @AfterEach
+    void tearDown() {
+        docsWatcher.stop();
+    }
+
+    @Test
+    void testChangesInNewAndExistingDirectoriesArePublished() throws Exception {
+        Path docs = Files.createDirectories(tempDir.resolve("docs/notes"));
+        Files.createDirectories(tempDir.resolve("docs/.git"));
+        docsWatcher = start();
+        assertTrue(docsWatcher.isWatchingAll());
+
+        Path page = Files.writeString(docs.resolve("page.md"), "# Page");
+        assertTrue(awaitChange(page));
+
+        Path newDirectory = Files.createDirectories(tempDir.resolve("docs/notes/new"));
+        Path newPage = Files.writeString(newDirectory.resolve("new.md"), "# New");
+        assertTrue(awaitChange(newPage));
+        Files.writeString(newPage, "# Changed");
+        assertTrue(awaitChange(newPage));
+
+        Files.writeString(tempDir.resolve("docs/.git/index"), "ignored");
+        Files.delete(page);
+        assertTrue(awaitChange(page));
+        assertFalse(published(tempDir.resolve("docs/.git/index")));
+    }
+
+    @Test
+    void testDirectoriesArePolledWithoutAWatchService() throws Exception {
+        Path docs = Files.createDirectories(tempDir.resolve("docs/notes"));
+        Path page = Files.writeString(docs.resolve("page.md"), "# Page");
+        var configService = configService();
+        configService.setWatchPollSeconds(1);
+        docsWatcher = new DocsWatcher(configService, event -> events.add((DocsChangedEvent) event), false);
+        docsWatcher.start();
+        assertFalse(docsWatcher.isWatchingAll());
+
+        Files.setLastModifiedTime(page, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        assertTrue(awaitChange(page));
+
+        Path newPage = Files.writeString(Files.createDirectories(docs.resolve("new")).resolve("new.md"), "# New");
+        assertTrue(awaitChange(newPage));
+        Files.delete(page);
+        assertTrue(awaitChange(page));
+    }
+
+    private DocsWatcher start() {
+        var watcher = new DocsWatcher(configService(), event -> events.add((DocsChangedEvent) event), true);
+        watcher.start();
+        return watcher;
+    }
+
+    private ConfigService configService() {
+        var configService = new ConfigService();
+        configService.setDocsDirectory(tempDir.resolve("docs").toString());
+        return configService;
+    }
+
+    /**
+     * Waits up to 10 seconds for an event naming the path, polling watch services on some platforms are slow.
+     */
+    private boolean awaitChange(Path path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            DocsChangedEvent event = events.poll(100, TimeUnit.MILLISECONDS);
+            if (event != null) {
+                seen.addAll(event.paths());
+                if (event.affects(path)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean published(Path path) {
+        return seen.contains(path.toAbsolutePath().normalize());
+    }
+}
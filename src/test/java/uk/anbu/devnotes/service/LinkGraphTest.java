@@ -0,0 +1,110 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.anbu.devnotes.module.MarkdownRenderer.PageLink;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LinkGraphTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path docs;
+    private ConfigService configService;
+    private LinkGraph linkGraph;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        docs = Files.createDirectories(tempDir.resolve("docs"));
+        configService = new ConfigService();
+        configService.setDocsDirectory(docs.toString());
+        configService.setCacheDirectory(tempDir.resolve("cache").toString());
+        linkGraph = new LinkGraph(configService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        linkGraph.shutdown();
+    }
+
+    @Test
+    void testLinksBacklinksBrokenLinksAndOrphans() throws Exception {
+        Files.createDirectories(docs.resolve("team/images"));
+        Files.writeString(docs.resolve("index.md"), "[Team](team/runbook.md) and [the wiki](https://wiki.example.com)");
+        Files.writeString(docs.resolve("team/runbook.md"), """
+                See [home](index.md), [missing](team/missing.md) and [the team](team).
+                ![diagram](images/diagram.png) ![gone](images/gone.png) [jump](#steps)
+                """);
+        Files.writeString(docs.resolve("team/images/diagram.png"), "png");
+        Files.writeString(docs.resolve("team/notes.md"), "[outside](../../etc/passwd)");
+        linkGraph.load();
+
+        assertEquals(List.of(
+                        new PageLink("index.md", "index.md", false),
+                        new PageLink("team/missing.md", "team/missing.md", false),
+                        new PageLink("team", "team", false),
+                        new PageLink("images/diagram.png", "team/images/diagram.png", true),
+                        new PageLink("images/gone.png", "team/images/gone.png", true)),
+                linkGraph.outgoing("team/runbook.md"));
+        assertEquals(List.of("index.md"), linkGraph.backlinks("team/runbook.md"));
+        assertEquals(List.of("team/runbook.md"), linkGraph.backlinks("./team/images/diagram.png"));
+        assertEquals(List.of(
+                        new LinkGraph.BrokenLink("team/notes.md", "../../etc/passwd", false),
+                        new LinkGraph.BrokenLink("team/runbook.md", "team/missing.md", false),
+                        new LinkGraph.BrokenLink("team/runbook.md", "images/gone.png", true)),
+                linkGraph.brokenLinks());
+        assertEquals(List.of("team/notes.md"), linkGraph.orphans());
+    }
+
+    @Test
+    void testChangesUpdateTheGraph() throws Exception {
+        Files.writeString(docs.resolve("a.md"), "[b](b.md)");
+        Files.writeString(docs.resolve("b.md"), "no links");
+        linkGraph.load();
+
+        Files.writeString(docs.resolve("a.md"), "[c](folder/c.md)");
+        Files.createDirectories(docs.resolve("folder"));
+        Files.writeString(docs.resolve("folder/c.md"), "[a](a.md)");
+        linkGraph.applyChanges(List.of(docs.resolve("a.md"), docs.resolve("folder/c.md")));
+
+        assertEquals(List.of(), linkGraph.backlinks("b.md"));
+        assertEquals(List.of("a.md"), linkGraph.backlinks("folder/c.md"));
+        assertEquals(List.of(), linkGraph.brokenLinks());
+        assertEquals(List.of("b.md"), linkGraph.orphans());
+
+        Files.delete(docs.resolve("folder/c.md"));
+        Files.delete(docs.resolve("folder"));
+        linkGraph.applyChanges(List.of(docs.resolve("folder")));
+
+        assertEquals(List.of(), linkGraph.backlinks("a.md"));
+        assertEquals(List.of(new LinkGraph.BrokenLink("a.md", "folder/c.md", false)), linkGraph.brokenLinks());
+    }
+
+    @Test
+    void testOnlyChangedPagesAreReadAfterARestart() throws Exception {
+        Files.writeString(docs.resolve("a.md"), "[b](b.md)");
+        Files.writeString(docs.resolve("b.md"), "[a](a.md)");
+        linkGraph.load();
+        linkGraph.shutdown();
+
+        // the saved links of b.md are used as long as its size and modification time are unchanged
+        FileTime lastModified = Files.getLastModifiedTime(docs.resolve("b.md"));
+        Files.writeString(docs.resolve("b.md"), "[x](x.md)");
+        Files.setLastModifiedTime(docs.resolve("b.md"), lastModified);
+        Files.writeString(docs.resolve("a.md"), "[c](c.md)");
+        linkGraph = new LinkGraph(configService);
+        linkGraph.load();
+
+        assertEquals(List.of(new PageLink("a.md", "a.md", false)), linkGraph.outgoing("b.md"));
+        assertEquals(List.of(new PageLink("c.md", "c.md", false)), linkGraph.outgoing("a.md"));
+    }
+}
@@ -0,0 +1,131 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.anbu.devnotes.module.MarkdownRenderer;
+import uk.anbu.devnotes.module.SqlExecutor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputStoreTest {
+
+    private static final String SCRIPT = "'hello'";
+    private static final String SQL = "SELECT * FROM customer WHERE id = :id";
+
+    @TempDir
+    Path tempDir;
+
+    private Path docs;
+    private ConfigService configService;
+    private List<Object> events;
+    private OutputStore outputStore;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        docs = Files.createDirectories(tempDir.resolve("docs"));
+        configService = new ConfigService();
+        configService.setDocsDirectory(docs.toString());
+        configService.setCacheDirectory(tempDir.resolve("cache").toString());
+        configService.setOutputsGraceHours(1);
+        events = new ArrayList<>();
+        outputStore = new OutputStore(configService, events::add);
+    }
+
+    @AfterEach
+    void tearDown() {
+        outputStore.shutdown();
+    }
+
+    @Test
+    void testOutputsNextToTheirPagesAreMovedIntoTheStore() throws Exception {
+        Files.createDirectories(docs.resolve("notes"));
+        Files.writeString(docs.resolve("notes/page.md"), "```groovy:text\n" + SCRIPT + "\n```\n");
+        String hash = MarkdownRenderer.generateHash(SCRIPT + "\n");
+        Files.writeString(docs.resolve("notes/page." + hash + ".output"), "hello");
+        outputStore.load();
+
+        Path output = outputStore.path("./notes/page.md", hash);
+        String pageKey = MarkdownRenderer.generateHash("notes/page.md");
+
+        assertEquals(tempDir.resolve("cache/outputs").resolve(pageKey.substring(0, 2)).resolve(pageKey)
+                .resolve("page." + hash + ".output"), output);
+        assertEquals("hello", Files.readString(output));
+        assertFalse(Files.exists(docs.resolve("notes/page." + hash + ".output")));
+        assertEquals(List.of(output), outputStore.outputs("notes/page.md"));
+        assertEquals(output, outputStore.resolve("notes/page.md", "page." + hash + ".output"));
+        assertThrows(IllegalArgumentException.class,
+                () -> outputStore.resolve("notes/page.md", "../../../etc/passwd"));
+    }
+
+    @Test
+    void testUnreferencedOutputsAreDeletedAfterTheGracePeriod() throws Exception {
+        Files.writeString(docs.resolve("page.md"), "```groovy:text\n" + SCRIPT + "\n```\n\n```sql(db)\n" + SQL
+                + "\n```\n");
+        outputStore.load();
+        String scriptHash = MarkdownRenderer.generateHash(SCRIPT + "\n");
+        String sqlHash = MarkdownRenderer.generateHash(SqlExecutor.outputKey(SQL + "\n",
+                Map.of("id", "placeholder_value")));
+        long old = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        Path script = write("page.md", scriptHash, "script", old);
+        Path sql = write("page.md", sqlHash, "sql", old);
+        Path stale = write("page.md", "0123456789abcdef", "stale output", old);
+        Path recent = write("page.md", "fedcba9876543210", "recent", System.currentTimeMillis());
+        Path deletedPage = write("gone.md", "0123456789abcdef", "gone", old);
+
+        OutputStore.Sweep sweep = outputStore.sweep();
+
+        assertEquals(2, sweep.deletedFiles());
+        assertEquals("stale output".length() + "gone".length(), sweep.freedBytes());
+        assertEquals(3, sweep.keptFiles());
+        assertEquals(1, sweep.pendingFiles());
+        assertTrue(Files.exists(script) && Files.exists(sql) && Files.exists(recent));
+        assertFalse(Files.exists(stale) || Files.exists(deletedPage) || Files.exists(deletedPage.getParent()));
+        assertEquals(Set.of(new OutputChangedEvent("page.md", stale), new OutputChangedEvent(null, deletedPage)),
+                Set.copyOf(events));
+        assertEquals(sweep, outputStore.lastSweep());
+    }
+
+    @Test
+    void testOutputsOfChangedPagesAreKeptForTheGracePeriod() throws Exception {
+        Files.writeString(docs.resolve("page.md"), "```groovy:text\n" + SCRIPT + "\n```\n");
+        outputStore.load();
+        long old = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        Path output = write("page.md", MarkdownRenderer.generateHash(SCRIPT + "\n"), "hello", old);
+
+        Files.writeString(docs.resolve("page.md"), "```groovy:text\n'goodbye'\n```\n");
+        outputStore.applyChanges(List.of(docs.resolve("page.md")));
+
+        assertEquals(1, outputStore.sweep().pendingFiles());
+        assertTrue(Files.exists(output));
+
+        configService.setOutputsGraceHours(0);
+        Files.delete(docs.resolve("page.md"));
+        outputStore.applyChanges(List.of(docs.resolve("page.md")));
+        Thread.sleep(5);
+
+        assertEquals(1, outputStore.sweep().deletedFiles());
+        assertFalse(Files.exists(output));
+    }
+
+    private Path write(String page, String hash, String content, long lastModified) throws Exception {
+        Path output = outputStore.path(page, hash);
+        Files.createDirectories(output.getParent());
+        Files.writeString(output, content);
+        Files.setLastModifiedTime(output, FileTime.fromMillis(lastModified));
+        return output;
+    }
+}
@@ -0,0 +1,71 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PageReloadBroadcasterTest {
+
+    private static final long RENDERED_AT = 1_700_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private Path notes;
+    private PageReloadBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        notes = Files.createDirectories(tempDir.resolve("notes"));
+        var configService = new ConfigService();
+        configService.setDocsDirectory(tempDir.toString());
+        broadcaster = new PageReloadBroadcaster(configService);
+        broadcaster.subscribe("notes/page.md", RENDERED_AT);
+        broadcaster.subscribe("notes", RENDERED_AT);
+        broadcaster.subscribe("other.md", RENDERED_AT);
+    }
+
+    @Test
+    void testPageReloadsForOutputsWrittenAfterRendering() throws Exception {
+        Path renderedOutput = write("page.0011223344556677.output", RENDERED_AT - 1000);
+        Path partialOutput = write("page.8899aabbccddeeff.partial.output", RENDERED_AT + 1000);
+        broadcaster.onDocsChanged(changed(renderedOutput, partialOutput));
+        assertEquals(3, broadcaster.subscriptionCount());
+
+        Path refreshedOutput = write("page.0011223344556677.output", RENDERED_AT + 1000);
+        broadcaster.onDocsChanged(changed(refreshedOutput));
+        assertEquals(2, broadcaster.subscriptionCount());
+    }
+
+    @Test
+    void testDirectoryListingReloadsForNewAndDeletedEntries() throws Exception {
+        broadcaster.onDocsChanged(changed(write("page.0011223344556677.output", RENDERED_AT + 1000)));
+        assertEquals(2, broadcaster.subscriptionCount());
+
+        broadcaster.onDocsChanged(changed(notes.resolve("deleted.md")));
+        assertEquals(1, broadcaster.subscriptionCount());
+    }
+
+    @Test
+    void testEverythingReloadsAfterAnOverflow() {
+        broadcaster.onDocsChanged(new DocsChangedEvent(Set.of(), true));
+        assertEquals(0, broadcaster.subscriptionCount());
+    }
+
+    private Path write(String name, long lastModified) throws Exception {
+        Path path = Files.writeString(notes.resolve(name), "[]");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+        return path;
+    }
+
+    private static DocsChangedEvent changed(Path... paths) {
+        return new DocsChangedEvent(Set.of(paths), false);
+    }
+}
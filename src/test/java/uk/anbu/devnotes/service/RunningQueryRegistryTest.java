@@ -0,0 +1,44 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunningQueryRegistryTest {
+
+    private final RunningQueryRegistry registry = new RunningQueryRegistry();
+
+    @Test
+    void testQueriesAreListedUntilClosed() {
+        var first = registry.start("hash1", "db1");
+        var second = registry.start("hash2", "db2");
+        first.rowStreamed();
+        first.rowStreamed();
+
+        assertEquals(List.of("hash1", "hash2"),
+                registry.runningQueries().stream().map(RunningQueryRegistry.RunningQuery::sqlHash).toList());
+        assertEquals(2, registry.runningQueries().get(0).rowsStreamed());
+
+        first.close();
+        second.close();
+
+        assertTrue(registry.runningQueries().isEmpty());
+        assertFalse(registry.cancel(first.id()));
+    }
+
+    @Test
+    void testCancelBeforeStatementIsAttachedFailsTheStatement() throws Exception {
+        try (var query = registry.start("hash", "db");
+             var connection = DriverManager.getConnection("jdbc:h2:mem:runningQueries", "sa", "");
+             var statement = connection.createStatement()) {
+            assertTrue(registry.cancel(query.id()));
+
+            assertTrue(query.isCancelled());
+            assertThrows(SQLException.class, () -> query.attach(statement));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaIndexTest {
+
+    private static final String SNAPSHOT = """
+            datasource: "prod"
+            database_product_name: "H2"
+            tables:
+              CUSTOMER:
+              - name: "ID"
+                type: "INTEGER"
+              - name: "NAME"
+                type: "CHARACTER VARYING"
+              ORDERS:
+              - name: "ID"
+                type: "INTEGER"
+              - name: "CUSTOMER_ID"
+                type: "INTEGER"
+              - name: "AMOUNT"
+                type: "DECIMAL"
+            fingerprints:
+              CUSTOMER: "0011223344556677"
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    private Path database;
+    private boolean watchingAll;
+    private SchemaIndex schemaIndex;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = Files.createDirectories(tempDir.resolve("database"));
+        var configService = new ConfigService();
+        configService.setDocsDirectory(tempDir.toString());
+        var docsWatcher = new DocsWatcher(configService, event -> {
+        }, false) {
+            @Override
+            public boolean isWatchingAll() {
+                return watchingAll;
+            }
+        };
+        schemaIndex = new SchemaIndex(configService, docsWatcher);
+    }
+
+    @Test
+    void testTablesAndColumnsAreCompletedIgnoringCase() throws Exception {
+        Files.writeString(database.resolve("prod-db.yaml"), SNAPSHOT);
+
+        assertEquals(List.of(
+                        new SchemaIndex.Suggestion("CUSTOMER", SchemaIndex.Kind.TABLE, null),
+                        new SchemaIndex.Suggestion("CUSTOMER_ID", SchemaIndex.Kind.COLUMN, null)),
+                schemaIndex.suggest("prod", "cus", 10));
+        assertEquals(List.of("AMOUNT", "CUSTOMER", "CUSTOMER_ID", "ID", "NAME", "ORDERS"),
+                names(schemaIndex.suggest("prod", "", 10)));
+        assertEquals(List.of("AMOUNT", "CUSTOMER"), names(schemaIndex.suggest("prod", "", 2)));
+        assertTrue(schemaIndex.suggest("prod", "x", 10).isEmpty());
+        assertTrue(schemaIndex.suggest("prod-db", "cus", 10).isEmpty());
+    }
+
+    @Test
+    void testColumnsOfATable() throws Exception {
+        Files.writeString(database.resolve("prod.yaml"), SNAPSHOT);
+
+        assertEquals(List.of(
+                        new SchemaIndex.Suggestion("ID", SchemaIndex.Kind.COLUMN, "ORDERS"),
+                        new SchemaIndex.Suggestion("CUSTOMER_ID", SchemaIndex.Kind.COLUMN, "ORDERS"),
+                        new SchemaIndex.Suggestion("AMOUNT", SchemaIndex.Kind.COLUMN, "ORDERS")),
+                schemaIndex.suggest("prod", "orders.", 10));
+        assertEquals(List.of("NAME"), names(schemaIndex.suggest("prod", "Customer.n", 10)));
+    }
+
+    @Test
+    void testSnapshotWithoutDatasourceIsNamedByItsFile() throws Exception {
+        Files.writeString(database.resolve("legacy.yaml"), SNAPSHOT.replace("datasource: \"prod\"\n", ""));
+
+        assertEquals(List.of("ORDERS"), names(schemaIndex.suggest("legacy", "o", 10)));
+    }
+
+    @Test
+    void testChangedAndDeletedSnapshotsAreReloaded() throws Exception {
+        Path snapshot = database.resolve("prod.yaml");
+        Files.writeString(snapshot, SNAPSHOT);
+        assertEquals(List.of("ORDERS"), names(schemaIndex.suggest("prod", "o", 10)));
+
+        Files.writeString(snapshot, SNAPSHOT.replace("ORDERS:", "ORDER_LINES:"));
+        Files.setLastModifiedTime(snapshot, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        schemaIndex.reload(snapshot);
+        assertEquals(List.of("ORDER_LINES"), names(schemaIndex.suggest("prod", "o", 10)));
+
+        Files.delete(snapshot);
+        schemaIndex.refresh();
+        assertTrue(schemaIndex.suggest("prod", "o", 10).isEmpty());
+    }
+
+    @Test
+    void testSnapshotDirectoryIsOnlyPolledWhileNotWatched() throws Exception {
+        watchingAll = true;
+        schemaIndex.refreshUnlessWatched();
+        Path snapshot = database.resolve("prod.yaml");
+        Files.writeString(snapshot, SNAPSHOT);
+
+        schemaIndex.refreshUnlessWatched();
+        assertTrue(schemaIndex.suggest("prod", "o", 10).isEmpty());
+
+        schemaIndex.onDocsChanged(new DocsChangedEvent(Set.of(snapshot), false));
+        assertEquals(List.of("ORDERS"), names(schemaIndex.suggest("prod", "o", 10)));
+
+        watchingAll = false;
+        Files.delete(snapshot);
+        schemaIndex.refreshUnlessWatched();
+        assertTrue(schemaIndex.suggest("prod", "o", 10).isEmpty());
+    }
+
+    @Test
+    void testSnapshotsOfOneDatasourceAreMerged() throws Exception {
+        Files.writeString(database.resolve("prod.yaml"), SNAPSHOT);
+        Files.writeString(database.resolve("prod-archive.yaml"), """
+                datasource: "prod"
+                tables:
+                  ARCHIVED_ORDERS:
+                  - name: "ID"
+                """);
+
+        assertEquals(List.of("AMOUNT", "ARCHIVED_ORDERS"), names(schemaIndex.suggest("prod", "a", 10)));
+        assertEquals(List.of("ID"), names(schemaIndex.suggest("prod", "i", 10)));
+    }
+
+    private static List<String> names(List<SchemaIndex.Suggestion> suggestions) {
+        return suggestions.stream().map(SchemaIndex.Suggestion::name).toList();
+    }
+}
@@ -0,0 +1,99 @@
+package uk.anbu.devnotes.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures searches over generated notes, including the snippets of the best 20 results. Words are drawn with a
+ * skewed distribution so some terms are in most notes and others in a few, like in real notes.
+ * <p>
+ * Run {@link #main} after {@code mvn test-compile}, generating and indexing the notes takes a while.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchIndexBenchmark {
+
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final String[] QUERIES = {"w3", "w150 w2000", "w17 settlement w9000", "w19999", "w42 w43 w44"};
+
+    @Param({"50000"})
+    private int noteCount;
+
+    private Path tempDir;
+    private SearchIndex searchIndex;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("search-benchmark");
+        Path docs = Files.createDirectories(tempDir.resolve("docs"));
+        var random = new Random(42);
+        for (int i = 0; i < noteCount; i++) {
+            Path directory = Files.createDirectories(docs.resolve("team-" + i % 50));
+            Files.writeString(directory.resolve("note-" + i + ".md"), generateNote(random, i));
+        }
+        var configService = new ConfigService();
+        configService.setDocsDirectory(docs.toString());
+        configService.setCacheDirectory(tempDir.resolve("cache").toString());
+        searchIndex = new SearchIndex(configService, new OutputStore(configService, event -> {
+        }));
+        searchIndex.rebuild();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searchIndex.shutdown();
+        FileSystemUtils.deleteRecursively(tempDir);
+    }
+
+    @Benchmark
+    public SearchIndex.Results search() {
+        return searchIndex.search(QUERIES[next++ % QUERIES.length], 20);
+    }
+
+    static String generateNote(Random random, int seed) {
+        StringBuilder note = new StringBuilder("# Note ").append(seed).append("\n\n");
+        for (int word = 0; word < 200; word++) {
+            // squaring a uniform value favours the low word numbers
+            double uniform = random.nextDouble();
+            note.append('w').append((int) (uniform * uniform * VOCABULARY_SIZE))
+                    .append(word % 12 == 11 ? ".\n" : " ");
+        }
+        if (seed % 100 == 0) {
+            note.append("\nSettlement breaks are listed on the dashboard.\n");
+        }
+        return note.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SearchIndexBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
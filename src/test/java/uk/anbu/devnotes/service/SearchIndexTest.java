@@ -0,0 +1,158 @@
+package uk.anbu.devnotes.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path docs;
+    private ConfigService configService;
+    private OutputStore outputStore;
+    private SearchIndex searchIndex;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        docs = Files.createDirectories(tempDir.resolve("docs"));
+        configService = new ConfigService();
+        configService.setDocsDirectory(docs.toString());
+        configService.setCacheDirectory(tempDir.resolve("cache").toString());
+        configService.setSearchThreads(2);
+        outputStore = new OutputStore(configService, event -> {
+        });
+        searchIndex = new SearchIndex(configService, outputStore);
+    }
+
+    @AfterEach
+    void tearDown() {
+        searchIndex.shutdown();
+    }
+
+    @Test
+    void testFilesAreRankedByHowWellTheyMatch() throws Exception {
+        Files.writeString(docs.resolve("orders.md"), "# Orders\n\nOrders by customer, the orders table holds orders.");
+        Files.writeString(docs.resolve("customers.md"), "# Customers\n\nEvery customer has orders.");
+        Files.writeString(docs.resolve("notes.md"), "Nothing to see here.");
+        Files.createDirectories(docs.resolve(".git"));
+        Files.writeString(docs.resolve(".git/orders.md"), "orders orders orders");
+        searchIndex.rebuild();
+
+        var results = searchIndex.search("Orders", 10);
+
+        assertFalse(results.indexing());
+        assertEquals(2, results.matches());
+        assertEquals(List.of("orders.md", "customers.md"), paths(results));
+        assertEquals(List.of("customers.md", "orders.md"), paths(searchIndex.search("customer has", 10)));
+        assertEquals(List.of(), paths(searchIndex.search("missing", 10)));
+        assertEquals(List.of("orders.md"), paths(searchIndex.search("orders", 1)));
+    }
+
+    @Test
+    void testSnippetsMarkTheMatchingTerms() throws Exception {
+        String filler = "lorem ipsum ".repeat(40);
+        Files.writeString(docs.resolve("page.md"), filler + "the <b>Invoice</b> total " + filler);
+        searchIndex.rebuild();
+
+        String snippet = searchIndex.search("invoice", 10).hits().get(0).snippet();
+
+        assertTrue(snippet.contains("&lt;b&gt;<mark>Invoice</mark>&lt;/b&gt; total"), snippet);
+        assertTrue(snippet.startsWith("&hellip;") && snippet.endsWith("&hellip;"), snippet);
+        assertTrue(snippet.length() < 300, snippet);
+    }
+
+    @Test
+    void testChangedFilesAreSearchableBeforeTheyAreMerged() throws Exception {
+        Files.writeString(docs.resolve("a.md"), "apples");
+        Files.createDirectories(docs.resolve("fruit"));
+        Files.writeString(docs.resolve("fruit/b.md"), "bananas and apples");
+        searchIndex.rebuild();
+
+        Files.writeString(docs.resolve("a.md"), "cherries");
+        Files.writeString(docs.resolve("fruit/c.md"), "more apples");
+        searchIndex.applyChanges(List.of(docs.resolve("a.md"), docs.resolve("fruit/c.md")));
+
+        assertEquals(List.of("fruit/b.md", "fruit/c.md"), sorted(paths(searchIndex.search("apples", 10))));
+        assertEquals(List.of("a.md"), paths(searchIndex.search("cherries", 10)));
+
+        Files.delete(docs.resolve("fruit/b.md"));
+        Files.delete(docs.resolve("fruit/c.md"));
+        Files.delete(docs.resolve("fruit"));
+        searchIndex.applyChanges(List.of(docs.resolve("fruit")));
+
+        assertEquals(List.of(), paths(searchIndex.search("apples", 10)));
+
+        searchIndex.merge();
+
+        assertEquals(List.of("a.md"), paths(searchIndex.search("cherries", 10)));
+        assertEquals(List.of(), paths(searchIndex.search("apples bananas", 10)));
+    }
+
+    @Test
+    void testOutputsAreSearchedWhenIncluded() throws Exception {
+        Files.writeString(docs.resolve("report.md"), "# Report");
+        Path output = outputStore.path("report.md", "0123456789abcdef");
+        Files.createDirectories(output.getParent());
+        Files.writeString(output, """
+                {"sql":"select * from customer","metadata":[{"name":"NAME"}],"rows":[{"NAME":"Zebedee"}]}
+                """);
+        searchIndex.rebuild();
+
+        assertEquals(List.of(), paths(searchIndex.search("zebedee", 10)));
+
+        configService.setSearchIncludeOutputs(true);
+        searchIndex.rebuild();
+        var hit = searchIndex.search("zebedee", 10).hits().get(0);
+
+        assertEquals("report.0123456789abcdef.output", hit.path());
+        assertEquals("report.md", hit.page());
+        assertTrue(hit.snippet().contains("<mark>Zebedee</mark>"), hit.snippet());
+    }
+
+    @Test
+    void testPostingsRoundTripThroughASegmentFile() throws Exception {
+        var builder = new SearchSegment.Builder();
+        for (int id = 0; id < 1000; id++) {
+            builder.addDocument("note-" + id + ".md", 3);
+            builder.addPosting(id % 3 == 0 ? "fizz" : "plain", id, 1);
+            if (id % 300 == 0) {
+                builder.addPosting("éclair", id, 200);
+            }
+        }
+        Path file = tempDir.resolve("segment.idx");
+        builder.write(file);
+
+        SearchSegment segment = SearchSegment.open(file);
+        List<Integer> ids = new ArrayList<>();
+        segment.forEachPosting(segment.find("éclair"), (id, frequency) -> {
+            ids.add(id);
+            assertEquals(200, frequency);
+        });
+
+        assertEquals(1000, segment.documentCount());
+        assertEquals(334, segment.documentFrequency(segment.find("fizz")));
+        assertEquals(List.of(0, 300, 600, 900), ids);
+        assertEquals(-1, segment.find("buzz"));
+        assertEquals(42, segment.id("note-42.md"));
+    }
+
+    private static List<String> paths(SearchIndex.Results results) {
+        return results.hits().stream().map(SearchIndex.Hit::path).toList();
+    }
+
+    private static List<String> sorted(List<String> paths) {
+        return paths.stream().sorted().toList();
+    }
+}